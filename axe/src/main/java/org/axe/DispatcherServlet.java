@@ -24,8 +24,8 @@
 package org.axe;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
-import java.lang.reflect.Method;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
@@ -33,6 +33,7 @@ import java.util.Stack;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
 import javax.servlet.ServletRegistration;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -43,6 +44,7 @@ import org.axe.bean.mvc.ExceptionHolder;
 import org.axe.bean.mvc.Handler;
 import org.axe.bean.mvc.Param;
 import org.axe.bean.mvc.ResultHolder;
+import org.axe.bean.mvc.RouteMatch;
 import org.axe.bean.mvc.View;
 import org.axe.constant.CharacterEncoding;
 import org.axe.constant.ContentType;
@@ -52,14 +54,12 @@ import org.axe.exception.RestException;
 import org.axe.helper.HelperLoader;
 import org.axe.helper.base.ConfigHelper;
 import org.axe.helper.base.MailHelper;
-import org.axe.helper.ioc.BeanHelper;
 import org.axe.helper.mvc.ControllerHelper;
 import org.axe.interface_.mvc.Filter;
 import org.axe.interface_.mvc.Interceptor;
 import org.axe.util.CollectionUtil;
 import org.axe.util.JsonUtil;
 import org.axe.util.LogUtil;
-import org.axe.util.ReflectionUtil;
 import org.axe.util.RequestUtil;
 import org.axe.util.StringUtil;
 
@@ -117,7 +117,7 @@ public class DispatcherServlet extends HttpServlet{
     }
 
     @Override
-    public void service(HttpServletRequest request, HttpServletResponse response) {
+    public void service(HttpServletRequest request, HttpServletResponse response) throws IOException {
     	String contentType = ContentType.APPLICATION_JSON.CONTENT_TYPE;
     	String characterEncoding = CharacterEncoding.UTF_8.CHARACTER_ENCODING;
     	Stack<Filter> doEndFilterStack = null;
@@ -127,6 +127,7 @@ public class DispatcherServlet extends HttpServlet{
     	Handler handler = null;
     	ResultHolder resultHolder = new ResultHolder();
     	ExceptionHolder exceptionHolder = new ExceptionHolder();
+    	ResponseAbortedException responseAborted = null;
         try {
     		//清理请求上下文，避免线程复用导致上下文中存在脏数据
         	RequestContent.clean();
@@ -139,18 +140,15 @@ public class DispatcherServlet extends HttpServlet{
                 return;
             }*/
             //获取 Action 处理器
-            handler = ControllerHelper.getHandler(requestMethod,requestPath);
-            if(handler != null){
-            	//获取 Controller  类和 Bean 实例
-            	Class<?> controllerClass = handler.getControllerClass();
-            	Method actionMethod = handler.getActionMethod();
-            	
-                Object controllerBean = BeanHelper.getBean(controllerClass);
+            RouteMatch routeMatch = ControllerHelper.route(requestMethod,requestPath);
+            if(routeMatch != null){
+            	handler = routeMatch.getHandler();
+            	//Controller 实例在Handler里绑定好了
                 contentType = handler.getContentType();
                 characterEncoding = handler.getCharacterEncoding();
                 
                 //##1.创建你请求参数对象
-                param = new Param(requestPath);
+                param = new Param(requestPath,routeMatch.getVariableNames(),routeMatch.getVariableValues());
                 
                 //##2.先执行Filter链
                 List<Filter> filterList = handler.getFilterList();
@@ -183,8 +181,8 @@ public class DispatcherServlet extends HttpServlet{
                 }
                 //##4.执行action
                 if(doFilterSuccess && doInterceptorSuccess){
-                	//调用 Action方法
-                	Object result = ReflectionUtil.invokeMethod(controllerBean,actionMethod,param.getActionParamList().toArray());
+                	//调用 Action方法，Handler里是绑定了Controller实例的方法句柄
+                	Object result = handler.invokeAction(param.getActionParams());
                 	resultHolder.setResult(result);
                 }
             }else{
@@ -260,6 +258,9 @@ public class DispatcherServlet extends HttpServlet{
                 			handleDataResult(data,response,handler,RESPONSE_IS_USED);
                 		}
 					} catch (Exception e2) {
+						if(e2 instanceof ResponseAbortedException){
+							responseAborted = (ResponseAbortedException)e2;
+						}
 						LogUtil.error(e2);
 						try {
 				    		//邮件通知
@@ -274,6 +275,9 @@ public class DispatcherServlet extends HttpServlet{
     		//清理请求上下文
         	RequestContent.clean();
 		}
+        if(responseAborted != null){
+        	throw responseAborted;
+        }
     }
     
     public void writeError(int status,String msg,HttpServletResponse response,Integer RESPONSE_IS_USED,String contentType,String characterEncoding){
@@ -338,7 +342,7 @@ public class DispatcherServlet extends HttpServlet{
         }
     }
 
-    private void handleDataResult(Data data,HttpServletResponse response,Handler handler,Integer RESPONSE_IS_USED) throws IOException{
+    private void handleDataResult(Data data,HttpServletResponse response,Handler handler,Integer RESPONSE_IS_USED) throws Exception{
     	if(RESPONSE_IS_USED == 0){
         	RESPONSE_IS_USED++;
     		response.setContentType(handler.getContentType());
@@ -346,14 +350,111 @@ public class DispatcherServlet extends HttpServlet{
     		//返回JSON数据
     		Object model = data.getModel();
     		if(model != null){
-    			String json = model instanceof String ? String.valueOf(model):JsonUtil.toJson(model);
-    			if(json != null){
+    			if(model instanceof String){
     				PrintWriter writer = response.getWriter();
-    				writer.write(json);
+    				writer.write(String.valueOf(model));
 //    				writer.flush();
 //    				writer.close();
+    			}else{
+    				//直接序列化到输出流，不再生成整段json字符串
+    				ServletOutputStream outputStream = null;
+    				if(CharacterEncoding.UTF_8.CHARACTER_ENCODING.equalsIgnoreCase(handler.getCharacterEncoding())){
+    					try {
+    						outputStream = response.getOutputStream();
+    					} catch (IllegalStateException e) {
+    						//前面已经有人用过getWriter()了
+    					}
+    				}
+    				if(outputStream != null){
+    					ContentLengthOutputStream out = new ContentLengthOutputStream(response, outputStream);
+    					try {
+    						JsonUtil.writeJson(out, model);
+						} catch (Exception e) {
+							if(response.isCommitted()){
+								//超过缓冲的部分已经分块写出去了，不能再正常结束分块传输，抛出去让容器断开连接，客户端才知道响应不完整
+								throw new ResponseAbortedException(e);
+							}
+							//还没提交，清掉写了一半的json，改成500
+							response.resetBuffer();
+							response.setStatus(RestException.SC_INTERNAL_SERVER_ERROR);
+							byte[] msg = ("500 server error,"+e.getMessage()).getBytes(handler.getCharacterEncoding());
+							response.setContentLength(msg.length);
+							outputStream.write(msg);
+							throw e;
+						}
+    					out.finish();
+    				}else{
+    					JsonUtil.writeJson(response.getWriter(), model);
+    				}
     			}
     		}
     	}
     }
+    
+    /**
+     * 响应已经提交了一部分后出错，抛出service让容器中断连接
+     */
+    private static final class ResponseAbortedException extends IOException{
+		private static final long serialVersionUID = 1L;
+
+		private ResponseAbortedException(Throwable cause) {
+			super("response aborted after commit: "+cause.getMessage(), cause);
+		}
+    }
+    
+    /**
+     * 结果不超过缓冲区大小时，设置Content-Length一次写出
+     * 超过了就把已缓冲的先写出去，之后直接写输出流，由容器分块传输
+     */
+    private static final class ContentLengthOutputStream extends OutputStream{
+    	private static final int BUFFER_SIZE = 8*1024;
+    	private final HttpServletResponse response;
+    	private final OutputStream outputStream;
+    	private byte[] buffer = new byte[BUFFER_SIZE];
+    	private int count = 0;
+    	
+    	private ContentLengthOutputStream(HttpServletResponse response, OutputStream outputStream) {
+    		this.response = response;
+    		this.outputStream = outputStream;
+		}
+    	
+		@Override
+		public void write(int b) throws IOException {
+			if(buffer != null && count < buffer.length){
+				buffer[count++] = (byte)b;
+			}else{
+				spill();
+				outputStream.write(b);
+			}
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if(buffer != null && len <= buffer.length-count){
+				System.arraycopy(b, off, buffer, count, len);
+				count = count+len;
+			}else{
+				spill();
+				outputStream.write(b, off, len);
+			}
+		}
+		
+		private void spill() throws IOException{
+			if(buffer != null){
+				outputStream.write(buffer, 0, count);
+				buffer = null;
+			}
+		}
+		
+		/**
+		 * 写完后调用
+		 */
+		private void finish() throws IOException{
+			if(buffer != null){
+				response.setContentLength(count);
+				outputStream.write(buffer, 0, count);
+				buffer = null;
+			}
+		}
+    }
 }
@@ -28,6 +28,8 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
+import org.axe.constant.Propagation;
+
 /**
  * 事务注解
  * @author CaiDongyu on 2016/4/18.
@@ -37,4 +39,20 @@ import java.lang.annotation.Target;
 @Retention(RetentionPolicy.RUNTIME)
 public @interface Tns {
 
+	/**
+	 * 事务传播方式，默认有事务就加入，没有就开启
+	 */
+	Propagation propagation() default Propagation.REQUIRED;
+	
+	/**
+	 * 只读事务，连接会设置成setReadOnly(true)
+	 * 只在开启新事务时生效，加入外面的事务时以外面的为准
+	 */
+	boolean readOnly() default false;
+	
+	/**
+	 * 事务超时时间，单位秒，-1表示不限制
+	 * 只在开启新事务时生效，语句会按剩余时间设置查询超时
+	 */
+	int timeout() default -1;
 }
@@ -0,0 +1,302 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2017 CaiDongyu
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.axe.bean.mvc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.axe.bean.mvc.PathTemplate.Segment;
+import org.axe.constant.RequestMethod;
+
+/**
+ * 编译好的路由树
+ * 启动时由所有Handler构建，之后只读
+ * 请求时按下标在原始路径上逐段走树，不做split、不做正则、不创建中间字符串
+ * 路径参数的起止下标在走树时记进线程复用的数组，匹配到后直接截取，不再走第二遍；没有路径参数的路由直接返回预先建好的RouteMatch
+ * 固定段用开放寻址的散列表找，带路径参数的段按 带固定前后缀的 优先于 整段{x} 的顺序尝试，匹配失败可以回溯
+ */
+public final class ActionRouter {
+	
+	private static final RequestMethod[] REQUEST_METHODS = RequestMethod.values();
+	
+	/**
+	 * 路径参数的起止下标，每个线程复用一个
+	 */
+	private static final ThreadLocal<int[]> BOUNDS_HOLDER = new ThreadLocal<int[]>(){
+		@Override
+		protected int[] initialValue() {
+			return new int[0];
+		}
+	};
+	
+	private final Node root;
+	/**
+	 * 所有路由里最多的路径参数个数
+	 */
+	private final int maxVariableCount;
+	
+	public ActionRouter(List<Handler> handlerList) {
+		Builder rootBuilder = new Builder(null);
+		int maxVariableCount = 0;
+		for(Handler handler:handlerList){
+			PathTemplate template = handler.getPathTemplate();
+			maxVariableCount = Math.max(maxVariableCount, template.getVariableNames().length);
+			Builder builder = rootBuilder;
+			for(Segment segment:template.getSegments()){
+				builder = builder.child(segment);
+			}
+			int methodIndex = methodIndex(handler.getRequestMethod());
+			if(methodIndex < 0){
+				throw new RuntimeException("invalid request method: "+handler.getRequestMethod()+" of action: "+handler.getActionMethod().toGenericString());
+			}
+			if(builder.handlers[methodIndex] != null){
+				throw new RuntimeException("find the same action: "+handler.getActionMethod().toGenericString()+" === "+builder.handlers[methodIndex].getActionMethod().toGenericString());
+			}
+			builder.handlers[methodIndex] = handler;
+			builder.templates[methodIndex] = template;
+		}
+		this.root = rootBuilder.build();
+		this.maxVariableCount = maxVariableCount;
+	}
+	
+	/**
+	 * 路由，找不到返回null
+	 */
+	public RouteMatch route(String requestMethod,String requestPath){
+		int methodIndex = methodIndex(requestMethod);
+		if(methodIndex < 0 || requestPath == null){
+			return null;
+		}
+		requestPath = requestPath.trim();
+		int[] bounds = null;
+		if(maxVariableCount > 0){
+			bounds = BOUNDS_HOLDER.get();
+			if(bounds.length < maxVariableCount*2){
+				bounds = new int[maxVariableCount*2];
+				BOUNDS_HOLDER.set(bounds);
+			}
+		}
+		Node leaf = find(root, requestPath, 0, requestPath.length(), methodIndex, bounds, 0);
+		if(leaf == null){
+			return null;
+		}
+		RouteMatch staticMatch = leaf.staticMatches[methodIndex];
+		if(staticMatch != null){
+			return staticMatch;
+		}
+		String[] variableNames = leaf.templates[methodIndex].getVariableNames();
+		String[] variableValues = new String[variableNames.length];
+		for(int i=0;i<variableValues.length;i++){
+			variableValues[i] = requestPath.substring(bounds[i*2], bounds[i*2+1]);
+		}
+		return new RouteMatch(leaf.handlers[methodIndex], variableNames, variableValues);
+	}
+	
+	/**
+	 * @param variableOffset 当前段的路径参数在bounds里的起始位置，回溯时后面的路径参数会被重新写
+	 */
+	private static Node find(Node node,String path,int pos,int end,int methodIndex,int[] bounds,int variableOffset){
+		//跳过分隔符，连续的 / 视为一个
+		while(pos < end && path.charAt(pos) == '/'){
+			pos++;
+		}
+		if(pos >= end){
+			return node.handlers[methodIndex] != null ? node : null;
+		}
+		int segmentEnd = path.indexOf('/', pos);
+		if(segmentEnd < 0 || segmentEnd > end){
+			segmentEnd = end;
+		}
+		
+		//固定段优先
+		Node child = node.staticChild(path, pos, segmentEnd);
+		if(child != null){
+			Node leaf = find(child, path, segmentEnd, end, methodIndex, bounds, variableOffset);
+			if(leaf != null){
+				return leaf;
+			}
+		}
+		//再试路径参数段
+		for(Node patternChild:node.patternChildren){
+			if(patternChild.segment.matches(path, pos, segmentEnd, bounds, variableOffset)){
+				Node leaf = find(patternChild, path, segmentEnd, end, methodIndex, bounds, variableOffset+patternChild.segment.getVariableNames().length*2);
+				if(leaf != null){
+					return leaf;
+				}
+			}
+		}
+		return null;
+	}
+	
+	private static int methodIndex(String requestMethod){
+		if(requestMethod != null){
+			for(RequestMethod method:REQUEST_METHODS){
+				if(method.REQUEST_METHOD.equalsIgnoreCase(requestMethod)){
+					return method.ordinal();
+				}
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * 与String.hashCode()同算法，只算[start,end)这一段
+	 */
+	private static int hash(String str,int start,int end){
+		int h = 0;
+		for(int i=start;i<end;i++){
+			h = 31*h + str.charAt(i);
+		}
+		return h;
+	}
+	
+	/**
+	 * 树节点，构建完成后不可变
+	 */
+	private static final class Node {
+		private final Segment segment;
+		private final String[] staticKeys;
+		private final Node[] staticNodes;
+		private final int staticMask;
+		private final Node[] patternChildren;
+		private final Handler[] handlers;
+		private final PathTemplate[] templates;
+		/**
+		 * 没有路径参数的路由，RouteMatch不可变，提前建好复用
+		 */
+		private final RouteMatch[] staticMatches;
+		
+		private Node(Segment segment, Map<String,Node> staticChildren, List<Node> patternChildren, Handler[] handlers, PathTemplate[] templates) {
+			this.segment = segment;
+			//负载因子不超过0.5，保证探测很短
+			int capacity = 1;
+			while(capacity < staticChildren.size()*2){
+				capacity <<= 1;
+			}
+			this.staticKeys = new String[capacity];
+			this.staticNodes = new Node[capacity];
+			this.staticMask = capacity-1;
+			for(Map.Entry<String, Node> entry:staticChildren.entrySet()){
+				String key = entry.getKey();
+				int index = key.hashCode() & staticMask;
+				while(staticKeys[index] != null){
+					index = (index+1) & staticMask;
+				}
+				staticKeys[index] = key;
+				staticNodes[index] = entry.getValue();
+			}
+			this.patternChildren = patternChildren.toArray(new Node[patternChildren.size()]);
+			this.handlers = handlers;
+			this.templates = templates;
+			this.staticMatches = new RouteMatch[handlers.length];
+			for(int i=0;i<handlers.length;i++){
+				if(handlers[i] != null && templates[i].getVariableNames().length == 0){
+					staticMatches[i] = new RouteMatch(handlers[i], null, null);
+				}
+			}
+		}
+		
+		private Node staticChild(String path,int start,int end){
+			if(staticChildrenEmpty()){
+				return null;
+			}
+			int length = end-start;
+			int index = hash(path, start, end) & staticMask;
+			String key;
+			while((key = staticKeys[index]) != null){
+				if(key.length() == length && path.regionMatches(start, key, 0, length)){
+					return staticNodes[index];
+				}
+				index = (index+1) & staticMask;
+			}
+			return null;
+		}
+		
+		private boolean staticChildrenEmpty(){
+			return staticKeys.length == 1 && staticKeys[0] == null;
+		}
+	}
+	
+	/**
+	 * 构建期使用的可变节点
+	 */
+	private static final class Builder {
+		private final Segment segment;
+		private final Map<String,Builder> staticChildren = new HashMap<>();
+		private final Map<String,Builder> patternChildren = new LinkedHashMap<>();
+		private final Handler[] handlers = new Handler[REQUEST_METHODS.length];
+		private final PathTemplate[] templates = new PathTemplate[REQUEST_METHODS.length];
+		
+		private Builder(Segment segment) {
+			this.segment = segment;
+		}
+		
+		private Builder child(Segment segment){
+			//同结构的路径参数段(参数名不同)共用一个节点，参数名以各自Handler的模板为准
+			Map<String,Builder> children = segment.isStatic() ? staticChildren : patternChildren;
+			Builder child = children.get(segment.getKey());
+			if(child == null){
+				child = new Builder(segment);
+				children.put(segment.getKey(), child);
+			}
+			return child;
+		}
+		
+		private Node build(){
+			Map<String,Node> staticNodes = new HashMap<>();
+			for(Map.Entry<String, Builder> entry:staticChildren.entrySet()){
+				staticNodes.put(entry.getKey(), entry.getValue().build());
+			}
+			List<Builder> patternBuilders = new ArrayList<>(patternChildren.values());
+			//整段{x}的最后试，固定字符越多的越先试
+			Collections.sort(patternBuilders, new Comparator<Builder>() {
+				@Override
+				public int compare(Builder o1, Builder o2) {
+					if(o1.segment.isWildcard() != o2.segment.isWildcard()){
+						return o1.segment.isWildcard() ? 1 : -1;
+					}
+					return literalLength(o2.segment) - literalLength(o1.segment);
+				}
+			});
+			List<Node> patternNodes = new ArrayList<>();
+			for(Builder builder:patternBuilders){
+				patternNodes.add(builder.build());
+			}
+			return new Node(segment, staticNodes, patternNodes, handlers, templates);
+		}
+		
+		private static int literalLength(Segment segment){
+			int length = 0;
+			for(String literal:segment.getLiterals()){
+				length = length + literal.length();
+			}
+			return length;
+		}
+	}
+}
@@ -24,13 +24,16 @@
 package org.axe.bean.mvc;
 
 import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.List;
 
 import org.axe.annotation.mvc.Request;
+import org.axe.helper.ioc.BeanHelper;
 import org.axe.interface_.mvc.Filter;
 import org.axe.interface_.mvc.Interceptor;
+import org.axe.util.ReflectionUtil;
 
 /**
  * 封装 Action 信息
@@ -85,6 +88,11 @@ public final class Handler {
      */
     private int actionIndex;
     
+    /**
+     * 预编译的mappingPath模板，路由和取路径参数用
+     */
+    private PathTemplate pathTemplate;
+    
     public class ActionParam{
     	private Class<?> paramType;
     	private Annotation[] annotations;
@@ -106,6 +114,11 @@ public final class Handler {
      */
     private List<ActionParam> actionParamList;
     
+    /**
+     * Action 参数绑定计划
+     */
+    private ParamBinder paramBinder;
+    
     /**
      * Filter 链
      */
@@ -115,6 +128,11 @@ public final class Handler {
      * 拦截器列表
      */
     private List<Interceptor> interceptorList;
+    
+    /**
+     * 绑定了Controller单例的action调用句柄，第一次调用时创建，这时Bean已经是AOP代理后的实例
+     */
+    private volatile MethodHandle actionInvoker;
 
     
     
@@ -122,6 +140,7 @@ public final class Handler {
 			Class<?> controllerClass, String controllerDesc, Method actionMethod, String actionDesc, List<Filter> filterList, List<Interceptor> interceptorList) {
 		this.requestMethod = requestMethod;
 		this.mappingPath = mappingPath;
+		this.pathTemplate = new PathTemplate(mappingPath);
 		this.mappingPathDesc = controllerDesc+"."+actionDesc;
 		this.controllerClass = controllerClass;
 		this.controllerDesc = controllerDesc;
@@ -154,6 +173,7 @@ public final class Handler {
 						+ "parameterAnnotations.length["+parameterAnnotations.length+"]: "+this.actionMethod.toGenericString());
 			}
 		}
+		this.paramBinder = new ParamBinder(this.actionMethod);
 	}
 
 	public Class<?> getControllerClass() {
@@ -180,6 +200,10 @@ public final class Handler {
 		return mappingPath;
 	}
     
+    public PathTemplate getPathTemplate() {
+		return pathTemplate;
+	}
+    
     public String getMappingPathDesc() {
 		return mappingPathDesc;
 	}
@@ -188,6 +212,10 @@ public final class Handler {
 		return actionParamList;
 	}
 
+	public ParamBinder getParamBinder() {
+		return paramBinder;
+	}
+
 	public List<Filter> getFilterList() {
 		return filterList;
 	}
@@ -204,6 +232,18 @@ public final class Handler {
 		return characterEncoding;
 	}
 
+	/**
+	 * 调用action，参数是ParamBinder绑定好的数组
+	 */
+	public Object invokeAction(Object[] actionParams) {
+		MethodHandle invoker = actionInvoker;
+		if(invoker == null){
+			invoker = ReflectionUtil.bindMethod(BeanHelper.getBean(controllerClass), actionMethod);
+			actionInvoker = invoker;
+		}
+		return ReflectionUtil.invokeBound(invoker, actionParams);
+	}
+
 	public int getActionIndex() {
 		return actionIndex;
 	}
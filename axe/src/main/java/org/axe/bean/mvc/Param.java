@@ -24,10 +24,13 @@
 package org.axe.bean.mvc;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.axe.exception.RestException;
+import org.axe.util.AjaxRequestUtil;
 import org.axe.util.CollectionUtil;
 import org.axe.util.StringUtil;
 
@@ -36,6 +39,9 @@ import org.axe.util.StringUtil;
  * @author CaiDongyu on 2016/4/11.
  */
 public final class Param {
+	
+	private static final String[] EMPTY = new String[0];
+	
 	/**
 	 * 原始的请求时候的url
 	 */
@@ -44,6 +50,14 @@ public final class Param {
 	 * http请求的body部分
 	 */
 	private String body;
+	/**
+	 * http请求body的原始字节，body字符串和bodyParamMap都由它按需解析
+	 */
+	private byte[] bodyBytes;
+	/**
+	 * bodyParamMap是否已经解析，并与formParamList互相补全
+	 */
+	private boolean bodyParsed;
 	/**
 	 * 完整的请求参数列表，formParam格式
 	 */
@@ -62,16 +76,37 @@ public final class Param {
 	/**
 	 * action method的调用参数
 	 */
+	private Object[] actionParams;
+	/**
+	 * getActionParamList()给出去的可修改列表，Filter、Interceptor改了它，调用时以它为准
+	 */
 	private List<Object> actionParamList;
+	
+	/**
+	 * 路径参数名，与pathVariableValues一一对应
+	 */
+	private String[] pathVariableNames;
+	
+	/**
+	 * 路由时取出的路径参数值
+	 */
+	private String[] pathVariableValues;
 
 	public Param(String requestPath) {
+		this(requestPath, EMPTY, EMPTY);
+	}
+	
+	public Param(String requestPath, String[] pathVariableNames, String[] pathVariableValues) {
 		this.requestPath = requestPath;
+		this.pathVariableNames = pathVariableNames == null ? EMPTY : pathVariableNames;
+		this.pathVariableValues = pathVariableValues == null ? EMPTY : pathVariableValues;
 		body = "";
+		bodyParsed = true;
 		formParamList = new ArrayList<>();
 		fileParamList = new ArrayList<>();
 		bodyParamMap = new HashMap<>();
 		
-		actionParamList = new ArrayList<>();
+		actionParams = new Object[0];
 	}
 	
     public void init(String body, List<FormParam> formParamList, List<FileParam> fileParamList, Map<String,Object> bodyParamMap) {
@@ -79,7 +114,39 @@ public final class Param {
     	this.formParamList = formParamList;
         this.fileParamList = fileParamList;
         this.bodyParamMap = bodyParamMap;
-        
+        this.bodyBytes = null;
+        this.bodyParsed = true;
+        mergeBodyParamMap();
+    }
+    
+    /**
+     * 只保存body原始字节，body字符串和bodyParamMap在第一次用到时才解析
+     * 这样@RequestEntity可以直接从字节绑定，没人要Map的时候就不用构建Map
+     */
+    public void initLazy(byte[] bodyBytes, List<FormParam> formParamList) {
+    	this.body = null;
+    	this.bodyBytes = bodyBytes;
+    	this.formParamList = formParamList;
+    	this.fileParamList = null;
+    	this.bodyParamMap = null;
+    	this.bodyParsed = false;
+    }
+    
+    /**
+     * 按需解析bodyParamMap
+     */
+    private void parseBody(){
+    	if(bodyParsed) return;
+    	bodyParsed = true;
+    	try {
+    		bodyParamMap = AjaxRequestUtil.parseBodyParamMap(getBody());
+		} catch (Exception e) {
+			throw new RestException(RestException.SC_INTERNAL_SERVER_ERROR,e.getMessage());
+		}
+    	mergeBodyParamMap();
+    }
+    
+    private void mergeBodyParamMap(){
         //formParamList和bodyParamMap互相补全
         Map<String,Object> tmpMap = new HashMap<>();
         if(this.bodyParamMap != null){
@@ -89,7 +156,7 @@ public final class Param {
         }
         
         if(this.formParamList != null){
-        	for(FormParam fp:formParamList){
+        	for(FormParam fp:this.formParamList){
         		if(this.bodyParamMap == null){
         			this.bodyParamMap = new HashMap<>();
         		}
@@ -103,16 +170,24 @@ public final class Param {
         		if(entry.getValue() instanceof List){
         			for(Object obj:(List<?>)entry.getValue()){
         				String fieldValue = String.valueOf(obj);
-        				formParamList.add(new FormParam(fieldName, fieldValue));
+        				this.formParamList.add(new FormParam(fieldName, fieldValue));
         			}
         		}else{
         			String fieldValue = String.valueOf(entry.getValue());
-    				formParamList.add(new FormParam(fieldName, fieldValue));
+    				this.formParamList.add(new FormParam(fieldName, fieldValue));
         		}
         	}
         }
     }
     
+    public String[] getPathVariableNames() {
+		return pathVariableNames;
+	}
+    
+    public String[] getPathVariableValues() {
+		return pathVariableValues;
+	}
+    
     public String getRequestPath() {
 		return requestPath;
 	}
@@ -126,13 +201,32 @@ public final class Param {
 	}
 
     public String getBody() {
+    	if(body == null && bodyBytes != null){
+    		body = AjaxRequestUtil.decodeBody(bodyBytes);
+    	}
 		return body;
 	}
     
+    public byte[] getBodyBytes() {
+		return bodyBytes;
+	}
+    
+    public boolean isBodyParsed() {
+		return bodyParsed;
+	}
+    
+    /**
+     * url参数、路径变量等请求里带的FormParam，不触发body解析，body还没解析时不含body里的字段
+     */
+    public List<FormParam> getRequestFormParamList() {
+    	return formParamList;
+    }
+    
 	/**
      * 获取请求参数的映射
      */
 	public Map<String,List<FormParam>> getFieldMap(){
+		parseBody();
         Map<String,List<FormParam>> fieldMap = new HashMap<>();
         if(CollectionUtil.isNotEmpty(formParamList)){
             for(FormParam formParam:formParamList){
@@ -165,10 +259,12 @@ public final class Param {
     }
 
     public List<FormParam> getFormParamList() {
+    	parseBody();
 		return formParamList;
 	}
 
 	public void setFormParamList(List<FormParam> formParamList) {
+		parseBody();
 		this.formParamList = formParamList;
 	}
 
@@ -181,25 +277,40 @@ public final class Param {
 	}
 
 	public Map<String, Object> getBodyParamMap() {
+		parseBody();
 		return bodyParamMap;
 	}
 
 	public void setBodyParamMap(Map<String, Object> bodyParamMap) {
+		this.bodyParsed = true;
 		this.bodyParamMap = bodyParamMap;
 	}
 
 	public boolean isEmpty(){
+		parseBody();
         return CollectionUtil.isEmpty(formParamList) && 
         		CollectionUtil.isEmpty(fileParamList) && 
         		CollectionUtil.isEmpty(bodyParamMap) && 
-        		StringUtil.isEmpty(body);
+        		StringUtil.isEmpty(getBody());
     }
 
 	public List<Object> getActionParamList() {
+		if(actionParamList == null){
+			actionParamList = new ArrayList<>(Arrays.asList(actionParams));
+		}
 		return actionParamList;
 	}
 
 	public void setActionParamList(List<Object> actionParamList) {
 		this.actionParamList = actionParamList;
 	}
+
+	public Object[] getActionParams() {
+		return actionParamList == null ? actionParams : actionParamList.toArray();
+	}
+
+	public void setActionParams(Object[] actionParams) {
+		this.actionParams = actionParams;
+		this.actionParamList = null;
+	}
 }
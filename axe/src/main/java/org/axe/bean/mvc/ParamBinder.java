@@ -0,0 +1,276 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2017 CaiDongyu
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.axe.bean.mvc;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.axe.annotation.mvc.Default;
+import org.axe.annotation.mvc.RequestEntity;
+import org.axe.annotation.mvc.RequestParam;
+import org.axe.util.CastUtil;
+import org.axe.util.ReflectionUtil;
+import org.axe.util.StringUtil;
+
+/**
+ * Action方法参数的绑定计划
+ * Handler创建时解析一次方法参数的类型、注解，预编译正则、预转换默认值
+ * 请求时AxeRequestParamAnalyzeFilter按计划直接填充Object[]，不再反射
+ */
+public final class ParamBinder {
+	
+	/**
+	 * 参数来源
+	 */
+	public enum Kind{
+		/**
+		 * @RequestParam
+		 */
+		REQUEST_PARAM,
+		/**
+		 * @RequestEntity
+		 */
+		REQUEST_ENTITY,
+		HTTP_SERVLET_REQUEST,
+		HTTP_SERVLET_RESPONSE,
+		PARAM,
+		/**
+		 * Map，给bodyParamMap
+		 */
+		BODY_PARAM_MAP,
+		/**
+		 * 其他杂七杂八类型，只能给null，框架不管
+		 */
+		NONE
+	}
+	
+	private final Slot[] slots;
+	
+	/**
+	 * 只有一个@RequestEntity，且没有别的参数需要bodyParamMap时
+	 * 实体直接从body字节绑定，不构建Map
+	 */
+	private final boolean entityStreamable;
+	
+	public ParamBinder(Method actionMethod) {
+		Type[] parameterTypes = actionMethod.getGenericParameterTypes();
+		Annotation[][] parameterAnnotations = actionMethod.getParameterAnnotations();
+		parameterTypes = parameterTypes == null?new Class<?>[0]:parameterTypes;
+		this.slots = new Slot[parameterTypes.length];
+		for(int i=0;i<parameterTypes.length;i++){
+			slots[i] = new Slot(parameterTypes[i], parameterAnnotations[i]);
+		}
+		int entityCount = 0;
+		boolean needBodyParamMap = false;
+		for(Slot slot:slots){
+			if(slot.kind == Kind.REQUEST_ENTITY){
+				entityCount++;
+			}else if(slot.kind == Kind.REQUEST_PARAM || slot.kind == Kind.PARAM || slot.kind == Kind.BODY_PARAM_MAP){
+				needBodyParamMap = true;
+			}
+		}
+		this.entityStreamable = entityCount == 1 && !needBodyParamMap;
+	}
+	
+	public Slot[] getSlots() {
+		return slots;
+	}
+	
+	public boolean isEntityStreamable() {
+		return entityStreamable;
+	}
+	
+	/**
+	 * 单个方法参数的绑定方式
+	 */
+	public static final class Slot{
+		private final Type parameterType;
+		private final Kind kind;
+		private final RequestParam requestParam;
+		private final RequestEntity requestEntity;
+		/**
+		 * 校验不通过时报错用的名称，desc优先
+		 */
+		private final String errorName;
+		/**
+		 * @RequestParam.compile 预编译
+		 */
+		private final Pattern compilePattern;
+		/**
+		 * @RequestParam 的默认值，不可变类型启动时就转换好，其他类型每次请求再转换
+		 */
+		private final boolean hasDefaultValue;
+		private final boolean defaultValueCasted;
+		private final Object defaultValue;
+		/**
+		 * @RequestEntity 的默认值，已拆成 key value
+		 */
+		private final String[] entityDefaultKeys;
+		private final String[] entityDefaultValues;
+		
+		private Slot(Type parameterType, Annotation[] annotations) {
+			this.parameterType = parameterType;
+			RequestParam requestParam = null;
+			RequestEntity requestEntity = null;
+			Default def = null;
+			for(Annotation anno:annotations){
+				if(anno instanceof RequestParam){
+					requestParam = (RequestParam)anno;
+				}else if(anno instanceof RequestEntity){
+					requestEntity = (RequestEntity)anno;
+				}else if(anno instanceof Default){
+					def = (Default)anno;
+				}
+			}
+			this.requestParam = requestParam;
+			this.requestEntity = requestEntity;
+			boolean hasDefValue = def != null && def.value() != null && def.value().length > 0;
+			
+			if(requestParam != null){
+				this.kind = Kind.REQUEST_PARAM;
+				this.errorName = StringUtil.isEmpty(requestParam.desc())?requestParam.name():requestParam.desc();
+				this.compilePattern = StringUtil.isNotEmpty(requestParam.compile())?Pattern.compile(requestParam.compile()):null;
+				this.hasDefaultValue = hasDefValue;
+				if(hasDefValue && isImmutable(parameterType)){
+					this.defaultValueCasted = true;
+					this.defaultValue = CastUtil.castType(def.value()[0], parameterType);
+				}else{
+					this.defaultValueCasted = false;
+					this.defaultValue = hasDefValue?def.value()[0]:null;
+				}
+				this.entityDefaultKeys = null;
+				this.entityDefaultValues = null;
+			}else{
+				this.errorName = null;
+				this.compilePattern = null;
+				this.hasDefaultValue = false;
+				this.defaultValueCasted = false;
+				this.defaultValue = null;
+				if(requestEntity != null){
+					this.kind = Kind.REQUEST_ENTITY;
+					String[] defValues = hasDefValue?def.value():new String[0];
+					this.entityDefaultKeys = new String[defValues.length];
+					this.entityDefaultValues = new String[defValues.length];
+					for(int i=0;i<defValues.length;i++){
+						String defVal = defValues[i];
+						entityDefaultKeys[i] = defVal.substring(0, defVal.indexOf(":"));
+						entityDefaultValues[i] = defVal.endsWith(":")?"":defVal.substring(defVal.indexOf(":")+1);
+					}
+				}else{
+					this.kind = kindOf(parameterType);
+					this.entityDefaultKeys = null;
+					this.entityDefaultValues = null;
+				}
+			}
+		}
+		
+		private static Kind kindOf(Type parameterType){
+			Class<?> parameterClass = null; 
+			if(parameterType instanceof Class){
+				parameterClass = (Class<?>)parameterType;
+			}else if(parameterType instanceof ParameterizedType){
+				parameterClass = (Class<?>)((ParameterizedType) parameterType).getRawType();
+			}
+			if(parameterClass != null){
+				if(ReflectionUtil.compareType(HttpServletRequest.class, parameterClass)){
+					return Kind.HTTP_SERVLET_REQUEST;
+				}
+				if(ReflectionUtil.compareType(HttpServletResponse.class, parameterClass)){
+					return Kind.HTTP_SERVLET_RESPONSE;
+				}
+				if(ReflectionUtil.compareType(Param.class,parameterClass)){
+					return Kind.PARAM;
+				}
+				if(ReflectionUtil.compareType(Map.class, parameterClass)){
+					return Kind.BODY_PARAM_MAP;
+				}
+			}
+			return Kind.NONE;
+		}
+		
+		/**
+		 * 可以在多个请求间共享的类型
+		 */
+		private static boolean isImmutable(Type type){
+			if(!(type instanceof Class)){
+				return false;
+			}
+			Class<?> cls = (Class<?>)type;
+			return cls.isPrimitive() || cls.isEnum() || cls == String.class || cls == Boolean.class || cls == Character.class
+					|| cls == Byte.class || cls == Short.class || cls == Integer.class || cls == Long.class
+					|| cls == Float.class || cls == Double.class || cls == BigDecimal.class || cls == BigInteger.class;
+		}
+		
+		/**
+		 * 取@RequestParam的默认值，没有则返回null
+		 */
+		public Object getDefaultValue(){
+			if(!hasDefaultValue){
+				return null;
+			}
+			return defaultValueCasted?defaultValue:CastUtil.castType(defaultValue, parameterType);
+		}
+
+		public Type getParameterType() {
+			return parameterType;
+		}
+
+		public Kind getKind() {
+			return kind;
+		}
+
+		public RequestParam getRequestParam() {
+			return requestParam;
+		}
+
+		public RequestEntity getRequestEntity() {
+			return requestEntity;
+		}
+
+		public String getErrorName() {
+			return errorName;
+		}
+
+		public Pattern getCompilePattern() {
+			return compilePattern;
+		}
+
+		public String[] getEntityDefaultKeys() {
+			return entityDefaultKeys;
+		}
+
+		public String[] getEntityDefaultValues() {
+			return entityDefaultValues;
+		}
+	}
+}
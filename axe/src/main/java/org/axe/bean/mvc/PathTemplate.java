@@ -0,0 +1,208 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2017 CaiDongyu
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.axe.bean.mvc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 预编译的 mappingPath 模板
+ * 启动时把 /user/{id}/x_{name} 这样的路径，按 "/" 切成段，每段解析成 固定字符串+路径参数 的组合
+ * 请求时按段匹配，不需要正则，也不需要 split，路径参数的位置在匹配时顺便记下
+ */
+public final class PathTemplate {
+	
+	/**
+	 * 原始的mappingPath
+	 */
+	private final String mappingPath;
+	/**
+	 * 非空的路径段
+	 */
+	private final Segment[] segments;
+	/**
+	 * 所有路径参数名，按出现顺序
+	 */
+	private final String[] variableNames;
+	
+	public PathTemplate(String mappingPath) {
+		this.mappingPath = mappingPath;
+		List<Segment> segmentList = new ArrayList<>();
+		List<String> variableNameList = new ArrayList<>();
+		int pos = 0;
+		int end = mappingPath.length();
+		while(pos < end){
+			int slash = mappingPath.indexOf('/', pos);
+			int segmentEnd = slash < 0 ? end : slash;
+			if(segmentEnd > pos){
+				Segment segment = new Segment(mappingPath.substring(pos, segmentEnd));
+				segmentList.add(segment);
+				for(String variableName:segment.variableNames){
+					variableNameList.add(variableName);
+				}
+			}
+			pos = segmentEnd+1;
+		}
+		this.segments = segmentList.toArray(new Segment[segmentList.size()]);
+		this.variableNames = variableNameList.toArray(new String[variableNameList.size()]);
+	}
+	
+	public String getMappingPath() {
+		return mappingPath;
+	}
+	
+	public Segment[] getSegments() {
+		return segments;
+	}
+	
+	public String[] getVariableNames() {
+		return variableNames;
+	}
+	
+	/**
+	 * 路径段
+	 * 比如 x_{name}_{age} 解析成 literals=["x_","_",""] variableNames=["name","age"]
+	 */
+	public static final class Segment {
+		/**
+		 * 段的原文
+		 */
+		private final String text;
+		/**
+		 * 路径参数替换成?后的段，同结构的段(不论参数名)是同一个key
+		 */
+		private final String key;
+		/**
+		 * 参数之间的固定字符串，长度总是 variableNames.length+1
+		 */
+		private final String[] literals;
+		private final String[] variableNames;
+		
+		public Segment(String text) {
+			this.text = text;
+			List<String> literalList = new ArrayList<>();
+			List<String> variableNameList = new ArrayList<>();
+			StringBuilder key = new StringBuilder();
+			int pos = 0;
+			while(true){
+				int open = text.indexOf('{', pos);
+				int close = open < 0 ? -1 : text.indexOf('}', open);
+				if(close < 0){
+					literalList.add(text.substring(pos));
+					key.append(text.substring(pos));
+					break;
+				}
+				literalList.add(text.substring(pos, open));
+				key.append(text.substring(pos, open)).append("?");
+				variableNameList.add(text.substring(open+1, close));
+				pos = close+1;
+			}
+			this.key = key.toString();
+			this.literals = literalList.toArray(new String[literalList.size()]);
+			this.variableNames = variableNameList.toArray(new String[variableNameList.size()]);
+		}
+		
+		/**
+		 * 没有路径参数
+		 */
+		public boolean isStatic(){
+			return variableNames.length == 0;
+		}
+		
+		/**
+		 * 整段就是一个路径参数，比如 {id}
+		 */
+		public boolean isWildcard(){
+			return variableNames.length == 1 && literals[0].length() == 0 && literals[1].length() == 0;
+		}
+		
+		/**
+		 * 请求路径的[start,end)这一段是否满足此段模板
+		 * 与原先 [REG_WORD]* 的正则匹配语义一致，但不产生任何对象
+		 */
+		public boolean matches(String path,int start,int end){
+			return match(path, start, end, 0, null, 0);
+		}
+		
+		/**
+		 * 同matches，匹配上时把第i个路径参数在请求路径里的起止下标写进bounds[offset+i*2]、bounds[offset+i*2+1]
+		 */
+		boolean matches(String path,int start,int end,int[] bounds,int offset){
+			return match(path, start, end, 0, bounds, offset);
+		}
+		
+		/**
+		 * 先匹配第literalIndex个固定字符串，再让其后的参数尽量长地吃掉字符（与正则贪婪一致）
+		 */
+		private boolean match(String path,int pos,int end,int literalIndex,int[] bounds,int offset){
+			String literal = literals[literalIndex];
+			if(end-pos < literal.length() || !path.regionMatches(pos, literal, 0, literal.length())){
+				return false;
+			}
+			pos = pos+literal.length();
+			if(literalIndex == variableNames.length){
+				return pos == end;
+			}
+			int maxEnd = pos;
+			while(maxEnd < end && isWordChar(path.charAt(maxEnd))){
+				maxEnd++;
+			}
+			for(int valueEnd=maxEnd;valueEnd>=pos;valueEnd--){
+				if(match(path, valueEnd, end, literalIndex+1, bounds, offset)){
+					if(bounds != null){
+						bounds[offset+literalIndex*2] = pos;
+						bounds[offset+literalIndex*2+1] = valueEnd;
+					}
+					return true;
+				}
+			}
+			return false;
+		}
+		
+		public String getText() {
+			return text;
+		}
+		
+		public String getKey() {
+			return key;
+		}
+		
+		public String[] getLiterals() {
+			return literals;
+		}
+		
+		public String[] getVariableNames() {
+			return variableNames;
+		}
+	}
+	
+	/**
+	 * 路径参数允许的字符，同RequestUtil.REG_WORD
+	 * 字母、数字、下划线、$、中划线、点
+	 */
+	public static boolean isWordChar(char c){
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+				|| c == '_' || c == '$' || c == '-' || c == '.';
+	}
+}
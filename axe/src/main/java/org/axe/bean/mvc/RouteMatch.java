@@ -0,0 +1,55 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2017 CaiDongyu
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.axe.bean.mvc;
+
+/**
+ * 路由结果
+ * 匹配到的Handler，以及路由时顺便取出的路径参数
+ */
+public final class RouteMatch {
+	
+	private static final String[] EMPTY = new String[0];
+	
+	private final Handler handler;
+	private final String[] variableNames;
+	private final String[] variableValues;
+	
+	public RouteMatch(Handler handler, String[] variableNames, String[] variableValues) {
+		this.handler = handler;
+		this.variableNames = variableNames == null ? EMPTY : variableNames;
+		this.variableValues = variableValues == null ? EMPTY : variableValues;
+	}
+
+	public Handler getHandler() {
+		return handler;
+	}
+
+	public String[] getVariableNames() {
+		return variableNames;
+	}
+
+	public String[] getVariableValues() {
+		return variableValues;
+	}
+}
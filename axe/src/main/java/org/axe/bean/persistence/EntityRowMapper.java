@@ -0,0 +1,221 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2017 CaiDongyu
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.axe.bean.persistence;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.axe.interface_.persistence.RowMapper;
+import org.axe.interface_.type_convert.BaseTypeConvert;
+import org.axe.util.CastUtil;
+import org.axe.util.ReflectionUtil;
+import org.axe.util.StringUtil;
+
+/**
+ * 预编译的实体行映射
+ * 按 实体类+结果集列名 编译一次并缓存：
+ * 字段对应的列下标提前找好，找不到的列直接跳过，setter和构造方法转成MethodHandle
+ * 每列的类型转换器按取到的值类型解析一次后缓存
+ * 映射一行只是按下标取值、转换、调用setter
+ */
+public final class EntityRowMapper<T> implements RowMapper<T> {
+	
+	private static final Map<String,EntityRowMapper<?>> CACHE = new ConcurrentHashMap<>();
+	private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+	private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(Object.class);
+	
+	private final Class<T> entityClass;
+	private final MethodHandle constructor;
+	private final Column[] columns;
+	
+	/**
+	 * 取编译好的行映射，没有就编译
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> EntityRowMapper<T> getInstance(Class<T> entityClass,ResultSetMetaData rsmd) throws SQLException{
+		int columnCount = rsmd.getColumnCount();
+		String[] labels = new String[columnCount];
+		StringBuilder key = new StringBuilder(entityClass.getName());
+		for(int i=0;i<columnCount;i++){
+			labels[i] = rsmd.getColumnLabel(i+1);
+			key.append(',').append(labels[i]);
+		}
+		EntityRowMapper<T> mapper = (EntityRowMapper<T>) CACHE.get(key.toString());
+		if(mapper == null){
+			mapper = new EntityRowMapper<>(entityClass, labels);
+			CACHE.put(key.toString(), mapper);
+		}
+		return mapper;
+	}
+	
+	private EntityRowMapper(Class<T> entityClass,String[] labels) {
+		this.entityClass = entityClass;
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		MethodHandle constructor = null;
+		try {
+			constructor = lookup.findConstructor(entityClass, MethodType.methodType(void.class)).asType(CONSTRUCTOR_TYPE);
+		} catch (Exception e) {
+			//不能直接访问的构造方法，还是用反射创建
+		}
+		this.constructor = constructor;
+		
+		//列名不区分大小写，同名取第一个，与ResultSet.findColumn一致
+		Map<String,Integer> labelIndexMap = new HashMap<>();
+		for(int i=labels.length-1;i>=0;i--){
+			labelIndexMap.put(labels[i].toUpperCase(), i+1);
+		}
+		List<Column> columnList = new ArrayList<>();
+		for(EntityFieldMethod entityFieldMethod:ReflectionUtil.getSetMethodList(entityClass)){
+			Field field = entityFieldMethod.getField();
+			String fieldName = field.getName();
+			//先按下划线列名找，找不到再按原驼峰字段名找，都没有就不处理
+			Integer index = labelIndexMap.get(StringUtil.camelToUnderline(fieldName).toUpperCase());
+			if(index == null){
+				index = labelIndexMap.get(fieldName.toUpperCase());
+			}
+			if(index == null) continue;
+			Method method = entityFieldMethod.getMethod();
+			method.setAccessible(true);
+			try {
+				MethodHandle setter = lookup.unreflect(method).asType(SETTER_TYPE);
+				columnList.add(new Column(index, field.getType(), setter));
+			} catch (IllegalAccessException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		this.columns = columnList.toArray(new Column[columnList.size()]);
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public T mapRow(ResultSet table) throws SQLException {
+		T entity;
+		if(constructor != null){
+			try {
+				entity = (T)constructor.invokeExact();
+			} catch (Throwable e) {
+				throw new RuntimeException(e);
+			}
+		}else{
+			entity = ReflectionUtil.newInstance(entityClass);
+		}
+		for(Column column:columns){
+			Object value = column.convert(table.getObject(column.index));
+			try {
+				column.setter.invokeExact((Object)entity, value);
+			} catch (Throwable e) {
+				throw new RuntimeException(e);
+			}
+		}
+		return entity;
+	}
+	
+	/**
+	 * 字段与列的对应
+	 */
+	private static final class Column{
+		private final int index;
+		private final Class<?> fieldType;
+		private final MethodHandle setter;
+		/**
+		 * 按上一次取到的值类型解析好的转换方式，同一列的值类型基本不会变
+		 */
+		private volatile Conversion conversion;
+		
+		private Column(int index, Class<?> fieldType, MethodHandle setter) {
+			this.index = index;
+			this.fieldType = fieldType;
+			this.setter = setter;
+		}
+		
+		/**
+		 * 与CastUtil.castType结果一致
+		 */
+		private Object convert(Object value){
+			if(value == null) return null;
+			Conversion conversion = this.conversion;
+			if(conversion == null || conversion.valueType != value.getClass()){
+				conversion = new Conversion(value.getClass(), fieldType);
+				this.conversion = conversion;
+			}
+			switch (conversion.mode) {
+			case Conversion.TO_STRING:
+				return value.toString();
+			case Conversion.CONVERT:
+				return conversion.typeConvert.convert(value);
+			case Conversion.STRING_CONVERT:
+				return conversion.typeConvert.convert(value.toString());
+			default:
+				return value;
+			}
+		}
+	}
+	
+	private static final class Conversion{
+		private static final int NONE = 0;
+		private static final int TO_STRING = 1;
+		private static final int CONVERT = 2;
+		private static final int STRING_CONVERT = 3;
+		
+		private final Class<?> valueType;
+		private final int mode;
+		private final BaseTypeConvert typeConvert;
+		
+		private Conversion(Class<?> valueType,Class<?> fieldType) {
+			this.valueType = valueType;
+			BaseTypeConvert typeConvert = null;
+			int mode = NONE;
+			do{
+				if(ReflectionUtil.compareType(valueType, fieldType)) break;
+				if(ReflectionUtil.compareType(fieldType, String.class)){
+					mode = TO_STRING;
+					break;
+				}
+				typeConvert = CastUtil.getTypeConvert(valueType, fieldType);
+				if(typeConvert != null){
+					mode = CONVERT;
+					break;
+				}
+				//就用加一级String中间转换
+				typeConvert = CastUtil.getTypeConvert(String.class, fieldType);
+				if(typeConvert != null){
+					mode = STRING_CONVERT;
+				}
+			}while(false);
+			this.mode = mode;
+			this.typeConvert = typeConvert;
+		}
+	}
+}
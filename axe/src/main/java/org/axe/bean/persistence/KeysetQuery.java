@@ -0,0 +1,312 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2017 CaiDongyu
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.axe.bean.persistence;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.axe.helper.persistence.DataBaseHelper;
+import org.axe.helper.persistence.DataSourceHelper;
+import org.axe.interface_.persistence.RowMapper;
+import org.axe.util.JsonUtil;
+import org.axe.util.StringUtil;
+import org.axe.util.sql.CommonSqlUtil;
+
+import com.fasterxml.jackson.core.Base64Variants;
+
+/**
+ * 游标分页（keyset）查询
+ * 把sql包一层，按上一页最后一行的排序键定位：MySql是 WHERE (k1,k2) > (?,?) ORDER BY k1,k2 LIMIT n
+ * 其他数据库展开成 k1 > ? OR (k1 = ? AND k2 > ?)
+ * 多查一行，用来判断还有没有下一页，下一页的游标是本页最后一行排序键的值编码成的字符串
+ */
+public final class KeysetQuery {
+	
+	private static final Pattern KEY_COLUMN_PATTERN = Pattern.compile("^`?([\\w$]+)`?(?:\\s+(ASC|DESC))?$", Pattern.CASE_INSENSITIVE);
+	private static final String TABLE_ALIAS = "t_keyset";
+	
+	private final String dataSourceName;
+	private final PageConfig pageConfig;
+	private final String[] columns;
+	private final boolean desc;
+	private final Object[] params;
+	private final Class<?>[] paramTypes;
+	private String nextCursor;
+	
+	private KeysetQuery(String dataSourceName, PageConfig pageConfig, String[] columns, boolean desc, Object[] params, Class<?>[] paramTypes) {
+		this.dataSourceName = dataSourceName;
+		this.pageConfig = pageConfig;
+		this.columns = columns;
+		this.desc = desc;
+		this.params = params;
+		this.paramTypes = paramTypes;
+	}
+	
+	/**
+	 * 参数末尾是游标分页的PageConfig才返回KeysetQuery，否则返回null
+	 */
+	public static KeysetQuery getInstance(String dataSourceName, Object[] params, Class<?>[] paramTypes){
+		PageConfig pageConfig = CommonSqlUtil.getPageConfigFromParams(params, paramTypes);
+		if(pageConfig == null || !pageConfig.isKeyset()){
+			return null;
+		}
+		String[] keyColumns = pageConfig.getKeyColumns();
+		String[] columns = new String[keyColumns.length];
+		Boolean desc = null;
+		for(int i=0;i<keyColumns.length;i++){
+			Matcher matcher = KEY_COLUMN_PATTERN.matcher(StringUtil.collapseSpace(keyColumns[i] == null ? "" : keyColumns[i].trim()));
+			if(!matcher.matches()){
+				throw new RuntimeException("invalid keyset page column: " + keyColumns[i]);
+			}
+			columns[i] = matcher.group(1);
+			boolean columnDesc = "DESC".equalsIgnoreCase(matcher.group(2));
+			if(desc != null && desc != columnDesc){
+				throw new RuntimeException("keyset page columns must be all ASC or all DESC");
+			}
+			desc = columnDesc;
+		}
+		Object[] params_ = new Object[params.length-1];
+		System.arraycopy(params, 0, params_, 0, params_.length);
+		Class<?>[] paramTypes_ = new Class<?>[paramTypes.length-1];
+		System.arraycopy(paramTypes, 0, paramTypes_, 0, paramTypes_.length);
+		return new KeysetQuery(dataSourceName, pageConfig, columns, desc, params_, paramTypes_);
+	}
+	
+	/**
+	 * 查一页，查完后getNextCursor()是下一页的游标
+	 * @param sql 原始查询，不带分页
+	 */
+	public <T> List<T> queryList(String sql, final RowMapper<T> rowMapper) throws SQLException{
+		List<Object> paramList = new ArrayList<>();
+		List<Class<?>> paramTypeList = new ArrayList<>();
+		for(int i=0;i<params.length;i++){
+			paramList.add(params[i]);
+			paramTypeList.add(paramTypes[i]);
+		}
+		boolean getFlagSpec = CommonSqlUtil.analysisGetFlagMode(sql)[1];
+		
+		StringBuilder buf = new StringBuilder();
+		buf.append("SELECT * FROM (").append(sql).append(") ").append(TABLE_ALIAS);
+		Object[] afterValues = decodeCursor(pageConfig.getAfterCursor());
+		if(afterValues != null){
+			if(afterValues.length != columns.length){
+				throw new RuntimeException("invalid keyset page cursor: " + pageConfig.getAfterCursor());
+			}
+			String compare = desc ? " < " : " > ";
+			buf.append(" WHERE ");
+			if(DataSourceHelper.isMySql(dataSourceName)){
+				//(k1,k2) > (?,?)
+				StringBuilder left = new StringBuilder();
+				StringBuilder right = new StringBuilder();
+				for(int i=0;i<columns.length;i++){
+					left.append(i > 0 ? "," : "").append(TABLE_ALIAS).append(".").append(columns[i]);
+					right.append(i > 0 ? "," : "").append(appendParam(afterValues[i], paramList, paramTypeList, getFlagSpec));
+				}
+				if(columns.length == 1){
+					buf.append(left).append(compare).append(right);
+				}else{
+					buf.append("(").append(left).append(")").append(compare).append("(").append(right).append(")");
+				}
+			}else{
+				//k1 > ? OR (k1 = ? AND k2 > ?)
+				buf.append("(");
+				for(int i=0;i<columns.length;i++){
+					buf.append(i > 0 ? " OR (" : "(");
+					for(int j=0;j<i;j++){
+						buf.append(TABLE_ALIAS).append(".").append(columns[j]).append(" = ").append(appendParam(afterValues[j], paramList, paramTypeList, getFlagSpec)).append(" AND ");
+					}
+					buf.append(TABLE_ALIAS).append(".").append(columns[i]).append(compare).append(appendParam(afterValues[i], paramList, paramTypeList, getFlagSpec)).append(")");
+				}
+				buf.append(")");
+			}
+		}
+		buf.append(" ORDER BY ");
+		for(int i=0;i<columns.length;i++){
+			buf.append(i > 0 ? "," : "").append(TABLE_ALIAS).append(".").append(columns[i]).append(desc ? " DESC" : "");
+		}
+		//多查一行，判断有没有下一页
+		long limit = pageConfig.getPageSize()+1;
+		if(DataSourceHelper.isOracle(dataSourceName)){
+			sql = "SELECT * FROM (" + buf + ") WHERE ROWNUM <= " + limit;
+		}else{
+			sql = buf.append(" LIMIT ").append(limit).toString();
+		}
+		
+		List<T> result = new ArrayList<>();
+		Object[] lastKeyValues = null;
+		ResultIterator<Object[]> resultIterator = DataBaseHelper.queryIterator(sql, paramList.toArray(), paramTypeList.toArray(new Class<?>[paramTypeList.size()]), dataSourceName, new RowMapper<Object[]>() {
+			private int[] columnIndexAry;
+			@Override
+			public Object[] mapRow(ResultSet table) throws SQLException {
+				if(columnIndexAry == null){
+					columnIndexAry = new int[columns.length];
+					for(int i=0;i<columns.length;i++){
+						columnIndexAry[i] = table.findColumn(columns[i]);
+					}
+				}
+				Object[] row = new Object[columns.length+1];
+				row[0] = rowMapper.mapRow(table);
+				for(int i=0;i<columnIndexAry.length;i++){
+					row[i+1] = table.getObject(columnIndexAry[i]);
+				}
+				return row;
+			}
+		});
+		boolean hasNext = false;
+		try {
+			while(resultIterator.hasNext()){
+				Object[] row = resultIterator.next();
+				if(result.size() >= pageConfig.getPageSize()){
+					hasNext = true;
+					break;
+				}
+				@SuppressWarnings("unchecked")
+				T record = (T) row[0];
+				result.add(record);
+				lastKeyValues = row;
+			}
+		} finally {
+			resultIterator.close();
+		}
+		if(hasNext){
+			Object[] keyValues = new Object[columns.length];
+			System.arraycopy(lastKeyValues, 1, keyValues, 0, keyValues.length);
+			nextCursor = encodeCursor(columns, keyValues);
+		}
+		return result;
+	}
+	
+	/**
+	 * 去掉PageConfig后的参数，用来查总数
+	 */
+	public Object[] getParams() {
+		return params;
+	}
+	
+	public Class<?>[] getParamTypes() {
+		return paramTypes;
+	}
+	
+	public PageConfig getPageConfig() {
+		return pageConfig;
+	}
+	
+	public String getDataSourceName() {
+		return dataSourceName;
+	}
+	
+	public String getNextCursor() {
+		return nextCursor;
+	}
+	
+	private static String appendParam(Object value, List<Object> paramList, List<Class<?>> paramTypeList, boolean getFlagSpec){
+		paramList.add(value);
+		paramTypeList.add(value.getClass());
+		return getFlagSpec ? "?" + paramList.size() : "?";
+	}
+	
+	/**
+	 * 排序键的值，带上类型编码成json字符串数组，再转成url安全的base64
+	 */
+	private static String encodeCursor(String[] columns, Object[] keyValues){
+		String[] valueAry = new String[keyValues.length];
+		for(int i=0;i<keyValues.length;i++){
+			Object value = keyValues[i];
+			if(value == null){
+				throw new RuntimeException("keyset page column is null: " + columns[i]);
+			}
+			if(value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte || value instanceof BigInteger){
+				valueAry[i] = "L" + value;
+			}else if(value instanceof Number){
+				valueAry[i] = "N" + new BigDecimal(value.toString()).toPlainString();
+			}else if(value instanceof java.sql.Date){
+				valueAry[i] = "D" + value;
+			}else if(value instanceof Timestamp){
+				valueAry[i] = "T" + value;
+			}else if(value instanceof java.util.Date){
+				valueAry[i] = "T" + new Timestamp(((java.util.Date)value).getTime());
+			}else if(value instanceof Boolean){
+				valueAry[i] = "B" + value;
+			}else{
+				valueAry[i] = "S" + value;
+			}
+		}
+		return Base64Variants.MODIFIED_FOR_URL.encode(JsonUtil.toJson(valueAry).getBytes(StandardCharsets.UTF_8));
+	}
+	
+	private static Object[] decodeCursor(String cursor){
+		if(StringUtil.isEmpty(cursor)){
+			return null;
+		}
+		String[] valueAry;
+		try {
+			valueAry = JsonUtil.fromJson(new String(Base64Variants.MODIFIED_FOR_URL.decode(cursor), StandardCharsets.UTF_8), String[].class);
+		} catch (Exception e) {
+			throw new RuntimeException("invalid keyset page cursor: " + cursor);
+		}
+		Object[] keyValues = new Object[valueAry.length];
+		for(int i=0;i<valueAry.length;i++){
+			String value = valueAry[i];
+			if(value == null || value.isEmpty()){
+				throw new RuntimeException("invalid keyset page cursor: " + cursor);
+			}
+			String text = value.substring(1);
+			try {
+				switch (value.charAt(0)) {
+				case 'L':
+					keyValues[i] = new BigInteger(text).bitLength() < 64 ? (Object)Long.valueOf(text) : new BigInteger(text);
+					break;
+				case 'N':
+					keyValues[i] = new BigDecimal(text);
+					break;
+				case 'D':
+					keyValues[i] = java.sql.Date.valueOf(text);
+					break;
+				case 'T':
+					keyValues[i] = Timestamp.valueOf(text);
+					break;
+				case 'B':
+					keyValues[i] = Boolean.valueOf(text);
+					break;
+				case 'S':
+					keyValues[i] = text;
+					break;
+				default:
+					throw new RuntimeException("invalid keyset page cursor: " + cursor);
+				}
+			} catch (IllegalArgumentException e) {
+				throw new RuntimeException("invalid keyset page cursor: " + cursor);
+			}
+		}
+		return keyValues;
+	}
+}
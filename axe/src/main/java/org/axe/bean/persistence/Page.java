@@ -41,20 +41,30 @@ public final class Page<T> {
 	private PageConfig pageConfig;
 	
 	/**
-	 * 全部页加起来的总条数
+	 * 全部页加起来的总条数，PageConfig不查总数的是-1
 	 */
 	private long count;
 	
 	/**
-	 * 页数
+	 * 页数，PageConfig不查总数的是-1
 	 */
 	private long pages;
+	
+	/**
+	 * 游标分页时，下一页的游标，没有下一页了是null
+	 */
+	private String nextCursor;
 
 	public Page(List<T> records, PageConfig pageConfig, long count, long pages) {
+		this(records, pageConfig, count, pages, null);
+	}
+	
+	public Page(List<T> records, PageConfig pageConfig, long count, long pages, String nextCursor) {
 		this.records = records;
 		this.pageConfig = pageConfig;
 		this.count = count;
 		this.pages = pages;
+		this.nextCursor = nextCursor;
 	}
 
 	public List<T> getRecords() {
@@ -72,5 +82,9 @@ public final class Page<T> {
 	public long getPages() {
 		return pages;
 	}
+
+	public String getNextCursor() {
+		return nextCursor;
+	}
 	
 }
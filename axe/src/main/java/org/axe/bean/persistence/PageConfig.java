@@ -26,6 +26,8 @@ package org.axe.bean.persistence;
 /**
  * Dao 分页配置
  * pageConfig必须放在@Sql注解的Dao方法的最后一个参数位置
+ * 除了按页码分页（limit offset,size），还可以按游标分页：传上一页Page里的nextCursor，按排序键定位下一页，深分页不用扫描丢弃前面的行
+ * 游标分页只对返回List、Page的Dao方法有效
  * @author CaiDongyu on 2016年5月9日 下午2:00:00.
  */
 public final class PageConfig {
@@ -46,11 +48,68 @@ public final class PageConfig {
 	 * 查询条数
 	 */
 	private long limitParam2;
+	/**
+	 * 游标分页的排序键，是查询结果的列名，可以带ASC、DESC，但方向要一致
+	 * 最后一个键要能唯一确定一行，比如主键
+	 */
+	private String[] keyColumns;
+	/**
+	 * 上一页的nextCursor，null或空是第一页
+	 */
+	private String afterCursor;
+	/**
+	 * 总条数的查法
+	 */
+	private CountMode countMode;
+	
+	/**
+	 * Page里总条数的查法
+	 */
+	public enum CountMode{
+		/**
+		 * 执行count(1)，准确的总数
+		 */
+		EXACT,
+		/**
+		 * 不查总数，Page的count、pages都是-1
+		 */
+		NONE,
+		/**
+		 * MySql按EXPLAIN的估算行数，其他数据库同EXACT
+		 */
+		ESTIMATE
+	}
 
 	
 	public PageConfig(long pageNum, long pageSize) {
+		this(pageNum, pageSize, CountMode.EXACT);
+	}
+	
+	public PageConfig(long pageNum, long pageSize, CountMode countMode) {
 		this.pageNum = pageNum;
 		this.pageSize = pageSize;
+		this.countMode = countMode == null ? CountMode.EXACT : countMode;
+		init();
+	}
+	
+	/**
+	 * 游标分页，不查总数
+	 * @param afterCursor 上一页的nextCursor，第一页传null
+	 * @param keyColumns 排序键，比如 "create_time","id" 或 "id DESC"
+	 */
+	public PageConfig(String afterCursor, long pageSize, String... keyColumns) {
+		this(afterCursor, pageSize, CountMode.NONE, keyColumns);
+	}
+	
+	public PageConfig(String afterCursor, long pageSize, CountMode countMode, String... keyColumns) {
+		if(keyColumns == null || keyColumns.length == 0){
+			throw new RuntimeException("keyset page must have key columns");
+		}
+		this.pageNum = 1;
+		this.pageSize = pageSize;
+		this.afterCursor = afterCursor;
+		this.keyColumns = keyColumns;
+		this.countMode = countMode == null ? CountMode.NONE : countMode;
 		init();
 	}
 	
@@ -76,4 +135,23 @@ public final class PageConfig {
 	public long getLimitParam2() {
 		return limitParam2;
 	}
+	
+	/**
+	 * 是否游标分页
+	 */
+	public boolean isKeyset() {
+		return keyColumns != null;
+	}
+
+	public String[] getKeyColumns() {
+		return keyColumns;
+	}
+
+	public String getAfterCursor() {
+		return afterCursor;
+	}
+
+	public CountMode getCountMode() {
+		return countMode;
+	}
 }
@@ -0,0 +1,129 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2017 CaiDongyu
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.axe.bean.persistence;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.axe.interface_.persistence.BaseDataSource;
+import org.axe.interface_.persistence.RowMapper;
+import org.axe.util.LogUtil;
+
+/**
+ * 游标方式的查询结果
+ * 一行一行从数据库读，读一行映射一行，不会把结果集整个放进内存
+ * 读完或者close()后，释放语句和连接
+ * 不在事务里时，连接是单独取的，不影响同一线程里的其他查询
+ */
+public final class ResultIterator<T> implements Iterator<T>, Closeable {
+	
+	private final BaseDataSource dataSource;
+	/**
+	 * 不在事务中时才需要自己释放连接
+	 */
+	private final Connection connection;
+	private final SqlExecutor sqlExecutor;
+	private final ResultSet table;
+	private final RowMapper<T> rowMapper;
+	
+	private boolean fetched = false;
+	private boolean hasNext = false;
+	private boolean closed = false;
+	
+	public ResultIterator(BaseDataSource dataSource, Connection connection, SqlExecutor sqlExecutor, ResultSet table, RowMapper<T> rowMapper) {
+		this.dataSource = dataSource;
+		this.connection = connection;
+		this.sqlExecutor = sqlExecutor;
+		this.table = table;
+		this.rowMapper = rowMapper;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if(closed){
+			return false;
+		}
+		if(!fetched){
+			try {
+				hasNext = table.next();
+				fetched = true;
+			} catch (SQLException e) {
+				close();
+				throw new RuntimeException(e);
+			}
+			if(!hasNext){
+				//读完了自动释放
+				close();
+			}
+		}
+		return hasNext;
+	}
+
+	@Override
+	public T next() {
+		if(!hasNext()){
+			throw new NoSuchElementException();
+		}
+		fetched = false;
+		try {
+			return rowMapper.mapRow(table);
+		} catch (SQLException e) {
+			close();
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("remove");
+	}
+
+	@Override
+	public void close() {
+		if(closed) return;
+		closed = true;
+		hasNext = false;
+		try {
+			table.close();
+		} catch (Exception e) {
+			LogUtil.error(e);
+		}
+		try {
+			sqlExecutor.close();
+		} catch (Exception e) {
+			LogUtil.error(e);
+		}
+		if(connection != null){
+			try {
+				dataSource.closeConnection(connection);
+			} catch (Exception e) {
+				LogUtil.error(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,376 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2017 CaiDongyu
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.axe.bean.persistence;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.axe.constant.ConfigConstant;
+import org.axe.helper.base.ConfigHelper;
+import org.axe.helper.persistence.DataBaseHelper;
+import org.axe.helper.persistence.DataSourceHelper;
+import org.axe.interface_.persistence.BaseDataSource;
+import org.axe.util.LogUtil;
+import org.axe.util.PropsUtil;
+
+/**
+ * 分片目录，缓存_sharding_gt表里的分片记录
+ * 每个数据源+分片表一份，过了有效期（sharding_directory_ttl，默认60秒）再从库里重新读
+ * 新建分片表后由ShardingTableCreateTask的执行方调用invalidate让它立即失效
+ * 分片的行数在内存里计数，每个数据源按自己的sharding_count_flush_period（默认5秒）定时以增量方式刷回_sharding_gt表
+ * 刷回和重新读取用同一把锁，库里的行数和内存增量不会重复计算或丢失
+ * 行数是近似值，回滚的插入也会计入，多个实例各自刷增量
+ */
+public final class ShardDirectory {
+	
+	private static final Map<String, ShardDirectory> CACHE = new ConcurrentHashMap<>();
+	private static volatile ScheduledExecutorService FLUSHER;
+	/**
+	 * 已经安排了定时刷回的数据源
+	 */
+	private static final Set<String> FLUSH_DATASOURCE_SET = new HashSet<>();
+	
+	private final String dataSourceName;
+	private final String tableName;
+	private final long ttl;
+	
+	/**
+	 * 按sharding_flag升序的分片，刷新时整体替换
+	 */
+	private volatile List<Shard> shardList = Collections.emptyList();
+	/**
+	 * 分片对象跨刷新保留，内存里的计数不会丢
+	 */
+	private final Map<Integer, Shard> shardMap = new ConcurrentHashMap<>();
+	private volatile long loadTime = 0;
+	
+	private ShardDirectory(String dataSourceName, String tableName) {
+		this.dataSourceName = dataSourceName;
+		this.tableName = tableName;
+		Properties configProps = ConfigHelper.getCONFIG_PROPS();
+		this.ttl = PropsUtil.getLong(configProps, ConfigConstant.JDBC_DATASOURCE + "." + dataSourceName + "." + ConfigConstant.JDBC_SHARDING_DIRECTORY_TTL, 60000);
+	}
+	
+	/**
+	 * @param tableName 原始表名，不带分片标识
+	 */
+	public static ShardDirectory getInstance(String dataSourceName, String tableName) {
+		String key = dataSourceName + "." + tableName;
+		ShardDirectory directory = CACHE.get(key);
+		if(directory == null){
+			synchronized (CACHE) {
+				directory = CACHE.get(key);
+				if(directory == null){
+					directory = new ShardDirectory(dataSourceName, tableName);
+					CACHE.put(key, directory);
+					startFlusher(dataSourceName);
+				}
+			}
+		}
+		return directory;
+	}
+	
+	/**
+	 * 让分片目录失效，下次使用时重新读取
+	 */
+	public static void invalidate(String dataSourceName, String tableName) {
+		ShardDirectory directory = CACHE.get(dataSourceName + "." + tableName);
+		if(directory != null){
+			directory.loadTime = 0;
+		}
+	}
+	
+	/**
+	 * 所有分片的标识，升序
+	 */
+	public List<Integer> getShardingFlagList() throws SQLException {
+		List<Shard> shardList = getShardList();
+		List<Integer> shardingFlagList = new ArrayList<>(shardList.size());
+		for(Shard shard:shardList){
+			shardingFlagList.add(shard.shardingFlag);
+		}
+		return shardingFlagList;
+	}
+	
+	/**
+	 * 当前可以插入的分片，标识最小的那个，没有返回null
+	 */
+	public Integer getOpenShardingFlag() throws SQLException {
+		for(Shard shard:getShardList()){
+			if(shard.open){
+				return shard.shardingFlag;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * 最大的分片标识，没有分片记录返回null
+	 */
+	public Integer getMaxShardingFlag() throws SQLException {
+		List<Shard> shardList = getShardList();
+		return shardList.isEmpty() ? null : shardList.get(shardList.size()-1).shardingFlag;
+	}
+	
+	/**
+	 * 分片是否存在
+	 */
+	public boolean containsShard(int shardingFlag) throws SQLException {
+		for(Shard shard:getShardList()){
+			if(shard.shardingFlag == shardingFlag){
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * 按分片路由策略算出的分片表，用到时才创建
+	 * 建表是DDL，会隐式提交当前事务，所以单独从数据源取一个连接执行，表或分片记录已经存在的不报错
+	 */
+	public void createShardIfAbsent(int shardingFlag, String[] createDataTableSqlAry, String updateGtTableRecordSql) throws SQLException {
+		if(containsShard(shardingFlag)){
+			return;
+		}
+		synchronized (this) {
+			//可能别的线程刚建好，重新读一次目录
+			loadTime = 0;
+			if(containsShard(shardingFlag)){
+				return;
+			}
+			BaseDataSource dataSource = DataSourceHelper.getDataSourceAll().get(dataSourceName);
+			Connection conn = dataSource.getConnection();
+			try {
+				Statement statement = conn.createStatement();
+				try {
+					for(String sql:createDataTableSqlAry){
+						executeIgnoreExists(statement, sql);
+					}
+					executeIgnoreExists(statement, updateGtTableRecordSql);
+					if(!conn.getAutoCommit()){
+						conn.commit();
+					}
+				} finally {
+					statement.close();
+				}
+			} finally {
+				dataSource.closeConnection(conn);
+			}
+			loadTime = 0;
+		}
+	}
+	
+	private static void executeIgnoreExists(Statement statement, String sql) throws SQLException {
+		try {
+			statement.execute(sql);
+		} catch (SQLException e) {
+			String message = e.getMessage() == null ? "" : e.getMessage().toUpperCase();
+			//MySql的表已存在、主键重复，Oracle的ORA-00955名称已被使用、ORA-00001唯一约束
+			if(!message.contains("DUPLICATE") && !message.contains("ALREADY EXISTS") && 
+					!message.contains("ORA-00955") && !message.contains("ORA-00001")){
+				throw e;
+			}
+		}
+	}
+	
+	/**
+	 * 分片的行数变化，只在内存里计数，达到上限时关闭这个分片的插入
+	 */
+	public void addRowCount(int shardingFlag, long delta, long oneTableMaxCount) {
+		Shard shard = shardMap.get(shardingFlag);
+		if(shard == null){
+			return;
+		}
+		long rowCount = shard.rowCount.addAndGet(delta);
+		shard.pendingCount.addAndGet(delta);
+		if(shard.open && rowCount >= oneTableMaxCount){
+			shard.open = false;
+			shard.pendingClose = true;
+		}
+	}
+	
+	private List<Shard> getShardList() throws SQLException {
+		if(System.currentTimeMillis() - loadTime > ttl){
+			refresh();
+		}
+		return shardList;
+	}
+	
+	/**
+	 * 和flush用同一把锁，读到的库里行数和pendingCount是同一时刻的
+	 * 单独从数据源取连接读，不用当前事务的连接，免得事务的快照读不到已经刷回的增量
+	 */
+	private synchronized void refresh() throws SQLException {
+		if(System.currentTimeMillis() - loadTime <= ttl){
+			return;
+		}
+		StringBuilder sqlBuffer = new StringBuilder();
+		sqlBuffer.append("SELECT sharding_flag,sharding_table_status,row_count FROM ")
+		.append(tableName)
+		.append("_sharding_gt ORDER BY sharding_flag ASC");
+		List<Shard> newShardList = new ArrayList<>();
+		BaseDataSource dataSource = DataSourceHelper.getDataSourceAll().get(dataSourceName);
+		Connection conn = dataSource.getConnection();
+		try {
+			Statement statement = conn.createStatement();
+			try {
+				ResultSet table = statement.executeQuery(sqlBuffer.toString());
+				while(table.next()){
+					int shardingFlag = table.getInt(1);
+					Shard shard = shardMap.get(shardingFlag);
+					if(shard == null){
+						shard = new Shard(shardingFlag);
+						shardMap.put(shardingFlag, shard);
+					}
+					//库里的行数加上还没刷回去的增量
+					shard.rowCount.set(table.getLong(3) + shard.pendingCount.get());
+					if(!shard.pendingClose){
+						shard.open = table.getInt(2) == 1;
+					}
+					newShardList.add(shard);
+				}
+				table.close();
+				if(!conn.getAutoCommit()){
+					conn.commit();
+				}
+			} finally {
+				statement.close();
+			}
+		} finally {
+			dataSource.closeConnection(conn);
+		}
+		shardList = Collections.unmodifiableList(newShardList);
+		loadTime = System.currentTimeMillis();
+	}
+	
+	/**
+	 * 把内存里的行数增量和关闭状态刷回_sharding_gt表
+	 * 和refresh用同一把锁，增量清零和UPDATE之间不会被refresh插进来
+	 */
+	private synchronized void flush() {
+		for(Shard shard:shardMap.values()){
+			long pendingCount = shard.pendingCount.getAndSet(0);
+			boolean pendingClose = shard.pendingClose;
+			if(pendingCount == 0 && !pendingClose){
+				continue;
+			}
+			StringBuilder sqlBuffer = new StringBuilder();
+			sqlBuffer.append("UPDATE ")
+			.append(tableName)
+			.append("_sharding_gt set row_count=row_count+").append(pendingCount);
+			if(pendingClose){
+				sqlBuffer.append(",sharding_table_status=0");
+			}
+			sqlBuffer.append(" where sharding_flag=").append(shard.shardingFlag);
+			try {
+				DataBaseHelper.executeUpdate(new String[]{sqlBuffer.toString()}, new Object[]{}, new Class<?>[]{}, dataSourceName);
+				if(pendingClose){
+					shard.pendingClose = false;
+				}
+			} catch (Exception e) {
+				//没刷成功的增量加回去，下次再刷
+				shard.pendingCount.addAndGet(pendingCount);
+				LogUtil.error(e);
+			}
+		}
+	}
+	
+	/**
+	 * 每个数据源按自己的刷回周期安排一个定时任务，共用一个刷回线程
+	 * 在getInstance的CACHE锁里调用
+	 */
+	private static void startFlusher(final String dataSourceName) {
+		if(FLUSH_DATASOURCE_SET.contains(dataSourceName)){
+			return;
+		}
+		FLUSH_DATASOURCE_SET.add(dataSourceName);
+		if(FLUSHER == null){
+			FLUSHER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "axe-sharding-count-flusher");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			//停机时把没刷完的增量刷回去
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for(ShardDirectory directory:CACHE.values()){
+						directory.flush();
+					}
+				}
+			}, "axe-sharding-count-flusher-shutdown"));
+		}
+		Properties configProps = ConfigHelper.getCONFIG_PROPS();
+		long period = PropsUtil.getLong(configProps, ConfigConstant.JDBC_DATASOURCE + "." + dataSourceName + "." + ConfigConstant.JDBC_SHARDING_COUNT_FLUSH_PERIOD, 5000);
+		FLUSHER.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				for(ShardDirectory directory:CACHE.values()){
+					if(directory.dataSourceName.equals(dataSourceName)){
+						directory.flush();
+					}
+				}
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * 一个分片
+	 */
+	private static final class Shard {
+		private final int shardingFlag;
+		private final AtomicLong rowCount = new AtomicLong();
+		/**
+		 * 还没刷回库的行数增量
+		 */
+		private final AtomicLong pendingCount = new AtomicLong();
+		private volatile boolean open = true;
+		/**
+		 * 已经在内存里关闭，还没刷回库
+		 */
+		private volatile boolean pendingClose = false;
+		
+		private Shard(int shardingFlag) {
+			this.shardingFlag = shardingFlag;
+		}
+	}
+}
@@ -0,0 +1,394 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2017 CaiDongyu
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.axe.bean.persistence;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.axe.bean.persistence.PageConfig.CountMode;
+import org.axe.constant.ConfigConstant;
+import org.axe.helper.base.ConfigHelper;
+import org.axe.helper.persistence.DataBaseHelper;
+import org.axe.helper.persistence.DataSourceHelper;
+import org.axe.interface_.persistence.RowMapper;
+import org.axe.util.CastUtil;
+import org.axe.util.PropsUtil;
+import org.axe.util.StringUtil;
+import org.axe.util.sql.CommonSqlUtil;
+import org.axe.util.sql.MySqlUtil;
+
+/**
+ * 分片表的并行查询
+ * 每个分片一句sql，放到有界线程池里同时执行，不在事务里，所以每个分片各用一个连接池里的连接
+ * 结果在内存里合并：tailAfterUnion是ORDER BY的，按排序列做多路归并；分页时每个分片只取前pageNum*pageSize行，归并到够一页就停
+ * Page的总数是各分片count的和
+ * 只支持MySql，tailAfterUnion里除了ORDER BY还有别的（GROUP BY、LIMIT等），或有headAfterUnion的，还是走union all
+ */
+public final class ShardQuery {
+	
+	private static final Pattern ORDER_BY_PATTERN = Pattern.compile("^\\s*ORDER\\s+BY\\s+(.+?)\\s*$", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+	private static final Pattern ORDER_ITEM_PATTERN = Pattern.compile("^(?:`?[\\w$]+`?\\.)?`?([\\w$]+)`?(?:\\s+(ASC|DESC))?$", Pattern.CASE_INSENSITIVE);
+	private static volatile ThreadPoolExecutor EXECUTOR;
+	
+	private final String dataSourceName;
+	private final List<String> sqlList;
+	private final Order[] orders;
+	
+	private ShardQuery(String dataSourceName, List<String> sqlList, Order[] orders) {
+		this.dataSourceName = dataSourceName;
+		this.sqlList = sqlList;
+		this.orders = orders;
+	}
+	
+	/**
+	 * 能并行查询的返回ShardQuery，不能的返回null，调用方继续走union all
+	 * @param sqlList 各分片的sql，不带分页
+	 */
+	public static ShardQuery getInstance(String dataSourceName, List<String> sqlList, String headAfterUnion, String tailAfterUnion){
+		do{
+			if(sqlList == null || sqlList.size() <= 1) break;
+			if(!DataSourceHelper.isMySql(dataSourceName)) break;
+			//事务中的查询要用事务的连接，不能拆到别的线程
+			if(DataBaseHelper.isInTransaction()) break;
+			if(StringUtil.isNotEmpty(headAfterUnion)) break;
+			boolean parallel = PropsUtil.getBoolean(ConfigHelper.getCONFIG_PROPS(), ConfigConstant.JDBC_DATASOURCE + "." + dataSourceName + "." + ConfigConstant.JDBC_SHARDING_PARALLEL_QUERY, true);
+			if(!parallel) break;
+			Order[] orders = parseOrders(tailAfterUnion);
+			if(orders == null) break;
+			return new ShardQuery(dataSourceName, sqlList, orders);
+		}while(false);
+		return null;
+	}
+	
+	/**
+	 * 解析tailAfterUnion里的ORDER BY，空的返回空数组，不是单纯ORDER BY列的返回null
+	 */
+	private static Order[] parseOrders(String tailAfterUnion){
+		if(StringUtil.isEmpty(tailAfterUnion) || StringUtil.isEmpty(tailAfterUnion.trim())){
+			return new Order[0];
+		}
+		Matcher matcher = ORDER_BY_PATTERN.matcher(tailAfterUnion);
+		if(!matcher.matches()){
+			return null;
+		}
+		String[] itemAry = matcher.group(1).split(",");
+		Order[] orders = new Order[itemAry.length];
+		for(int i=0;i<itemAry.length;i++){
+			Matcher itemMatcher = ORDER_ITEM_PATTERN.matcher(StringUtil.collapseSpace(itemAry[i]));
+			if(!itemMatcher.matches()){
+				return null;
+			}
+			orders[i] = new Order(itemMatcher.group(1), "DESC".equalsIgnoreCase(itemMatcher.group(2)));
+		}
+		return orders;
+	}
+	
+	/**
+	 * 查询并合并成一个List
+	 * @param tailAfterUnion 每个分片的sql都带上这个排序，保证各分片的结果有序
+	 */
+	public <T> List<T> queryList(String tailAfterUnion, Object[] params, Class<?>[] paramTypes, final RowMapper<T> rowMapper) throws SQLException{
+		PageConfig pageConfig = CommonSqlUtil.getPageConfigFromParams(params, paramTypes);
+		final Object[] params_ = pageConfig == null ? params : removeLast(params);
+		final Class<?>[] paramTypes_ = pageConfig == null ? paramTypes : removeLast(paramTypes);
+		
+		List<Callable<List<Object[]>>> taskList = new ArrayList<>(sqlList.size());
+		for(String sql:sqlList){
+			if(orders.length > 0){
+				sql = "SELECT * FROM (" + sql + ") t_" + StringUtil.getRandomString(6) + " " + tailAfterUnion;
+			}
+			if(pageConfig != null){
+				//每个分片只取到当前页的末尾为止
+				sql = MySqlUtil.convertPagConfig(sql, params, paramTypes, true).getSql();
+			}
+			final String shardSql = sql;
+			taskList.add(new Callable<List<Object[]>>() {
+				@Override
+				public List<Object[]> call() throws Exception {
+					List<Object[]> rowList = new ArrayList<>();
+					ResultIterator<Object[]> resultIterator = DataBaseHelper.queryIterator(shardSql, params_, paramTypes_, dataSourceName, new KeyRowMapper<>(rowMapper, orders));
+					try {
+						while(resultIterator.hasNext()){
+							rowList.add(resultIterator.next());
+						}
+					} finally {
+						resultIterator.close();
+					}
+					return rowList;
+				}
+			});
+		}
+		List<List<Object[]>> shardRowList = invokeAll(taskList);
+		
+		long offset = pageConfig == null ? 0 : pageConfig.getLimitParam1();
+		long limit = pageConfig == null ? Long.MAX_VALUE : pageConfig.getPageSize();
+		return merge(shardRowList, offset, limit);
+	}
+	
+	/**
+	 * 各分片count的和，按PageConfig的CountMode查，ESTIMATE时是各分片估算值的和，不查的返回-1
+	 */
+	public long countQuery(Object[] params, Class<?>[] paramTypes) throws SQLException{
+		PageConfig pageConfig = CommonSqlUtil.getPageConfigFromParams(params, paramTypes);
+		final CountMode countMode = pageConfig == null ? CountMode.EXACT : pageConfig.getCountMode();
+		if(countMode == CountMode.NONE){
+			return -1;
+		}
+		final Object[] params_ = pageConfig == null ? params : removeLast(params);
+		final Class<?>[] paramTypes_ = pageConfig == null ? paramTypes : removeLast(paramTypes);
+		List<Callable<Long>> taskList = new ArrayList<>(sqlList.size());
+		for(final String sql:sqlList){
+			taskList.add(new Callable<Long>() {
+				@Override
+				public Long call() throws Exception {
+					if(countMode == CountMode.ESTIMATE){
+						return DataBaseHelper.estimateCountQuery(sql, params_, paramTypes_, dataSourceName);
+					}
+					return DataBaseHelper.countQuery(sql, params_, paramTypes_, dataSourceName);
+				}
+			});
+		}
+		long count = 0;
+		for(Long shardCount:invokeAll(taskList)){
+			count = count + shardCount;
+		}
+		return count;
+	}
+	
+	/**
+	 * 多路归并，跳过offset行，取够limit行就停
+	 * 没有排序的按分片顺序依次取
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> List<T> merge(List<List<Object[]>> shardRowList, long offset, long limit){
+		List<T> result = new ArrayList<>();
+		if(orders.length == 0){
+			for(List<Object[]> rowList:shardRowList){
+				for(Object[] row:rowList){
+					if(result.size() >= limit) return result;
+					if(offset > 0){
+						offset--;
+						continue;
+					}
+					result.add((T)row[0]);
+				}
+			}
+			return result;
+		}
+		PriorityQueue<Cursor> queue = new PriorityQueue<>(shardRowList.size());
+		for(int i=0;i<shardRowList.size();i++){
+			List<Object[]> rowList = shardRowList.get(i);
+			if(!rowList.isEmpty()){
+				queue.add(new Cursor(i, rowList, orders));
+			}
+		}
+		while(!queue.isEmpty() && result.size() < limit){
+			Cursor cursor = queue.poll();
+			Object[] row = cursor.rowList.get(cursor.position++);
+			if(offset > 0){
+				offset--;
+			}else{
+				result.add((T)row[0]);
+			}
+			if(cursor.position < cursor.rowList.size()){
+				queue.add(cursor);
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * 在线程池里执行，有一个失败的，取消其他的并抛出异常
+	 */
+	private static <V> List<V> invokeAll(List<Callable<V>> taskList) throws SQLException{
+		ThreadPoolExecutor executor = getExecutor();
+		List<Future<V>> futureList = new ArrayList<>(taskList.size());
+		try {
+			for(Callable<V> task:taskList){
+				futureList.add(executor.submit(task));
+			}
+			List<V> result = new ArrayList<>(futureList.size());
+			for(Future<V> future:futureList){
+				result.add(future.get());
+			}
+			return result;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("sharding query interrupted", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof SQLException){
+				throw (SQLException)cause;
+			}else if(cause instanceof RuntimeException){
+				throw (RuntimeException)cause;
+			}
+			throw new SQLException(cause);
+		} finally {
+			for(Future<V> future:futureList){
+				if(!future.isDone()){
+					future.cancel(true);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * 线程数固定，队列满了由调用线程自己执行
+	 */
+	private static ThreadPoolExecutor getExecutor(){
+		if(EXECUTOR == null){
+			synchronized (ShardQuery.class) {
+				if(EXECUTOR == null){
+					int threads = PropsUtil.getInt(ConfigHelper.getCONFIG_PROPS(), ConfigConstant.JDBC_SHARDING_QUERY_THREADS, Runtime.getRuntime().availableProcessors()*2);
+					threads = threads > 0 ? threads : 1;
+					final AtomicInteger threadIndex = new AtomicInteger();
+					ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(threads*16), new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, "axe-sharding-query-"+threadIndex.incrementAndGet());
+							thread.setDaemon(true);
+							return thread;
+						}
+					}, new ThreadPoolExecutor.CallerRunsPolicy());
+					executor.allowCoreThreadTimeOut(true);
+					EXECUTOR = executor;
+				}
+			}
+		}
+		return EXECUTOR;
+	}
+	
+	private static Object[] removeLast(Object[] ary){
+		Object[] result = new Object[ary.length-1];
+		System.arraycopy(ary, 0, result, 0, result.length);
+		return result;
+	}
+	
+	private static Class<?>[] removeLast(Class<?>[] ary){
+		Class<?>[] result = new Class<?>[ary.length-1];
+		System.arraycopy(ary, 0, result, 0, result.length);
+		return result;
+	}
+	
+	/**
+	 * 比较排序列的值，null最小，与MySql一致
+	 * 字符串按Java的顺序比较，与数据库的排序规则可能有出入
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static int compareValue(Object v1, Object v2){
+		if(v1 == v2) return 0;
+		if(v1 == null) return -1;
+		if(v2 == null) return 1;
+		if(v1 instanceof Number && v2 instanceof Number && v1.getClass() != v2.getClass()){
+			return new BigDecimal(v1.toString()).compareTo(new BigDecimal(v2.toString()));
+		}
+		if(v1 instanceof Comparable && v1.getClass().isInstance(v2)){
+			return ((Comparable)v1).compareTo(v2);
+		}
+		return CastUtil.castString(v1).compareTo(CastUtil.castString(v2));
+	}
+	
+	private static final class Order{
+		private final String column;
+		private final boolean desc;
+		
+		private Order(String column, boolean desc) {
+			this.column = column;
+			this.desc = desc;
+		}
+	}
+	
+	/**
+	 * 行映射后，再带上排序列的值：{行, 排序值1, 排序值2...}
+	 */
+	private static final class KeyRowMapper<T> implements RowMapper<Object[]>{
+		private final RowMapper<T> rowMapper;
+		private final Order[] orders;
+		private int[] columnIndexAry;
+		
+		private KeyRowMapper(RowMapper<T> rowMapper, Order[] orders) {
+			this.rowMapper = rowMapper;
+			this.orders = orders;
+		}
+		
+		@Override
+		public Object[] mapRow(ResultSet table) throws SQLException {
+			if(columnIndexAry == null){
+				columnIndexAry = new int[orders.length];
+				for(int i=0;i<orders.length;i++){
+					columnIndexAry[i] = table.findColumn(orders[i].column);
+				}
+			}
+			Object[] row = new Object[orders.length+1];
+			row[0] = rowMapper.mapRow(table);
+			for(int i=0;i<columnIndexAry.length;i++){
+				row[i+1] = table.getObject(columnIndexAry[i]);
+			}
+			return row;
+		}
+	}
+	
+	/**
+	 * 一个分片结果的读取位置，按当前行的排序值比较，相同的按分片顺序
+	 */
+	private static final class Cursor implements Comparable<Cursor>{
+		private final int shardIndex;
+		private final List<Object[]> rowList;
+		private final Order[] orders;
+		private int position = 0;
+		
+		private Cursor(int shardIndex, List<Object[]> rowList, Order[] orders) {
+			this.shardIndex = shardIndex;
+			this.rowList = rowList;
+			this.orders = orders;
+		}
+		
+		@Override
+		public int compareTo(Cursor other) {
+			Object[] row = rowList.get(position);
+			Object[] otherRow = other.rowList.get(other.position);
+			for(int i=0;i<orders.length;i++){
+				int c = compareValue(row[i+1], otherRow[i+1]);
+				if(c != 0){
+					return orders[i].desc ? -c : c;
+				}
+			}
+			return shardIndex - other.shardIndex;
+		}
+	}
+}
@@ -0,0 +1,242 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2017 CaiDongyu
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.axe.bean.persistence;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.axe.util.StringUtil;
+
+/**
+ * 编译好的@Sql语句模板
+ * 类名、字段名的转换只在编译时做一次，表名位置记录成槽位
+ * 执行时只需要按分片表名把槽位填上，不再走正则
+ */
+public final class SqlTemplate {
+	
+	/**
+	 * 表名可能被这些字符包围
+	 */
+	private static final String TABLE_NAME_AROUND = ",><=!+-*/() ";
+	private static final Pattern WHERE_PATTERN = Pattern.compile("\\sWHERE\\s", Pattern.CASE_INSENSITIVE);
+	private static final Pattern OR_PATTERN = Pattern.compile("\\sOR\\s", Pattern.CASE_INSENSITIVE);
+
+	/**
+	 * sql中出现的Entity类名-表结构
+	 */
+	private final Map<String, TableSchema> sqlEntityTableMap;
+	private final Segment sql;
+	private final Segment headAfterUnion;
+	private final Segment tailAfterUnion;
+	/**
+	 * WHERE里 分片键=? 绑定的参数下标，没有的是-1
+	 */
+	private final int shardingKeyParamIndex;
+	
+	/**
+	 * @param sqlEntityTableMap sql中匹配到的Entity
+	 * @param sql 已经转换过字段名的语句
+	 * @param headAfterUnion 同上
+	 * @param tailAfterUnion 同上
+	 */
+	public SqlTemplate(Map<String, TableSchema> sqlEntityTableMap, String sql, String headAfterUnion, String tailAfterUnion) {
+		this.sqlEntityTableMap = sqlEntityTableMap;
+		this.sql = new Segment(sql, sqlEntityTableMap);
+		this.headAfterUnion = new Segment(headAfterUnion, sqlEntityTableMap);
+		this.tailAfterUnion = new Segment(tailAfterUnion, sqlEntityTableMap);
+		this.shardingKeyParamIndex = analysisShardingKeyParamIndex(sql, sqlEntityTableMap);
+	}
+	
+	/**
+	 * 只有一个Entity、是按策略路由的分片表，WHERE里只有一处 分片键=?，并且没有OR的，才能确定分片
+	 */
+	private static int analysisShardingKeyParamIndex(String sql, Map<String, TableSchema> sqlEntityTableMap){
+		do{
+			if(StringUtil.isEmpty(sql) || sqlEntityTableMap.size() != 1) break;
+			TableSchema tableSchema = sqlEntityTableMap.values().iterator().next();
+			if(!tableSchema.getSharding() || tableSchema.getShardingStrategy() == null) break;
+			Matcher whereMatcher = WHERE_PATTERN.matcher(sql);
+			if(!whereMatcher.find()) break;
+			String where = sql.substring(whereMatcher.end());
+			if(OR_PATTERN.matcher(where).find()) break;
+			Pattern keyPattern = Pattern.compile("(?<![\\w$])(?:\\w+\\.)?`?"+tableSchema.getShardingKeyColumn().getColumnName()+"`?\\s*=\\s*\\?(\\d*)", Pattern.CASE_INSENSITIVE);
+			Matcher keyMatcher = keyPattern.matcher(where);
+			if(!keyMatcher.find()) break;
+			int start = keyMatcher.start();
+			String getFlagNumber = keyMatcher.group(1);
+			if(keyMatcher.find()) break;
+			if(StringUtil.isNotEmpty(getFlagNumber)){
+				// ?1模式
+				return Integer.parseInt(getFlagNumber)-1;
+			}
+			// ?模式，数前面有几个?
+			int paramIndex = 0;
+			String before = sql.substring(0, whereMatcher.end()+start);
+			for(int i=0;i<before.length();i++){
+				if(before.charAt(i) == '?'){
+					paramIndex++;
+				}
+			}
+			return paramIndex;
+		}while(false);
+		return -1;
+	}
+	
+	/**
+	 * WHERE里 分片键=? 绑定的参数下标，不能确定分片的是-1
+	 */
+	public int getShardingKeyParamIndex() {
+		return shardingKeyParamIndex;
+	}
+	
+	public Map<String, TableSchema> getSqlEntityTableMap() {
+		return sqlEntityTableMap;
+	}
+	
+	/**
+	 * 按分片表名展开成多条sql，顺序与原先逐个表替换的结果一致
+	 * sql为空时返回null
+	 * @param sqlEntityTableNameList 每个Entity一个Map，表名-Entity类名
+	 */
+	public List<String> getSqlList(List<Map<String,String>> sqlEntityTableNameList){
+		if(sql.isEmpty()){
+			return null;
+		}
+		List<Map<String,String>> tableNameMapList = new ArrayList<>();
+		tableNameMapList.add(new HashMap<String,String>());
+		for(Map<String,String> sqlEntityTableNameMap:sqlEntityTableNameList){
+			List<Map<String,String>> tmpList = new ArrayList<>();
+			for(Map<String,String> tableNameMap:tableNameMapList){
+				for(Map.Entry<String,String> entry:sqlEntityTableNameMap.entrySet()){
+					Map<String,String> tmpMap = new HashMap<>(tableNameMap);
+					tmpMap.put(entry.getValue(), entry.getKey());
+					tmpList.add(tmpMap);
+				}
+			}
+			tableNameMapList = tmpList;
+		}
+		List<String> sqlList = new ArrayList<>(tableNameMapList.size());
+		for(Map<String,String> tableNameMap:tableNameMapList){
+			sqlList.add(sql.fill(tableNameMap));
+		}
+		return sqlList;
+	}
+	
+	/**
+	 * 只取每个Entity的第一个表名，所以head里不能出现分表的实体类
+	 */
+	public String getHeadAfterUnion(List<Map<String,String>> sqlEntityTableNameList){
+		return headAfterUnion.fillFirst(sqlEntityTableNameList);
+	}
+	
+	public String getTailAfterUnion(List<Map<String,String>> sqlEntityTableNameList){
+		return tailAfterUnion.fillFirst(sqlEntityTableNameList);
+	}
+	
+	/**
+	 * 一段sql，按表名槽位切开
+	 * texts比slots多一个，依次是 text slot text slot ... text
+	 */
+	private static final class Segment {
+		private final String raw;
+		private final String[] texts;
+		private final String[] slots;
+		private final int length;
+		
+		private Segment(String sql, Map<String, TableSchema> sqlEntityTableMap) {
+			this.raw = sql;
+			List<String> textList = new ArrayList<>();
+			List<String> slotList = new ArrayList<>();
+			if(StringUtil.isNotEmpty(sql) && !sqlEntityTableMap.isEmpty()){
+				int textStart = 0;
+				int index = 1;
+				while(index < sql.length()-1){
+					String entityClassSimpleName = null;
+					if(TABLE_NAME_AROUND.indexOf(sql.charAt(index-1)) >= 0){
+						for(String name:sqlEntityTableMap.keySet()){
+							int end = index+name.length();
+							if(end < sql.length() && sql.startsWith(name, index) && TABLE_NAME_AROUND.indexOf(sql.charAt(end)) >= 0){
+								entityClassSimpleName = name;
+								break;
+							}
+						}
+					}
+					if(entityClassSimpleName != null){
+						textList.add(sql.substring(textStart, index));
+						slotList.add(entityClassSimpleName);
+						textStart = index+entityClassSimpleName.length();
+						//后面的包围字符可以同时是下一个实体的前包围字符，比如 FROM User,Order
+						index = textStart+1;
+					}else{
+						index++;
+					}
+				}
+				textList.add(sql.substring(textStart));
+			}else{
+				textList.add(sql);
+			}
+			this.texts = textList.toArray(new String[textList.size()]);
+			this.slots = slotList.toArray(new String[slotList.size()]);
+			this.length = sql == null ? 0 : sql.length();
+		}
+		
+		private boolean isEmpty(){
+			return StringUtil.isEmpty(raw);
+		}
+		
+		private String fill(Map<String,String> tableNameMap){
+			if(slots.length == 0){
+				return texts[0];
+			}
+			StringBuilder buf = new StringBuilder(length+slots.length*16);
+			for(int i=0;i<slots.length;i++){
+				buf.append(texts[i]);
+				String tableName = tableNameMap.get(slots[i]);
+				buf.append(tableName == null ? slots[i] : tableName);
+			}
+			buf.append(texts[slots.length]);
+			return buf.toString();
+		}
+		
+		private String fillFirst(List<Map<String,String>> sqlEntityTableNameList){
+			if(isEmpty()){
+				return raw;
+			}
+			Map<String,String> tableNameMap = new HashMap<>();
+			for(Map<String,String> sqlEntityTableNameMap:sqlEntityTableNameList){
+				if(sqlEntityTableNameMap.isEmpty()){
+					//有分片实体一张表都没有，sql也不会执行，原样返回
+					return raw;
+				}
+				Map.Entry<String,String> entry = sqlEntityTableNameMap.entrySet().iterator().next();
+				tableNameMap.put(entry.getValue(), entry.getKey());
+			}
+			return fill(tableNameMap);
+		}
+	}
+}
@@ -23,7 +23,15 @@
  */
 package org.axe.bean.persistence;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.axe.interface_.persistence.ShardingStrategy;
 
 /**
  * 封装 Dao Entity类的结构描述
@@ -112,6 +120,49 @@ public final class TableSchema {
 		}
 	}
 	
+	//一张真实表的增删改查语句，用到时生成，分片表每个分片一份
+	public static final class CrudSql{
+		private volatile String insertSql;
+		//Oracle自增主键为空时，用序列的插入语句
+		private volatile String sequenceInsertSql;
+		private volatile String updateSql;
+		private volatile String deleteSql;
+		private volatile String selectByIdSql;
+		
+		public String getInsertSql() {
+			return insertSql;
+		}
+		public void setInsertSql(String insertSql) {
+			this.insertSql = insertSql;
+		}
+		public String getSequenceInsertSql() {
+			return sequenceInsertSql;
+		}
+		public void setSequenceInsertSql(String sequenceInsertSql) {
+			this.sequenceInsertSql = sequenceInsertSql;
+		}
+		public String getUpdateSql() {
+			return updateSql;
+		}
+		public void setUpdateSql(String updateSql) {
+			this.updateSql = updateSql;
+		}
+		public String getDeleteSql() {
+			return deleteSql;
+		}
+		public void setDeleteSql(String deleteSql) {
+			this.deleteSql = deleteSql;
+		}
+		public String getSelectByIdSql() {
+			return selectByIdSql;
+		}
+		public void setSelectByIdSql(String selectByIdSql) {
+			this.selectByIdSql = selectByIdSql;
+		}
+	}
+	
+	private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+	
 	
 	//表名，如果是分表，不能从这取，这只是初始定义
 	private String tableName;
@@ -121,6 +172,10 @@ public final class TableSchema {
 	private boolean autoCreate=false;
 	//是否是分片存储
 	private boolean sharding=false;
+	//分片路由策略，null的是填满式分片
+	private ShardingStrategy shardingStrategy;
+	//分片键字段
+	private ColumnSchema shardingKeyColumn;
 	//数据源名称
 	private String dataSourceName;
 	
@@ -137,6 +192,17 @@ public final class TableSchema {
 	private String uniqueFields;
 	private String uniqueColumns;
 	
+	//字段取值，与mappingColumnList顺序一致
+	private MethodHandle[] getterAry;
+	//update参数依次对应的字段下标，修改的字段在前，@Id字段在后
+	private int[] updateParamIndexAry;
+	//@Id字段的下标
+	private int[] idParamIndexAry;
+	//自增主键字段的下标，没有是-1
+	private int autoIncrementIndex = -1;
+	//按真实表名缓存的增删改查语句
+	private final ConcurrentHashMap<String, CrudSql> crudSqlMap = new ConcurrentHashMap<>();
+	
 	
 	
 	public String getTableName() {
@@ -163,6 +229,18 @@ public final class TableSchema {
 	public void setSharding(boolean isSharding) {
 		this.sharding = isSharding;
 	}
+	public ShardingStrategy getShardingStrategy() {
+		return shardingStrategy;
+	}
+	public void setShardingStrategy(ShardingStrategy shardingStrategy) {
+		this.shardingStrategy = shardingStrategy;
+	}
+	public ColumnSchema getShardingKeyColumn() {
+		return shardingKeyColumn;
+	}
+	public void setShardingKeyColumn(ColumnSchema shardingKeyColumn) {
+		this.shardingKeyColumn = shardingKeyColumn;
+	}
 	public String getDataSourceName() {
 		return dataSourceName;
 	}
@@ -180,6 +258,97 @@ public final class TableSchema {
 	}
 	public void setMappingColumnList(List<ColumnSchema> mappingColumnList) {
 		this.mappingColumnList = mappingColumnList;
+		//字段的取值方法和各语句的参数顺序只与表结构有关，这里一次算好
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		MethodHandle[] getterAry = new MethodHandle[mappingColumnList.size()];
+		List<Integer> updateColumnIndexList = new ArrayList<>();
+		List<Integer> idIndexList = new ArrayList<>();
+		int autoIncrementIndex = -1;
+		for(int i=0;i<getterAry.length;i++){
+			ColumnSchema columnSchema = mappingColumnList.get(i);
+			Method method = columnSchema.getColumnSchema().getMethod();
+			method.setAccessible(true);
+			try {
+				getterAry[i] = lookup.unreflect(method).asType(GETTER_TYPE);
+			} catch (IllegalAccessException e) {
+				throw new RuntimeException(e);
+			}
+			if(columnSchema.getPrimary()){
+				idIndexList.add(i);
+				if(columnSchema.getPrimaryKeyAutoIncrement() && autoIncrementIndex < 0){
+					autoIncrementIndex = i;
+				}
+			}else if(!columnSchema.getJustInsert()){
+				updateColumnIndexList.add(i);
+			}
+		}
+		int[] idParamIndexAry = new int[idIndexList.size()];
+		for(int i=0;i<idParamIndexAry.length;i++){
+			idParamIndexAry[i] = idIndexList.get(i);
+		}
+		updateColumnIndexList.addAll(idIndexList);
+		int[] updateParamIndexAry = new int[updateColumnIndexList.size()];
+		for(int i=0;i<updateParamIndexAry.length;i++){
+			updateParamIndexAry[i] = updateColumnIndexList.get(i);
+		}
+		this.getterAry = getterAry;
+		this.idParamIndexAry = idParamIndexAry;
+		this.updateParamIndexAry = updateParamIndexAry;
+		this.autoIncrementIndex = autoIncrementIndex;
+		this.crudSqlMap.clear();
+	}
+	
+	/**
+	 * 按mappingColumnList的顺序取出实体所有字段的值
+	 */
+	public Object[] getColumnValues(Object entity) {
+		Object[] values = new Object[getterAry.length];
+		try {
+			for(int i=0;i<getterAry.length;i++){
+				values[i] = (Object)getterAry[i].invokeExact(entity);
+			}
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new RuntimeException(e);
+		}
+		return values;
+	}
+	
+	/**
+	 * 按下标挑出参数
+	 */
+	public static Object[] pickValues(Object[] columnValues, int[] indexAry) {
+		Object[] params = new Object[indexAry.length];
+		for(int i=0;i<indexAry.length;i++){
+			params[i] = columnValues[indexAry[i]];
+		}
+		return params;
+	}
+	
+	public int[] getUpdateParamIndexAry() {
+		return updateParamIndexAry;
+	}
+	public int[] getIdParamIndexAry() {
+		return idParamIndexAry;
+	}
+	public int getAutoIncrementIndex() {
+		return autoIncrementIndex;
+	}
+	
+	/**
+	 * 真实表名对应的增删改查语句缓存，语句还没生成的字段是null
+	 */
+	public CrudSql getCrudSql(String realTableName) {
+		CrudSql crudSql = crudSqlMap.get(realTableName);
+		if(crudSql == null){
+			crudSql = new CrudSql();
+			CrudSql old = crudSqlMap.putIfAbsent(realTableName, crudSql);
+			if(old != null){
+				crudSql = old;
+			}
+		}
+		return crudSql;
 	}
 	public String getIdFields() {
 		return idFields;
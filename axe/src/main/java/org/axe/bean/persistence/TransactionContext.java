@@ -0,0 +1,186 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2017 CaiDongyu
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.axe.bean.persistence;
+
+import java.sql.Connection;
+import java.sql.Savepoint;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import org.axe.constant.Propagation;
+
+/**
+ * 线程的事务上下文
+ * 每进入一个@Tns方法压一层，方法结束弹出
+ * 栈顶那层的事务就是当前生效的事务，REQUIRES_NEW、NOT_SUPPORTED压栈后外面的事务自然就挂起了
+ */
+public final class TransactionContext {
+	
+	private final LinkedList<Frame> frameStack = new LinkedList<>();
+	
+	/**
+	 * 按传播方式压入一层
+	 */
+	public Frame push(Propagation propagation, boolean readOnly, int timeout) {
+		Transaction current = getCurrentTransaction();
+		Frame frame = null;
+		switch (propagation) {
+		case REQUIRES_NEW:
+			frame = new Frame(new Transaction(readOnly, timeout), true, false);
+			break;
+		case NESTED:
+			if(current != null){
+				frame = new Frame(current, false, true);
+			}else{
+				frame = new Frame(new Transaction(readOnly, timeout), true, false);
+			}
+			break;
+		case SUPPORTS:
+			frame = new Frame(current, false, false);
+			break;
+		case NOT_SUPPORTED:
+			frame = new Frame(null, false, false);
+			break;
+		case REQUIRED:
+		default:
+			if(current != null){
+				frame = new Frame(current, false, false);
+			}else{
+				frame = new Frame(new Transaction(readOnly, timeout), true, false);
+			}
+			break;
+		}
+		frameStack.push(frame);
+		return frame;
+	}
+	
+	public Frame peek() {
+		return frameStack.peek();
+	}
+	
+	public Frame pop() {
+		return frameStack.poll();
+	}
+	
+	public boolean isEmpty() {
+		return frameStack.isEmpty();
+	}
+	
+	/**
+	 * 当前生效的事务，没有返回null
+	 */
+	public Transaction getCurrentTransaction() {
+		Frame frame = frameStack.peek();
+		return frame == null ? null : frame.getTransaction();
+	}
+	
+	/**
+	 * 一个物理事务，各数据源在第一次用到时加入
+	 */
+	public static final class Transaction {
+		private final Map<String, Connection> connectionMap = new LinkedHashMap<>();
+		private final boolean readOnly;
+		/**
+		 * 超时的时间点，0表示不限制
+		 */
+		private final long deadline;
+		
+		private Transaction(boolean readOnly, int timeout) {
+			this.readOnly = readOnly;
+			this.deadline = timeout > 0 ? System.currentTimeMillis() + timeout * 1000L : 0;
+		}
+		
+		public Connection getConnection(String dataSourceName) {
+			return connectionMap.get(dataSourceName);
+		}
+		
+		public void addConnection(String dataSourceName, Connection connection) {
+			connectionMap.put(dataSourceName, connection);
+		}
+		
+		public Map<String, Connection> getConnectionMap() {
+			return connectionMap;
+		}
+		
+		public boolean isReadOnly() {
+			return readOnly;
+		}
+		
+		public long getDeadline() {
+			return deadline;
+		}
+	}
+	
+	/**
+	 * 栈里的一层，对应一个@Tns方法
+	 */
+	public static final class Frame {
+		private final Transaction transaction;
+		/**
+		 * 是否是这一层开启的事务，是的话由这一层提交或回滚
+		 */
+		private final boolean newTransaction;
+		/**
+		 * 嵌套事务，回滚时只回滚到保存点
+		 */
+		private final boolean nested;
+		private final Map<String, Savepoint> savepointMap = new HashMap<>();
+		/**
+		 * 提交时出错，连接已经释放，之后回滚不用再处理
+		 */
+		private boolean completed = false;
+		
+		private Frame(Transaction transaction, boolean newTransaction, boolean nested) {
+			this.transaction = transaction;
+			this.newTransaction = newTransaction;
+			this.nested = nested;
+		}
+
+		public Transaction getTransaction() {
+			return transaction;
+		}
+
+		public boolean isNewTransaction() {
+			return newTransaction;
+		}
+
+		public boolean isNested() {
+			return nested;
+		}
+
+		public Map<String, Savepoint> getSavepointMap() {
+			return savepointMap;
+		}
+
+		public boolean isCompleted() {
+			return completed;
+		}
+
+		public void setCompleted(boolean completed) {
+			this.completed = completed;
+		}
+	}
+}
@@ -40,6 +40,8 @@ public final class ConfigConstant {
 	public static final String AXE_EMAIL_SERVER_PASSWORD = "axe.email_server_password";//邮箱host的密码
 	public static final String AXE_EMAIL_TITLE = "axe.email_title";//邮件的抬头，除了配置文件里以外，也可以在代码里运行时再修改
 	public static final String AXE_EMAIL_ERROR_ADDRESSEE = "axe.email_error_addressee";//系统异常的默认邮件接受地址，多个地址可以用英文逗号分隔
+	public static final String AXE_STARTUP_THREADS = "axe.startup_threads";//启动时并行初始化Helper的线程数，1表示按顺序初始化
+	public static final String AXE_JSON_MODULES = "axe.json_modules";//需要注册到JsonUtil的Jackson Module类名，多个用英文逗号分隔
 	
     //#持久层配置
 	public static final String JDBC_DRIVER = "jdbc.driver";
@@ -48,11 +50,37 @@ public final class ConfigConstant {
 	public static final String JDBC_PASSWORD = "jdbc.password";
 	public static final String JDBC_DATASOURCE = "jdbc.datasource";
 	public static final String JDBC_CONNECTION_POOL_SIZE = "jdbc.connection_pool_size";
+	public static final String JDBC_SHARDING_QUERY_THREADS = "jdbc.sharding_query_threads";//分片并行查询的线程数，所有数据源共用
     //这个部分是jdbc配置的子项，需要JDBC_DATASOURCE+dataSourceName+以下名称配置{
 	public static final String JDBC_AUTO_CREATE_TABLE = "auto_create_table";
 	public static final String JDBC_SHOW_SQL = "show_sql";
 	public static final String JDBC_CHARACTER = "character";
 	public static final String JDBC_COLLATE = "collate";
+	//批量增删改每次executeBatch的条数，默认1000；MySql批量插入是否改成一句多行VALUES，默认false
+	public static final String JDBC_BATCH_SIZE = "batch_size";
+	public static final String JDBC_BATCH_MULTI_VALUES = "batch_multi_values";
+	//连接池配置，axe的默认数据源default-datasource使用
+	public static final String JDBC_MAX_POOL_SIZE = "max_pool_size";
+	public static final String JDBC_MIN_IDLE = "min_idle";
+	public static final String JDBC_CONNECTION_TIMEOUT = "connection_timeout";
+	public static final String JDBC_VALIDATION_TIMEOUT = "validation_timeout";
+	public static final String JDBC_TEST_ON_BORROW = "test_on_borrow";
+	public static final String JDBC_IDLE_TIMEOUT = "idle_timeout";
+	public static final String JDBC_MAX_LIFETIME = "max_lifetime";
+	public static final String JDBC_KEEPALIVE_TIME = "keepalive_time";
+	public static final String JDBC_LEAK_DETECTION_THRESHOLD = "leak_detection_threshold";
+	public static final String JDBC_STATEMENT_CACHE_SIZE = "statement_cache_size";
+	//读写分离数据源axe-datasource-rw的从库配置，主库使用jdbc.url等配置
+	public static final String JDBC_REPLICA_URLS = "replica_urls";
+	public static final String JDBC_REPLICA_USERNAME = "replica_username";
+	public static final String JDBC_REPLICA_PASSWORD = "replica_password";
+	public static final String JDBC_REPLICA_BALANCE = "replica_balance";
+	public static final String JDBC_REPLICA_HEALTH_CHECK_PERIOD = "replica_health_check_period";
+	//分片目录缓存的有效时间，和分片行数刷回_sharding_gt表的间隔，单位毫秒
+	public static final String JDBC_SHARDING_DIRECTORY_TTL = "sharding_directory_ttl";
+	public static final String JDBC_SHARDING_COUNT_FLUSH_PERIOD = "sharding_count_flush_period";
+	//分片表的查询是否拆开并行执行，默认true，false则还是合并成一句union all
+	public static final String JDBC_SHARDING_PARALLEL_QUERY = "sharding_parallel_query";
     //}
     
     //#项目基本配置
@@ -0,0 +1,50 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2017 CaiDongyu
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.axe.constant;
+
+/**
+ * 事务的传播方式
+ */
+public enum Propagation {
+	/**
+	 * 有事务就加入，没有就开启新事务
+	 */
+	REQUIRED,
+	/**
+	 * 总是开启新事务，外面的事务先挂起
+	 */
+	REQUIRES_NEW,
+	/**
+	 * 有事务时在当前事务里设保存点，出错只回滚到保存点；没有事务就开启新事务
+	 */
+	NESTED,
+	/**
+	 * 有事务就加入，没有就不用事务执行
+	 */
+	SUPPORTS,
+	/**
+	 * 不用事务执行，外面的事务先挂起
+	 */
+	NOT_SUPPORTED;
+}
@@ -28,9 +28,14 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
+import org.axe.annotation.base.DependsOn;
 import org.axe.extra.abc_thread.TaskPackBusController;
+import org.axe.helper.aop.AopHelper;
 import org.axe.helper.ioc.BeanHelper;
 import org.axe.helper.ioc.ClassHelper;
+import org.axe.helper.ioc.IocHelper;
+import org.axe.helper.mvc.ListenerHelper;
+import org.axe.helper.persistence.SchemaHelper;
 import org.axe.interface_.base.Helper;
 import org.axe.util.CollectionUtil;
 import org.axe.util.ReflectionUtil;
@@ -40,6 +45,7 @@ import org.axe.util.ReflectionUtil;
  * 之所以和BeanHelper分开，因为BeanHelper托管了Controller和Service Timer不应该放一起 Created by
  * CaiDongYu on 2020/4/7.
  */
+@DependsOn(value={ClassHelper.class,AopHelper.class}, startUp={SchemaHelper.class,IocHelper.class,ListenerHelper.class})
 public final class TimerTaskHelper implements Helper {
 	private static final Map<String,TimerTask> TIMER_TASK_MAP = new HashMap<>();
 	
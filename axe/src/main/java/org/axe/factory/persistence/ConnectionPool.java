@@ -0,0 +1,669 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2017 CaiDongyu
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.axe.factory.persistence;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.axe.constant.ConfigConstant;
+import org.axe.helper.base.ConfigHelper;
+import org.axe.util.LogUtil;
+import org.axe.util.PropsUtil;
+
+/**
+ * 连接池
+ * 空闲连接放在无锁栈里，后还的先借出去
+ * 借连接用公平信号量排队，超时抛SQLException，不再轮询
+ * 借出时按需校验连接，超过最大存活时间的连接归还时直接关掉
+ * 后台线程负责空闲回收、保活和泄漏检测
+ * 配置了statement_cache_size的，每个物理连接带一个LRU的PreparedStatement缓存，按 sql+是否返回主键 复用，淘汰时才真正关闭
+ * 配置都在 jdbc.datasource.数据源名称.* 下
+ */
+public final class ConnectionPool {
+	
+	/**
+	 * 归还后这么短时间内再借出，不做校验
+	 */
+	private static final long ALIVE_BYPASS_WINDOW = 500;
+	/**
+	 * 后台线程最长执行间隔
+	 */
+	private static final long HOUSEKEEPING_PERIOD = 30000;
+	
+	private final String name;
+	private final String url;
+	private final String username;
+	private final String password;
+	
+	private final int maxPoolSize;
+	private final int minIdle;
+	private final long connectionTimeout;
+	private final int validationTimeout;
+	private final boolean testOnBorrow;
+	private final long idleTimeout;
+	private final long maxLifetime;
+	private final long keepaliveTime;
+	private final long leakDetectionThreshold;
+	private final int statementCacheSize;
+	
+	/**
+	 * 空闲连接栈
+	 */
+	private final ConcurrentLinkedDeque<PooledConnection> idleStack = new ConcurrentLinkedDeque<>();
+	/**
+	 * 借出中的连接
+	 */
+	private final Set<PooledConnection> borrowedSet = Collections.newSetFromMap(new ConcurrentHashMap<PooledConnection,Boolean>());
+	/**
+	 * 借出许可，数量就是池的上限
+	 */
+	private final Semaphore permits;
+	private final AtomicInteger totalCount = new AtomicInteger();
+	private final ScheduledExecutorService housekeeper;
+	private volatile boolean closed = false;
+	private final AtomicLong statementCacheHitCount = new AtomicLong();
+	private final AtomicLong statementCacheMissCount = new AtomicLong();
+	
+	/**
+	 * @param name 数据源名称，用来读取 jdbc.datasource.name.* 配置
+	 * @param defaultPoolSize 没有配置max_pool_size时的池大小
+	 */
+	public ConnectionPool(String name, String driver, String url, String username, String password, int defaultPoolSize) {
+		this.name = name;
+		this.url = url;
+		this.username = username;
+		this.password = password;
+		
+		Properties configProps = ConfigHelper.getCONFIG_PROPS();
+		String prefix = ConfigConstant.JDBC_DATASOURCE + "." + name + ".";
+		this.maxPoolSize = Math.max(1, PropsUtil.getInt(configProps, prefix + ConfigConstant.JDBC_MAX_POOL_SIZE, defaultPoolSize));
+		this.minIdle = Math.min(maxPoolSize, Math.max(0, PropsUtil.getInt(configProps, prefix + ConfigConstant.JDBC_MIN_IDLE, 0)));
+		this.connectionTimeout = PropsUtil.getLong(configProps, prefix + ConfigConstant.JDBC_CONNECTION_TIMEOUT, 30000);
+		this.validationTimeout = (int) Math.max(1, PropsUtil.getLong(configProps, prefix + ConfigConstant.JDBC_VALIDATION_TIMEOUT, 5000) / 1000);
+		this.testOnBorrow = PropsUtil.getBoolean(configProps, prefix + ConfigConstant.JDBC_TEST_ON_BORROW, true);
+		this.idleTimeout = PropsUtil.getLong(configProps, prefix + ConfigConstant.JDBC_IDLE_TIMEOUT, 600000);
+		this.maxLifetime = PropsUtil.getLong(configProps, prefix + ConfigConstant.JDBC_MAX_LIFETIME, 1800000);
+		this.keepaliveTime = PropsUtil.getLong(configProps, prefix + ConfigConstant.JDBC_KEEPALIVE_TIME, 0);
+		this.leakDetectionThreshold = PropsUtil.getLong(configProps, prefix + ConfigConstant.JDBC_LEAK_DETECTION_THRESHOLD, 0);
+		this.statementCacheSize = Math.max(0, PropsUtil.getInt(configProps, prefix + ConfigConstant.JDBC_STATEMENT_CACHE_SIZE, 0));
+		this.permits = new Semaphore(maxPoolSize, true);
+		
+		try {
+			Class.forName(driver);
+		} catch (Exception e) {
+			LogUtil.error(e);
+		}
+		
+		long period = HOUSEKEEPING_PERIOD;
+		if(leakDetectionThreshold > 0){
+			period = Math.min(period, Math.max(1000, leakDetectionThreshold/2));
+		}
+		if(keepaliveTime > 0){
+			period = Math.min(period, Math.max(1000, keepaliveTime/2));
+		}
+		housekeeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "axe-pool-" + ConnectionPool.this.name + "-housekeeper");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		housekeeper.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					housekeep();
+				} catch (Throwable e) {
+					LogUtil.error(e);
+				}
+			}
+		}, 0, period, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * 借一个连接，close()即归还
+	 * 池满时排队等待，超过connection_timeout抛SQLTransientConnectionException，和连不上数据库区分开
+	 */
+	public Connection getConnection() throws SQLException {
+		if(closed){
+			throw new SQLException("connection pool of dataSource[" + name + "] is closed");
+		}
+		try {
+			if(!permits.tryAcquire(connectionTimeout, TimeUnit.MILLISECONDS)){
+				throw new SQLTransientConnectionException("connection of dataSource[" + name + "] is not available, request timed out after " + connectionTimeout + "ms (total:" + totalCount.get() + ", active:" + borrowedSet.size() + ")");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLTransientConnectionException("interrupted while waiting for connection of dataSource[" + name + "]", e);
+		}
+		try {
+			PooledConnection pooled = null;
+			while((pooled = idleStack.pollFirst()) != null){
+				long now = System.currentTimeMillis();
+				if(isExpired(pooled, now)){
+					closeConnection(pooled);
+					continue;
+				}
+				if(testOnBorrow && now - pooled.lastAccessTime > ALIVE_BYPASS_WINDOW && !isAlive(pooled)){
+					closeConnection(pooled);
+					continue;
+				}
+				break;
+			}
+			if(pooled == null){
+				pooled = createConnection();
+			}
+			pooled.borrowTime = System.currentTimeMillis();
+			pooled.leakReported = false;
+			if(leakDetectionThreshold > 0){
+				pooled.borrowTrace = new Exception("connection of dataSource[" + name + "] borrowed by thread[" + Thread.currentThread().getName() + "]");
+			}
+			borrowedSet.add(pooled);
+			return (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(), new Class<?>[]{Connection.class}, new ConnectionHandle(pooled));
+		} catch (SQLException | RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+	
+	/**
+	 * 关闭池，空闲连接立即关闭，借出的连接归还时关闭
+	 */
+	public void close() {
+		closed = true;
+		housekeeper.shutdownNow();
+		PooledConnection pooled = null;
+		while((pooled = idleStack.pollFirst()) != null){
+			closeConnection(pooled);
+		}
+	}
+	
+	public int getTotalCount() {
+		return totalCount.get();
+	}
+	
+	public int getActiveCount() {
+		return borrowedSet.size();
+	}
+	
+	public int getIdleCount() {
+		return idleStack.size();
+	}
+	
+	/**
+	 * PreparedStatement缓存命中次数
+	 */
+	public long getStatementCacheHitCount() {
+		return statementCacheHitCount.get();
+	}
+	
+	/**
+	 * PreparedStatement缓存未命中次数，没开缓存的是0
+	 */
+	public long getStatementCacheMissCount() {
+		return statementCacheMissCount.get();
+	}
+	
+	private PooledConnection createConnection() throws SQLException {
+		Connection connection = DriverManager.getConnection(url, username, password);
+		totalCount.incrementAndGet();
+		try {
+			return new PooledConnection(connection, statementCacheSize);
+		} catch (SQLException e) {
+			closeConnection(connection);
+			throw e;
+		}
+	}
+	
+	/**
+	 * 归还连接，还原连接状态后压回空闲栈
+	 */
+	private void recycle(PooledConnection pooled) {
+		borrowedSet.remove(pooled);
+		pooled.borrowTrace = null;
+		try {
+			long now = System.currentTimeMillis();
+			if(closed || isExpired(pooled, now) || pooled.connection.isClosed()){
+				closeConnection(pooled);
+			}else{
+				pooled.reset();
+				pooled.lastAccessTime = now;
+				idleStack.offerFirst(pooled);
+			}
+		} catch (Exception e) {
+			LogUtil.error(e);
+			closeConnection(pooled);
+		} finally {
+			permits.release();
+		}
+	}
+	
+	private void housekeep() {
+		long now = System.currentTimeMillis();
+		//泄漏检测
+		if(leakDetectionThreshold > 0){
+			for(PooledConnection pooled:borrowedSet){
+				Exception borrowTrace = pooled.borrowTrace;
+				if(!pooled.leakReported && borrowTrace != null && now - pooled.borrowTime > leakDetectionThreshold){
+					pooled.leakReported = true;
+					LogUtil.error("possible connection leak of dataSource[" + name + "], connection held longer than " + leakDetectionThreshold + "ms");
+					LogUtil.error(borrowTrace);
+				}
+			}
+		}
+		//空闲回收、超过存活时间的回收、保活
+		int idleCount = idleStack.size();
+		Iterator<PooledConnection> it = idleStack.descendingIterator();
+		while(it.hasNext()){
+			PooledConnection pooled = it.next();
+			boolean expired = isExpired(pooled, now);
+			boolean idleTooLong = idleTimeout > 0 && idleCount > minIdle && now - pooled.lastAccessTime > idleTimeout;
+			boolean needKeepalive = keepaliveTime > 0 && now - pooled.lastAccessTime > keepaliveTime;
+			if(!expired && !idleTooLong && !needKeepalive){
+				continue;
+			}
+			//先从栈里拿出来，拿不到说明刚被借走了
+			if(!idleStack.removeFirstOccurrence(pooled)){
+				continue;
+			}
+			if(expired || idleTooLong){
+				idleCount--;
+				closeConnection(pooled);
+			}else if(isAlive(pooled)){
+				pooled.lastAccessTime = System.currentTimeMillis();
+				idleStack.offerLast(pooled);
+			}else{
+				idleCount--;
+				closeConnection(pooled);
+			}
+		}
+		//补足最小空闲
+		while(!closed && totalCount.get() < minIdle && idleStack.size() < minIdle){
+			try {
+				PooledConnection pooled = createConnection();
+				idleStack.offerLast(pooled);
+			} catch (SQLException e) {
+				LogUtil.error(e);
+				break;
+			}
+		}
+	}
+	
+	private boolean isExpired(PooledConnection pooled, long now) {
+		return maxLifetime > 0 && now - pooled.createTime > maxLifetime;
+	}
+	
+	private boolean isAlive(PooledConnection pooled) {
+		try {
+			return pooled.connection.isValid(validationTimeout);
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+	
+	private void closeConnection(PooledConnection pooled) {
+		pooled.clearStatementCache();
+		closeConnection(pooled.connection);
+	}
+	
+	private void closeConnection(Connection connection) {
+		totalCount.decrementAndGet();
+		try {
+			connection.close();
+		} catch (Exception e) {
+			LogUtil.error(e);
+		}
+	}
+	
+	/**
+	 * 池里的物理连接
+	 */
+	private static final class PooledConnection {
+		private final Connection connection;
+		private final long createTime;
+		private final boolean defaultAutoCommit;
+		private final boolean defaultReadOnly;
+		private final int defaultTransactionIsolation;
+		
+		private volatile long lastAccessTime;
+		private volatile long borrowTime;
+		private volatile Exception borrowTrace;
+		private volatile boolean leakReported;
+		
+		/**
+		 * 借出期间是否改过这些状态，改过的归还时还原
+		 */
+		private boolean autoCommitDirty;
+		private boolean readOnlyDirty;
+		private boolean transactionIsolationDirty;
+		
+		/**
+		 * 空闲的PreparedStatement，按访问顺序排列，超出数量的最久没用的关闭
+		 * 借出去的语句不在里面，归还时再放回来
+		 */
+		private final LinkedHashMap<StatementKey, PreparedStatement> statementCache;
+		
+		private PooledConnection(Connection connection, final int statementCacheSize) throws SQLException {
+			this.connection = connection;
+			if(statementCacheSize > 0){
+				this.statementCache = new LinkedHashMap<StatementKey, PreparedStatement>(16, 0.75f, true){
+					private static final long serialVersionUID = 1L;
+					@Override
+					protected boolean removeEldestEntry(Map.Entry<StatementKey, PreparedStatement> eldest) {
+						if(size() > statementCacheSize){
+							closeStatement(eldest.getValue());
+							return true;
+						}
+						return false;
+					}
+				};
+			}else{
+				this.statementCache = null;
+			}
+			this.createTime = System.currentTimeMillis();
+			this.lastAccessTime = createTime;
+			this.defaultAutoCommit = connection.getAutoCommit();
+			this.defaultReadOnly = connection.isReadOnly();
+			this.defaultTransactionIsolation = connection.getTransactionIsolation();
+		}
+		
+		private void reset() throws SQLException {
+			if(autoCommitDirty){
+				if(!connection.getAutoCommit()){
+					//没提交的事务不能带给下一个借用者
+					connection.rollback();
+				}
+				connection.setAutoCommit(defaultAutoCommit);
+				autoCommitDirty = false;
+			}
+			if(readOnlyDirty){
+				connection.setReadOnly(defaultReadOnly);
+				readOnlyDirty = false;
+			}
+			if(transactionIsolationDirty){
+				connection.setTransactionIsolation(defaultTransactionIsolation);
+				transactionIsolationDirty = false;
+			}
+			connection.clearWarnings();
+		}
+		
+		/**
+		 * 从缓存里取出语句，没有返回null
+		 */
+		private PreparedStatement takeStatement(StatementKey key) {
+			synchronized (statementCache) {
+				return statementCache.remove(key);
+			}
+		}
+		
+		/**
+		 * 语句用完放回缓存，同样的语句已经有了的直接关闭
+		 */
+		private void returnStatement(StatementKey key, PreparedStatement statement) {
+			synchronized (statementCache) {
+				if(!statementCache.containsKey(key)){
+					statementCache.put(key, statement);
+					return;
+				}
+			}
+			closeStatement(statement);
+		}
+		
+		private void clearStatementCache() {
+			if(statementCache == null){
+				return;
+			}
+			synchronized (statementCache) {
+				for(PreparedStatement statement:statementCache.values()){
+					closeStatement(statement);
+				}
+				statementCache.clear();
+			}
+		}
+	}
+	
+	private static void closeStatement(PreparedStatement statement) {
+		try {
+			statement.close();
+		} catch (Exception e) {
+			LogUtil.error(e);
+		}
+	}
+	
+	/**
+	 * 缓存语句的key，sql+返回主键的标记（-1是没指定）
+	 */
+	private static final class StatementKey {
+		private final String sql;
+		private final int autoGeneratedKeys;
+		
+		private StatementKey(String sql, int autoGeneratedKeys) {
+			this.sql = sql;
+			this.autoGeneratedKeys = autoGeneratedKeys;
+		}
+		
+		@Override
+		public int hashCode() {
+			return sql.hashCode() * 31 + autoGeneratedKeys;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof StatementKey)){
+				return false;
+			}
+			StatementKey other = (StatementKey) obj;
+			return autoGeneratedKeys == other.autoGeneratedKeys && sql.equals(other.sql);
+		}
+	}
+	
+	/**
+	 * 借出去的连接句柄，每次借出都是新的
+	 * close()归还到池里，之后这个句柄就不能再用了
+	 */
+	private final class ConnectionHandle implements InvocationHandler {
+		private final PooledConnection pooled;
+		private boolean handleClosed = false;
+		
+		private ConnectionHandle(PooledConnection pooled) {
+			this.pooled = pooled;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String methodName = method.getName();
+			switch (methodName) {
+			case "close":
+				if(!handleClosed){
+					handleClosed = true;
+					recycle(pooled);
+				}
+				return null;
+			case "isClosed":
+				return handleClosed || pooled.connection.isClosed();
+			case "equals":
+				return proxy == args[0];
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			case "toString":
+				return "axe-pool[" + name + "]" + pooled.connection;
+			default:
+				break;
+			}
+			if(handleClosed){
+				throw new SQLException("connection of dataSource[" + name + "] has been returned to pool");
+			}
+			switch (methodName) {
+			case "setAutoCommit":
+				pooled.autoCommitDirty = true;
+				break;
+			case "setReadOnly":
+				pooled.readOnlyDirty = true;
+				break;
+			case "setTransactionIsolation":
+				pooled.transactionIsolationDirty = true;
+				break;
+			case "prepareStatement":
+				//只缓存prepareStatement(sql)和prepareStatement(sql, autoGeneratedKeys)
+				if(pooled.statementCache != null && args.length <= 2 && (args.length == 1 || args[1] instanceof Integer)){
+					return prepareCachedStatement(proxy, (String) args[0], args.length == 1 ? -1 : (Integer) args[1]);
+				}
+				break;
+			default:
+				break;
+			}
+			try {
+				return method.invoke(pooled.connection, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+		
+		private PreparedStatement prepareCachedStatement(Object connectionProxy, String sql, int autoGeneratedKeys) throws SQLException {
+			StatementKey key = new StatementKey(sql, autoGeneratedKeys);
+			PreparedStatement statement = pooled.takeStatement(key);
+			if(statement != null){
+				statementCacheHitCount.incrementAndGet();
+			}else{
+				statementCacheMissCount.incrementAndGet();
+				statement = autoGeneratedKeys == -1 ? pooled.connection.prepareStatement(sql) : pooled.connection.prepareStatement(sql, autoGeneratedKeys);
+			}
+			return (PreparedStatement) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(), new Class<?>[]{PreparedStatement.class}, 
+					new StatementHandle(pooled, (Connection) connectionProxy, key, statement));
+		}
+	}
+	
+	/**
+	 * 缓存的PreparedStatement句柄
+	 * close()时清掉参数和批量放回缓存，改过超时以外其他属性的语句不放回，直接关闭
+	 */
+	private static final class StatementHandle implements InvocationHandler {
+		private final PooledConnection pooled;
+		private final Connection connectionProxy;
+		private final StatementKey key;
+		private final PreparedStatement statement;
+		private boolean handleClosed = false;
+		private boolean queryTimeoutDirty = false;
+		private boolean propertyDirty = false;
+		
+		private StatementHandle(PooledConnection pooled, Connection connectionProxy, StatementKey key, PreparedStatement statement) {
+			this.pooled = pooled;
+			this.connectionProxy = connectionProxy;
+			this.key = key;
+			this.statement = statement;
+		}
+		
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String methodName = method.getName();
+			switch (methodName) {
+			case "close":
+				if(!handleClosed){
+					handleClosed = true;
+					recycle();
+				}
+				return null;
+			case "isClosed":
+				return handleClosed || statement.isClosed();
+			case "equals":
+				return proxy == args[0];
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			case "toString":
+				return "axe-cached-statement:" + statement;
+			default:
+				break;
+			}
+			if(handleClosed){
+				throw new SQLException("statement has been closed");
+			}
+			switch (methodName) {
+			case "getConnection":
+				return connectionProxy;
+			case "setQueryTimeout":
+				queryTimeoutDirty = true;
+				break;
+			case "setFetchSize":
+			case "setFetchDirection":
+			case "setMaxRows":
+			case "setLargeMaxRows":
+			case "setMaxFieldSize":
+			case "setEscapeProcessing":
+			case "setCursorName":
+			case "setPoolable":
+			case "closeOnCompletion":
+				propertyDirty = true;
+				break;
+			default:
+				break;
+			}
+			try {
+				return method.invoke(statement, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+		
+		private void recycle() {
+			try {
+				if(propertyDirty || statement.isClosed()){
+					closeStatement(statement);
+					return;
+				}
+				statement.clearParameters();
+				statement.clearBatch();
+				statement.clearWarnings();
+				if(queryTimeoutDirty){
+					statement.setQueryTimeout(0);
+				}
+				pooled.returnStatement(key, statement);
+			} catch (SQLException e) {
+				closeStatement(statement);
+			}
+		}
+	}
+}
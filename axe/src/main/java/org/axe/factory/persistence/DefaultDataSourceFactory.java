@@ -24,17 +24,17 @@
 package org.axe.factory.persistence;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
-import java.util.HashMap;
-import java.util.Map;
 
 import org.axe.annotation.persistence.DataSource;
 import org.axe.helper.base.ConfigHelper;
 import org.axe.interface_.persistence.BaseDataSource;
-import org.axe.util.LogUtil;
 import org.axe.util.StringUtil;
 
+/**
+ * axe自带的连接池数据源
+ * 连接池参数通过 jdbc.datasource.default-datasource.* 配置，见ConnectionPool
+ */
 @DataSource("default-datasource")
 public final class DefaultDataSourceFactory implements BaseDataSource{
 	
@@ -45,8 +45,8 @@ public final class DefaultDataSourceFactory implements BaseDataSource{
     private final String PASSWORD;
     private final Integer CONNECTION_POLL_SIZE;
     
-    //数据源缓存
-    Map<Connection,Boolean> CONNECTION_POOL = new HashMap<>();
+    //连接池
+    private ConnectionPool CONNECTION_POOL;
 	
 	public DefaultDataSourceFactory() {
         //#初始化jdbc配置
@@ -67,62 +67,22 @@ public final class DefaultDataSourceFactory implements BaseDataSource{
 	}
 	
 	private void init() {
-        
-        try {
-            Class.forName(DRIVER);
-        } catch (Exception e) {
-            LogUtil.error(e);
-        }
-        
+		String dataSourceName = DefaultDataSourceFactory.class.getAnnotation(DataSource.class).value();
+		CONNECTION_POOL = new ConnectionPool(dataSourceName, DRIVER, URL, USERNAME, PASSWORD, CONNECTION_POLL_SIZE);
 	}
 
 	@Override
 	public Connection getConnection() throws SQLException {
-		Connection con = null;
-		//查看是否有空闲连接
-		synchronized (CONNECTION_POOL) {
-			if(!CONNECTION_POOL.isEmpty()){
-				for(Connection one:CONNECTION_POOL.keySet()){
-					if(!CONNECTION_POOL.get(one)){
-						con = one;
-						CONNECTION_POOL.put(con, true);
-						LogUtil.log(Thread.currentThread().getName()+"-复用连接，当前pool size:"+CONNECTION_POOL.size());
-						break;
-					}
-				}
-			}
-		}
-		
-		if(con == null){
-			//如果缓存没有达到上限，则补充一个连接进去
-			synchronized (CONNECTION_POOL) {
-				if(CONNECTION_POOL.size() < CONNECTION_POLL_SIZE){
-					con = DriverManager.getConnection(URL,USERNAME,PASSWORD);
-					CONNECTION_POOL.put(con, true);
-					LogUtil.log(Thread.currentThread().getName()+"-打开连接，当前pool size:"+CONNECTION_POOL.size());
-				}
-			}
-		}
-		if(con == null){
-			LogUtil.log(Thread.currentThread().getName()+"-等待");
-			//说明缓存达到上限，不能再补充了
-			try {
-				Thread.sleep(20);//休息20ms后再次尝试获取缓存连接，有可能有新连接释放
-			} catch (Exception e) {}
-			return getConnection();
-		}else{
-			return con;
+		if(CONNECTION_POOL == null){
+			throw new SQLException("jdbc.driver/jdbc.url/jdbc.username is not configured for default-datasource");
 		}
+		return CONNECTION_POOL.getConnection();
 	}
 	
 	@Override
 	public void closeConnection(Connection con) throws SQLException{
-		synchronized (CONNECTION_POOL) {
-			if(!CONNECTION_POOL.isEmpty()){
-				CONNECTION_POOL.put(con, false);
-				LogUtil.log(Thread.currentThread().getName()+"-关闭连接，当前pool size:"+CONNECTION_POOL.size());
-			}
-		}
+		//连接池借出的连接，close即归还
+		con.close();
 	}
 	
 	@Override
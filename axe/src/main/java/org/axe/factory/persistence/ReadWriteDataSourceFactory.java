@@ -0,0 +1,290 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2017 CaiDongyu
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.axe.factory.persistence;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.axe.annotation.persistence.DataSource;
+import org.axe.constant.ConfigConstant;
+import org.axe.helper.base.ConfigHelper;
+import org.axe.interface_.persistence.ReadWriteDataSource;
+import org.axe.util.LogUtil;
+import org.axe.util.PropsUtil;
+import org.axe.util.StringUtil;
+
+/**
+ * axe自带的读写分离数据源
+ * 主库使用jdbc.driver/jdbc.url/jdbc.username/jdbc.password
+ * 从库通过 jdbc.datasource.axe-datasource-rw.replica_urls 配置，多个用“,”逗号分隔
+ * 从库选择方式 replica_balance：round_robin轮询（默认），least_in_flight当前借出连接最少的优先
+ * 连不上的从库会被跳过，从库都不可用时查询走主库；连接池借连接超时只说明从库忙，不算不可用
+ * 健康检查不经过连接池，单独建连接探测，超过 validation_timeout 算失败
+ * 主从都使用ConnectionPool，连接池参数同样在 jdbc.datasource.axe-datasource-rw.* 下配置
+ */
+@DataSource("axe-datasource-rw")
+public final class ReadWriteDataSourceFactory implements ReadWriteDataSource{
+	
+	private static final String BALANCE_LEAST_IN_FLIGHT = "least_in_flight";
+	
+    //#数据库
+    private final String DRIVER;
+    private final String URL;
+    private final String USERNAME;
+    private final String PASSWORD;
+    private final Integer CONNECTION_POLL_SIZE;
+    
+    private ConnectionPool PRIMARY;
+    private Replica[] REPLICA_ARY = new Replica[0];
+    private boolean LEAST_IN_FLIGHT = false;
+    private final AtomicInteger NEXT_REPLICA = new AtomicInteger();
+    /**
+     * 借出中的从库连接，归还时减掉从库的借出数
+     */
+    private final ConcurrentHashMap<Connection, Replica> READ_CONNECTION_MAP = new ConcurrentHashMap<>();
+    private ScheduledExecutorService HEALTH_CHECKER;
+    private ExecutorService HEALTH_PROBER;
+	
+	public ReadWriteDataSourceFactory() {
+        //#初始化jdbc配置
+        DRIVER = setJdbcDriver();
+        URL = setJdbcUrl();
+        USERNAME = setJdbcUserName();
+        PASSWORD = setJdbcPassword();
+        CONNECTION_POLL_SIZE = setJdbcConnectionPoolSize();
+        
+        do{
+        	if(StringUtil.isEmpty(DRIVER)) break;
+        	if(StringUtil.isEmpty(URL)) break;
+        	if(StringUtil.isEmpty(USERNAME)) break;
+        	//么有配置的话，默认不会初始化数据源
+        	init();
+        }while(false);
+	}
+	
+	private void init() {
+		String dataSourceName = ReadWriteDataSourceFactory.class.getAnnotation(DataSource.class).value();
+		PRIMARY = new ConnectionPool(dataSourceName, DRIVER, URL, USERNAME, PASSWORD, CONNECTION_POLL_SIZE);
+		
+		Properties configProps = ConfigHelper.getCONFIG_PROPS();
+		String prefix = ConfigConstant.JDBC_DATASOURCE + "." + dataSourceName + ".";
+		String replicaUrls = PropsUtil.getString(configProps, prefix + ConfigConstant.JDBC_REPLICA_URLS, null);
+		String replicaUserName = PropsUtil.getString(configProps, prefix + ConfigConstant.JDBC_REPLICA_USERNAME, USERNAME);
+		String replicaPassword = PropsUtil.getString(configProps, prefix + ConfigConstant.JDBC_REPLICA_PASSWORD, PASSWORD);
+		LEAST_IN_FLIGHT = BALANCE_LEAST_IN_FLIGHT.equalsIgnoreCase(PropsUtil.getString(configProps, prefix + ConfigConstant.JDBC_REPLICA_BALANCE, ""));
+		long healthCheckPeriod = PropsUtil.getLong(configProps, prefix + ConfigConstant.JDBC_REPLICA_HEALTH_CHECK_PERIOD, 5000);
+		final long healthCheckTimeout = PropsUtil.getLong(configProps, prefix + ConfigConstant.JDBC_VALIDATION_TIMEOUT, 5000);
+		
+		List<Replica> replicaList = new ArrayList<>();
+		if(StringUtil.isNotEmpty(replicaUrls)){
+			for(String replicaUrl:replicaUrls.split(",")){
+				replicaUrl = replicaUrl.trim();
+				if(StringUtil.isEmpty(replicaUrl)) continue;
+				replicaList.add(new Replica(new ConnectionPool(dataSourceName, DRIVER, replicaUrl, replicaUserName, replicaPassword, CONNECTION_POLL_SIZE), replicaUrl, replicaUserName, replicaPassword));
+			}
+		}
+		REPLICA_ARY = replicaList.toArray(new Replica[replicaList.size()]);
+		
+		if(REPLICA_ARY.length > 0 && healthCheckPeriod > 0){
+			HEALTH_CHECKER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "axe-datasource-rw-health-check");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			//探测在单独的线程里跑，连接卡住的不会拖住检查线程
+			HEALTH_PROBER = Executors.newCachedThreadPool(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "axe-datasource-rw-health-probe");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			HEALTH_CHECKER.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					List<Future<Boolean>> futureList = new ArrayList<>();
+					for(Replica replica:REPLICA_ARY){
+						futureList.add(HEALTH_PROBER.submit(replica.probe((int)Math.max(1, healthCheckTimeout/1000))));
+					}
+					long deadline = System.currentTimeMillis() + healthCheckTimeout;
+					for(int i=0;i<REPLICA_ARY.length;i++){
+						Future<Boolean> future = futureList.get(i);
+						boolean healthy;
+						try {
+							healthy = future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+						} catch (TimeoutException | ExecutionException e) {
+							future.cancel(true);
+							healthy = false;
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							return;
+						}
+						REPLICA_ARY[i].healthy = healthy;
+					}
+				}
+			}, healthCheckPeriod, healthCheckPeriod, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		if(PRIMARY == null){
+			throw new SQLException("jdbc.driver/jdbc.url/jdbc.username is not configured for axe-datasource-rw");
+		}
+		return PRIMARY.getConnection();
+	}
+	
+	@Override
+	public Connection getReadConnection() throws SQLException {
+		int replicaCount = REPLICA_ARY.length;
+		if(replicaCount > 0){
+			int start = LEAST_IN_FLIGHT ? leastInFlightIndex() : (NEXT_REPLICA.getAndIncrement() & Integer.MAX_VALUE) % replicaCount;
+			for(int i=0;i<replicaCount;i++){
+				Replica replica = REPLICA_ARY[(start+i)%replicaCount];
+				if(!replica.healthy) continue;
+				try {
+					Connection connection = replica.pool.getConnection();
+					replica.inFlight.incrementAndGet();
+					READ_CONNECTION_MAP.put(connection, replica);
+					return connection;
+				} catch (SQLTransientConnectionException e) {
+					//连接池满了等超时，从库只是忙，换下一个，不标记不可用
+					LogUtil.error(e);
+				} catch (SQLException e) {
+					//连不上的从库先跳过，等健康检查恢复
+					replica.healthy = false;
+					LogUtil.error(e);
+				}
+			}
+		}
+		//没有可用的从库，走主库
+		return getConnection();
+	}
+	
+	private int leastInFlightIndex() {
+		int index = 0;
+		int min = Integer.MAX_VALUE;
+		for(int i=0;i<REPLICA_ARY.length;i++){
+			Replica replica = REPLICA_ARY[i];
+			if(replica.healthy && replica.inFlight.get() < min){
+				min = replica.inFlight.get();
+				index = i;
+			}
+		}
+		return index;
+	}
+	
+	@Override
+	public void closeConnection(Connection con) throws SQLException{
+		Replica replica = READ_CONNECTION_MAP.remove(con);
+		if(replica != null){
+			replica.inFlight.decrementAndGet();
+		}
+		//连接池借出的连接，close即归还
+		con.close();
+	}
+	
+	@Override
+	public String setJdbcDriver() {
+		return ConfigHelper.getJdbcDriver();
+	}
+
+	@Override
+	public String setJdbcUrl() {
+		return ConfigHelper.getJdbcUrl();
+	}
+
+	@Override
+	public String setJdbcUserName() {
+		return ConfigHelper.getJdbcUsername();
+	}
+
+	@Override
+	public String setJdbcPassword() {
+		return ConfigHelper.getJdbcPassword() == null?"":ConfigHelper.getJdbcPassword();
+	}
+
+	@Override
+	public int setJdbcConnectionPoolSize() {
+		return ConfigHelper.getJdbcConnectionPoolSize();
+	}
+
+	@Override
+	public boolean tns() {
+		return true;
+	}
+	
+	/**
+	 * 从库
+	 */
+	private static final class Replica {
+		private final ConnectionPool pool;
+		private final String url;
+		private final String username;
+		private final String password;
+		private final AtomicInteger inFlight = new AtomicInteger();
+		private volatile boolean healthy = true;
+		
+		private Replica(ConnectionPool pool, String url, String username, String password) {
+			this.pool = pool;
+			this.url = url;
+			this.username = username;
+			this.password = password;
+		}
+		
+		/**
+		 * 不从连接池借，单独建一个连接校验后关掉，池被借空时也能探测
+		 */
+		private Callable<Boolean> probe(final int timeoutSeconds) {
+			return new Callable<Boolean>() {
+				@Override
+				public Boolean call() throws Exception {
+					try (Connection connection = DriverManager.getConnection(url, username, password)) {
+						return connection.isValid(timeoutSeconds);
+					}
+				}
+			};
+		}
+	}
+}
@@ -24,10 +24,26 @@
 package org.axe.helper;
 
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.ServletContext;
 
 import org.axe.Axe;
+import org.axe.annotation.base.DependsOn;
 import org.axe.extra.timer.TimerTaskHelper;
 import org.axe.helper.aop.AopHelper;
 import org.axe.helper.base.ConfigHelper;
@@ -46,10 +62,12 @@ import org.axe.helper.persistence.DataSourceHelper;
 import org.axe.helper.persistence.SchemaHelper;
 import org.axe.helper.persistence.TableHelper;
 import org.axe.interface_.base.Helper;
+import org.axe.util.ClassUtil;
 import org.axe.util.LogUtil;
 
 /**
  * 加载并初始化 Helper 类
+ * 按 @DependsOn 声明的依赖关系，在启动线程池里并行初始化
  * @author CaiDongyu on 2016/4/11.
  */
 public final class HelperLoader {
@@ -96,12 +114,31 @@ public final class HelperLoader {
     }
     
     public static synchronized void refresHelpers(ServletContext servletContext) throws Exception{
-    	for (Helper helper:helpers){
-    		helper.init();
-        }
-    	for (Helper helper:helpers){
-    		helper.onStartUp();;
-        }
+    	long begin = System.currentTimeMillis();
+    	long[] initCost = new long[helpers.length];
+    	long[] startUpCost = new long[helpers.length];
+    	boolean[] done = new boolean[helpers.length];
+    	
+    	//ConfigHelper 没有依赖，先在当前线程初始化，才能读到线程数配置
+    	runHelper(0, false, initCost);
+    	done[0] = true;
+    	
+    	int threads = Math.min(ConfigHelper.getAxeStartupThreads(), helpers.length);
+    	ExecutorService executor = threads > 1 ? newStartupExecutor(threads) : null;
+    	try {
+    		//init 全部完成后才开始 onStartUp
+    		runPhase(false, done, initCost, executor);
+    		runPhase(true, new boolean[helpers.length], startUpCost, executor);
+		} finally {
+			if(executor != null){
+				executor.shutdownNow();
+			}
+		}
+    	
+    	for(int i=0;i<helpers.length;i++){
+    		LogUtil.log(">>>>>>>>>\t "+helpers[i].getClass().getSimpleName()+" init "+initCost[i]+"ms, onStartUp "+startUpCost[i]+"ms");
+    	}
+    	LogUtil.log(">>>>>>>>>\t Helpers ready in "+(System.currentTimeMillis()-begin)+"ms, threads "+(threads > 1 ? threads : 1));
     	
         //特别初始化
         if(servletContext != null){//因为表单请求可能带有文件上传，需要初始化Servlet相关设置
@@ -126,4 +163,152 @@ public final class HelperLoader {
 		LogUtil.log(">>>>>>>>>\t Home is \"/axe\"  \t<<<<<<<<<<");
 		LogUtil.log(">>>>>>>>>\t Class path is "+path);
     }
+    
+    /**
+     * 执行一个阶段，executor 为空时按数组顺序执行
+     * 并行时每个 Helper 在依赖全部完成后提交，第一个出错的直接抛出，其余的由调用方 shutdownNow 中断
+     */
+    private static void runPhase(boolean startUp, boolean[] done, long[] cost, ExecutorService executor) throws Exception{
+    	if(executor == null){
+    		for(int i=0;i<helpers.length;i++){
+    			if(!done[i]){
+    				runHelper(i, startUp, cost);
+    			}
+    		}
+    		return;
+    	}
+    	
+    	int[][] dependencies = resolveDependencies(startUp);
+    	int[] waiting = new int[helpers.length];
+    	List<List<Integer>> dependents = new ArrayList<>();
+    	int finished = 0;
+    	for(int i=0;i<helpers.length;i++){
+    		dependents.add(new ArrayList<Integer>());
+    	}
+    	for(int i=0;i<helpers.length;i++){
+    		if(done[i]){
+    			finished++;
+    			continue;
+    		}
+    		for(int dependency:dependencies[i]){
+    			if(!done[dependency]){
+    				waiting[i]++;
+    				dependents.get(dependency).add(i);
+    			}
+    		}
+    	}
+    	
+    	CompletionService<Integer> completionService = new ExecutorCompletionService<>(executor);
+    	Map<Future<Integer>,Integer> running = new HashMap<>();
+    	for(int i=0;i<helpers.length;i++){
+    		if(!done[i] && waiting[i] == 0){
+    			running.put(completionService.submit(helperTask(i, startUp, cost)), i);
+    		}
+    	}
+    	while(finished < helpers.length){
+    		if(running.isEmpty()){
+    			StringBuilder buf = new StringBuilder();
+    			for(int i=0;i<helpers.length;i++){
+    				if(waiting[i] > 0){
+    					buf.append(buf.length() > 0 ? "," : "").append(helpers[i].getClass().getSimpleName());
+    				}
+    			}
+    			throw new RuntimeException("helper dependency cycle: "+buf);
+    		}
+    		Future<Integer> future = completionService.take();
+    		int index = running.remove(future);
+    		try {
+				future.get();
+			} catch (ExecutionException e) {
+				LogUtil.log(">>>>>>>>>\t "+helpers[index].getClass().getSimpleName()+(startUp?" onStartUp":" init")+" failed");
+				Throwable cause = e.getCause();
+				if(cause instanceof Exception){
+					throw (Exception)cause;
+				}
+				if(cause instanceof Error){
+					throw (Error)cause;
+				}
+				throw e;
+			}
+    		finished++;
+    		for(int dependent:dependents.get(index)){
+    			if(--waiting[dependent] == 0){
+    				running.put(completionService.submit(helperTask(dependent, startUp, cost)), dependent);
+    			}
+    		}
+    	}
+    }
+    
+    /**
+     * 按 @DependsOn 换算成 helpers 下标，init 阶段用 value，onStartUp 阶段用 startUp
+     * 没有注解的依赖排在它前面的所有 Helper
+     * 依赖了不在 helpers 里的 Helper 则忽略
+     */
+    private static int[][] resolveDependencies(boolean startUp){
+    	Map<Class<?>,Integer> indexMap = new HashMap<>();
+    	for(int i=0;i<helpers.length;i++){
+    		indexMap.put(helpers[i].getClass(), i);
+    	}
+    	int[][] dependencies = new int[helpers.length][];
+    	for(int i=0;i<helpers.length;i++){
+    		DependsOn dependsOn = helpers[i].getClass().getAnnotation(DependsOn.class);
+    		if(dependsOn == null){
+    			dependencies[i] = new int[i];
+    			for(int j=0;j<i;j++){
+    				dependencies[i][j] = j;
+    			}
+    			continue;
+    		}
+    		Set<Integer> indexSet = new LinkedHashSet<>();
+    		for(Class<? extends Helper> dependsOnClass:startUp?dependsOn.startUp():dependsOn.value()){
+    			Integer index = indexMap.get(dependsOnClass);
+    			if(index != null && index != i){
+    				indexSet.add(index);
+    			}
+    		}
+    		dependencies[i] = new int[indexSet.size()];
+    		int j = 0;
+    		for(int index:indexSet){
+    			dependencies[i][j++] = index;
+    		}
+    	}
+    	return dependencies;
+    }
+    
+    private static Callable<Integer> helperTask(final int index, final boolean startUp, final long[] cost){
+    	return new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				runHelper(index, startUp, cost);
+				return index;
+			}
+		};
+    }
+    
+    private static void runHelper(int index, boolean startUp, long[] cost) throws Exception{
+    	long begin = System.currentTimeMillis();
+    	if(startUp){
+    		helpers[index].onStartUp();
+    	}else{
+    		helpers[index].init();
+    	}
+    	cost[index] = System.currentTimeMillis()-begin;
+    }
+    
+    /**
+     * 启动线程沿用当前线程的ClassLoader，web容器里扫描class要用到
+     */
+    private static ExecutorService newStartupExecutor(int threads){
+    	final ClassLoader classLoader = ClassUtil.getClassLoader();
+    	final AtomicInteger threadIndex = new AtomicInteger();
+    	return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "axe-startup-"+threadIndex.incrementAndGet());
+				thread.setDaemon(true);
+				thread.setContextClassLoader(classLoader);
+				return thread;
+			}
+		});
+    }
 }
@@ -24,6 +24,7 @@
 package org.axe.helper.aop;
 
 import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -32,6 +33,7 @@ import java.util.Map;
 import java.util.Set;
 
 import org.axe.annotation.aop.Aspect;
+import org.axe.annotation.base.DependsOn;
 import org.axe.helper.ioc.BeanHelper;
 import org.axe.helper.ioc.ClassHelper;
 import org.axe.interface_.base.Helper;
@@ -43,6 +45,7 @@ import org.axe.util.ReflectionUtil;
  * 方法拦截助手类
  * @author CaiDongyu on 2016/4/14.
  */
+@DependsOn({ClassHelper.class,BeanHelper.class})
 public final class AopHelper implements Helper{
     @Override
     public void init() throws Exception{
@@ -52,9 +55,11 @@ public final class AopHelper implements Helper{
             for (Map.Entry<Class<?>,List<Proxy>> targetEntry:targetMap.entrySet()){
                 Class<?> targetClass = targetEntry.getKey();
                 List<Proxy> proxyList = targetEntry.getValue();
-                //真正的创建目标类的代理对象
+                //真正的创建目标类的代理对象，切点按方法解析，一个方法都没切到的类不代理
                 Object proxy = ProxyManger.createProxy(targetClass,proxyList);
-                BeanHelper.setBean(targetClass,proxy);
+                if(proxy != null){
+                	BeanHelper.setBean(targetClass,proxy);
+                }
             }
 		}
     }
@@ -73,8 +78,8 @@ public final class AopHelper implements Helper{
             //继承了 AspectProxy 不算，还得是有指定了切面目标类
             if(proxyClass.isAnnotationPresent(Aspect.class)){
                 Aspect aspect = proxyClass.getAnnotation(Aspect.class);
-                //TODO:目前AOP实现，还只是针对有目标注解的类做切面，不能细化到方法，这样一旦拦截，会拦截所有方法
-                //比如事务切面，实际上是切了整个Server类所有方法，但是在切面加强的时候会判断，判断这个方法开不开事务。
+                //目标注解可以在类上，也可以在方法上，具体切哪些方法在ProxyManger创建代理时按方法解析
+                //比如事务切面，切的是Service类，但只有@Tns的方法才进代理链
                 Set<Class<?>> targetClassSet = createTargetClassSet(aspect);
                 proxyMap.put(proxyClass,targetClassSet);
             }
@@ -92,12 +97,27 @@ public final class AopHelper implements Helper{
                 if(!annotation.equals(Aspect.class)){
                     //取出含有目标注解的类，作为目标类
                     targetClassSet.addAll(ClassHelper.getClassSetByAnnotation(annotation));
+                    //只在方法上有目标注解的Bean，也作为目标类
+                    for(Class<?> beanClass:BeanHelper.getBeanMap().keySet()){
+                    	if(!targetClassSet.contains(beanClass) && hasAnnotatedMethod(beanClass, annotation)){
+                    		targetClassSet.add(beanClass);
+                    	}
+                    }
                 }
             }
         }
         return targetClassSet;
     }
 
+    private static boolean hasAnnotatedMethod(Class<?> cls, Class<? extends Annotation> annotation){
+    	for(Method method:cls.getMethods()){
+    		if(method.isAnnotationPresent(annotation)){
+    			return true;
+    		}
+    	}
+    	return false;
+    }
+
     /**
      * 将proxy -> targetClassSet 映射关系逆转
      * 变成 targetClass -> proxyList 关系
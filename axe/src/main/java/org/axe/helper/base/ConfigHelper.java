@@ -27,16 +27,24 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
 
+import org.axe.annotation.base.DependsOn;
 import org.axe.constant.ConfigConstant;
 import org.axe.interface_.base.Helper;
 import org.axe.interface_.mvc.AfterConfigLoaded;
+import org.axe.util.ClassUtil;
+import org.axe.util.JsonUtil;
 import org.axe.util.PropsUtil;
+import org.axe.util.ReflectionUtil;
+import org.axe.util.StringUtil;
+
+import com.fasterxml.jackson.databind.Module;
 
 /**
  * 配置文件助手类
  * <p>
  * @author CaiDongyu on 2016/4/8.
  */
+@DependsOn
 public final class ConfigHelper implements Helper{
 
     private static Properties CONFIG_PROPS;
@@ -58,6 +66,17 @@ public final class ConfigHelper implements Helper{
     		CONFIG_PROPS = PropsUtil.loadProps(ConfigConstant.CONFIG_FILE);
     	}
     	
+    	//注册配置的Jackson Module
+    	String jsonModules = getAxeJsonModules();
+    	if(StringUtil.isNotEmpty(jsonModules)){
+    		for(String moduleClassName:jsonModules.split(",")){
+    			moduleClassName = moduleClassName.trim();
+    			if(StringUtil.isEmpty(moduleClassName)) continue;
+    			Module module = ReflectionUtil.newInstance(ClassUtil.loadClass(moduleClassName, true));
+    			JsonUtil.registerModule(module);
+    		}
+    	}
+    	
     	//加载完配置后，执行
     	for(AfterConfigLoaded acl:AFTER_CONFIG_LOADED_LIST){
     		acl.doSomething(CONFIG_PROPS);
@@ -124,6 +143,20 @@ public final class ConfigHelper implements Helper{
     	return PropsUtil.getString(CONFIG_PROPS, ConfigConstant.AXE_EMAIL_ERROR_ADDRESSEE);
     }
     
+    /**
+     * 启动时并行初始化Helper的线程数，默认cpu核数，1表示按顺序初始化
+     */
+    public static int getAxeStartupThreads(){
+    	return PropsUtil.getInt(CONFIG_PROPS, ConfigConstant.AXE_STARTUP_THREADS, Runtime.getRuntime().availableProcessors());
+    }
+    
+    /**
+     * 需要注册到JsonUtil的Jackson Module类名，多个用“,”逗号分隔
+     */
+    public static String getAxeJsonModules(){
+    	return PropsUtil.getString(CONFIG_PROPS, ConfigConstant.AXE_JSON_MODULES, null);
+    }
+    
     /**
      * 获取 JDBC 驱动
      */
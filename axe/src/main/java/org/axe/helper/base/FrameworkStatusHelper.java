@@ -25,12 +25,14 @@ package org.axe.helper.base;
 
 import java.util.Date;
 
+import org.axe.annotation.base.DependsOn;
 import org.axe.interface_.base.Helper;
 
 /**
  * 框架自身状态 助手类
  * @author CaiDongyu on 2016年5月20日 上午8:43:39.
  */
+@DependsOn
 public final class FrameworkStatusHelper implements Helper{
 	
 	/**
@@ -26,6 +26,7 @@ package org.axe.helper.base;
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
 
+import org.axe.annotation.base.DependsOn;
 import org.axe.interface_.base.Helper;
 import org.axe.util.IpUtil;
 import org.axe.util.LogUtil;
@@ -39,6 +40,7 @@ import org.axe.util.mail.SimpleMailSender;
  * 2.密码找回邮件
  * @author CaiDongyu on 2016年6月2日 上午11:11:40.
  */
+@DependsOn(ConfigHelper.class)
 public final class MailHelper implements Helper{
 
 	private static MailSenderInfo MAILINFO;
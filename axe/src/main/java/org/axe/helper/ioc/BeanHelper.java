@@ -24,11 +24,12 @@
 package org.axe.helper.ioc;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.axe.annotation.base.DependsOn;
 import org.axe.interface_.base.Helper;
 import org.axe.interface_.mvc.AfterBeanInited;
 import org.axe.util.ReflectionUtil;
@@ -41,9 +42,11 @@ import org.axe.util.ReflectionUtil;
  * BeanHelper 只是实例化，但是没有注入依赖，依赖注入靠IocHelper
  * @author CaiDongyu on 2016/4/9.
  */
+@DependsOn(ClassHelper.class)
 public final class BeanHelper implements Helper{
     /**
      * 定义 Bean 映射（用于存放 Bean 类与 Bean 实例的映射
+     * Helper 并行初始化时 Listener、TimerTask 会同时写入，用户的 Filter 等也可能同时读取
      */
     private static Map<Class<?>,Object> BEAN_MAP;
 
@@ -58,7 +61,7 @@ public final class BeanHelper implements Helper{
     @Override
     public void init() throws Exception{
     	synchronized (this) {
-    		BEAN_MAP = new HashMap<>();
+    		BEAN_MAP = new ConcurrentHashMap<>();
         	Set<Class<?>> beanClassSet = ClassHelper.getBeanClassSet();
             for(Class<?> beanClass:beanClassSet){
                 Object obj = ReflectionUtil.newInstance(beanClass);
@@ -29,6 +29,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import org.axe.annotation.base.DependsOn;
 import org.axe.annotation.ioc.Component;
 import org.axe.annotation.ioc.Controller;
 import org.axe.annotation.ioc.Service;
@@ -45,10 +46,12 @@ import org.axe.util.StringUtil;
  * 只能完成加载，但是不能完成所有类的实例化
  * @author CaiDongyu on 2016/4/8.
  */
+@DependsOn(ConfigHelper.class)
 public final class ClassHelper implements Helper{
 
     /**
      * 存放所有加载的类
+     * 只有可能被按注解、父类、接口查到的类，没有注解、没有父类也没有接口的类不在里面，见ClassUtil.getCandidateClassSet
      * TODO:CLASS_SET占用的空间其实在框架初始化之后，就没用了。
      */
     private static Set<Class<?>> CLASS_SET;
@@ -75,11 +78,11 @@ public final class ClassHelper implements Helper{
             		if(basePackage.startsWith(axePackage)){
             			throw new Exception(ConfigConstant.APP_BASE_PACKAGE+":"+"不可以使用"+axePackage+"开头,"+axePackage+"被框架保留!");
             		}
-            		CLASS_SET.addAll(ClassUtil.getClassSet(basePackage));
+            		CLASS_SET.addAll(ClassUtil.getCandidateClassSet(basePackage));
             	}
             }
             //增加axe框架包路径
-            CLASS_SET.addAll(ClassUtil.getClassSet(axePackage));
+            CLASS_SET.addAll(ClassUtil.getCandidateClassSet(axePackage));
     	}
     	
     	//加载完配置后，执行
@@ -91,6 +94,8 @@ public final class ClassHelper implements Helper{
     /**
      * 获取所有加载的类
      * 这是个极其消耗资源的操作，个人认为
+     * 注意：没有注解、没有父类（Object除外）也没有接口的类不会加载，不在这个集合里，AfterClassLoaded拿到的也是这个集合
+     * 需要包下全部类的，用ClassUtil.getClassSet(packageName)
      */
     public static Set<Class<?>> getClassSet() {
         return CLASS_SET;
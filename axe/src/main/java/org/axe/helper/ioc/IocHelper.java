@@ -27,7 +27,11 @@ import java.lang.reflect.Field;
 import java.util.List;
 import java.util.Map;
 
+import org.axe.annotation.base.DependsOn;
 import org.axe.annotation.ioc.Autowired;
+import org.axe.extra.timer.TimerTaskHelper;
+import org.axe.helper.aop.AopHelper;
+import org.axe.helper.mvc.ListenerHelper;
 import org.axe.interface_.base.Helper;
 import org.axe.util.CollectionUtil;
 import org.axe.util.ReflectionUtil;
@@ -36,6 +40,7 @@ import org.axe.util.ReflectionUtil;
  * 依赖注入 助手类
  * @author CaiDongyu on 2016/4/9.
  */
+@DependsOn({BeanHelper.class,AopHelper.class,ListenerHelper.class,TimerTaskHelper.class})
 public final class IocHelper implements Helper{
 	
 	@Override
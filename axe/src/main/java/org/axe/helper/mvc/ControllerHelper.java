@@ -34,12 +34,17 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.axe.annotation.base.DependsOn;
 import org.axe.annotation.ioc.Controller;
 import org.axe.annotation.mvc.FilterFuckOff;
 import org.axe.annotation.mvc.Request;
 import org.axe.annotation.mvc.UnFuckOff;
+import org.axe.bean.mvc.ActionRouter;
 import org.axe.bean.mvc.Handler;
+import org.axe.bean.mvc.RouteMatch;
+import org.axe.helper.aop.AopHelper;
 import org.axe.helper.base.ConfigHelper;
+import org.axe.helper.ioc.BeanHelper;
 import org.axe.helper.ioc.ClassHelper;
 import org.axe.interface_.base.Helper;
 import org.axe.interface_.mvc.Filter;
@@ -54,6 +59,7 @@ import org.axe.util.RequestUtil;
  * 组合请求与处理的映射关系
  * @author CaiDongyu on 2016/4/11.
  */
+@DependsOn({ConfigHelper.class,ClassHelper.class,BeanHelper.class,AopHelper.class,FilterHelper.class,InterceptorHelper.class})
 public final class ControllerHelper implements Helper{
 
 	/**
@@ -67,6 +73,10 @@ public final class ControllerHelper implements Helper{
      * Action Map是Action List整理之后的树关系
      */
 	private static Map<String, Object> ACTION_MAP;
+	/**
+	 * 由ACTION_LIST编译出的路由树，请求时用它查找Handler
+	 */
+	private static ActionRouter ACTION_ROUTER;
 
 	@Override
 	public void init() throws Exception{
@@ -128,6 +138,8 @@ public final class ControllerHelper implements Helper{
 	        for(Handler action:ACTION_LIST){
 	        	action.setActionIndex(actionIndex++);
 	        }
+	        
+	        ACTION_ROUTER = new ActionRouter(ACTION_LIST);
 		}
 	}
 
@@ -329,80 +341,15 @@ public final class ControllerHelper implements Helper{
      * 获取 Handler
      */
     public static Handler getHandler(String requestMethod, String requestPath) {
-    	requestMethod = requestMethod.toUpperCase();
-    	
-    	requestPath = RequestUtil.formatUrl(requestPath);
-    	
-    	String[] nodeNames = requestPath.split("/");
-        String nodeName = "";
-        String[] subNodeNameLineAry = {};
-        if(nodeNames.length > 0){
-        	nodeName = nodeNames[0];
-        	subNodeNameLineAry = new String[nodeNames.length-1];
-        	for(int i=0;i<subNodeNameLineAry.length;i++){
-        		subNodeNameLineAry[i] = nodeNames[i+1];
-        	}
-        }
-        
-    	return findNodeFromActionMap(nodeName, ACTION_MAP, subNodeNameLineAry, requestMethod);
-    }
-    
-    @SuppressWarnings("unchecked")
-	private static Handler findNodeFromActionMap(String nodeName,Map<String,Object> node,String[] subNodeNameLineAry,String requestMethod){
-    	if(subNodeNameLineAry.length > 0){
-    		//TODO:这里将压力放在了每次的请求解析，但愿节点下的分支不多，还不至于影响性能
-    		nodeName = findNodeName(nodeName, node);
-    		Object nodeValue = null;
-    		if(nodeName != null){//此处必能用StringUtil.isEmpty，因为""空串是根节点
-    			nodeValue = node.get(nodeName);
-    			String nodeName_next = subNodeNameLineAry[0];
-            	String[] subNodeNameLineAry_next = new String[subNodeNameLineAry.length-1];
-            	for(int i=0;i<subNodeNameLineAry_next.length;i++){
-            		subNodeNameLineAry_next[i] = subNodeNameLineAry[i+1];
-            	}
-            	return findNodeFromActionMap(nodeName_next, (Map<String,Object>)nodeValue, subNodeNameLineAry_next, requestMethod);
-    		}else{
-    			//没找到叶子节点就已经找不到了
-    			return null;
-    		}
-    	}else{
-    		nodeName = requestMethod+":"+nodeName;
-    		nodeName = findNodeName(nodeName, node);
-    		if(nodeName != null){
-    			return (Handler)node.get(nodeName);
-    		}else{
-    			return null;
-    		}
-    	}
+    	RouteMatch routeMatch = route(requestMethod, requestPath);
+    	return routeMatch == null ? null : routeMatch.getHandler();
     }
     
-    
-    private static String findNodeName(String nodeName,Map<String,Object> node){
-    	boolean findNode = false;
-		List<String> pathParamNodeNameList = new ArrayList<>();
-    	for(String subNodeName:node.keySet()){
-    		if(!RequestUtil.containsPathParam(subNodeName)){
-    			if(subNodeName.equals(nodeName)){
-    				findNode = true;
-    				break;
-    			}
-    		}else{
-    			//拥有pathParam的节点，放在固定字符串之后比对
-    			pathParamNodeNameList.add(subNodeName);
-    		}
-    	}
-    	if(!findNode){
-    		//如果固定字符串的subNode里没有找到节点，就匹配路径参数
-    		for(String pathParamNodeName:pathParamNodeNameList){
-    			if(RequestUtil.compareNodeNameAndPathParamNodeName(nodeName, pathParamNodeName)){
-    				findNode = true;
-    				nodeName = pathParamNodeName;
-    				break;
-    			}
-    		}
-    	}
-    	
-    	return findNode?nodeName:null;
+    /**
+     * 路由，同时取出路径参数
+     */
+    public static RouteMatch route(String requestMethod, String requestPath) {
+    	return ACTION_ROUTER.route(requestMethod, requestPath);
     }
     
     public static Map<String, Object> getActionMap() {
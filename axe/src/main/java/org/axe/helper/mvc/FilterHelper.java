@@ -31,8 +31,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.axe.annotation.base.DependsOn;
 import org.axe.bean.mvc.Handler;
+import org.axe.helper.aop.AopHelper;
+import org.axe.helper.ioc.BeanHelper;
 import org.axe.helper.ioc.ClassHelper;
+import org.axe.helper.persistence.DataBaseHelper;
+import org.axe.helper.persistence.TableHelper;
 import org.axe.interface_.base.Helper;
 import org.axe.interface_.mvc.Filter;
 import org.axe.util.CollectionUtil;
@@ -43,6 +48,7 @@ import org.axe.util.ReflectionUtil;
  * 之所以和BeanHelper分开，因为BeanHelper托管了Controller和Service Filter不应该放一起 Created by
  * CaiDongYu on 2016/4/9.
  */
+@DependsOn({ClassHelper.class,BeanHelper.class,AopHelper.class,DataBaseHelper.class,TableHelper.class})
 public final class FilterHelper implements Helper {
 	private static final List<Filter> FILTER_LIST = new ArrayList<>();// 保证顺序
 	
@@ -81,7 +81,7 @@ public final class FormRequestHelper {
     /**
      * 创建请求对象
      */
-    public static void initParam(Param param,HttpServletRequest request,String requestPath,String mappingPath)throws Exception{
+    public static void initParam(Param param,HttpServletRequest request)throws Exception{
         List<FormParam> formParamList = new ArrayList<>();
         List<FileParam> fileParamList = new ArrayList<>();
         try {
@@ -111,7 +111,7 @@ public final class FormRequestHelper {
             }
             
             //解析url请求参数
-            formParamList.addAll(RequestUtil.parseParameter(request,requestPath,mappingPath));
+            formParamList.addAll(RequestUtil.parseParameter(request,param));
         }catch (Exception e){
             LogUtil.error(e);
             throw e;
@@ -28,8 +28,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.axe.annotation.base.DependsOn;
 import org.axe.bean.mvc.Handler;
+import org.axe.helper.aop.AopHelper;
+import org.axe.helper.ioc.BeanHelper;
 import org.axe.helper.ioc.ClassHelper;
+import org.axe.helper.persistence.DataBaseHelper;
+import org.axe.helper.persistence.TableHelper;
 import org.axe.interface_.base.Helper;
 import org.axe.interface_.mvc.Interceptor;
 import org.axe.util.CollectionUtil;
@@ -39,6 +44,7 @@ import org.axe.util.ReflectionUtil;
  * 拦截器 助手类
  * @author CaiDongyu on 2016年5月30日 下午12:21:51.
  */
+@DependsOn({ClassHelper.class,BeanHelper.class,AopHelper.class,DataBaseHelper.class,TableHelper.class})
 public final class InterceptorHelper implements Helper{
 
 	private static Map<Class<? extends Interceptor>,Interceptor> INTERCEPTOR_MAP;//不保证顺序
@@ -27,8 +27,12 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 
+import org.axe.annotation.base.DependsOn;
+import org.axe.helper.aop.AopHelper;
 import org.axe.helper.ioc.BeanHelper;
 import org.axe.helper.ioc.ClassHelper;
+import org.axe.helper.ioc.IocHelper;
+import org.axe.helper.persistence.SchemaHelper;
 import org.axe.interface_.base.Helper;
 import org.axe.interface_.mvc.Listener;
 import org.axe.util.CollectionUtil;
@@ -38,6 +42,7 @@ import org.axe.util.ReflectionUtil;
  * Listener 启动助手类
  * @author CaiDongyu on 2016年6月7日 下午1:35:37.
  */
+@DependsOn(value={ClassHelper.class,AopHelper.class}, startUp={SchemaHelper.class,IocHelper.class})
 public final class ListenerHelper implements Helper{
 	
 	private static List<Listener> LISTENER_LIST;
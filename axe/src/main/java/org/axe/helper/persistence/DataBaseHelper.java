@@ -23,29 +23,39 @@
  */
 package org.axe.helper.persistence;
 
-import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
-import org.axe.bean.persistence.EntityFieldMethod;
+import org.axe.annotation.base.DependsOn;
+import org.axe.bean.persistence.EntityRowMapper;
 import org.axe.bean.persistence.InsertResult;
+import org.axe.bean.persistence.ResultIterator;
 import org.axe.bean.persistence.SqlExecutor;
 import org.axe.bean.persistence.SqlPackage;
+import org.axe.bean.persistence.TransactionContext;
+import org.axe.bean.persistence.TransactionContext.Frame;
+import org.axe.bean.persistence.TransactionContext.Transaction;
 import org.axe.bean.persistence.TableSchema.ColumnSchema;
+import org.axe.constant.ConfigConstant;
+import org.axe.constant.Propagation;
+import org.axe.helper.base.ConfigHelper;
 import org.axe.interface_.base.Helper;
 import org.axe.interface_.persistence.BaseDataSource;
+import org.axe.interface_.persistence.ReadWriteDataSource;
+import org.axe.interface_.persistence.RowMapper;
 import org.axe.util.CastUtil;
+import org.axe.util.PropsUtil;
 import org.axe.util.ReflectionUtil;
 import org.axe.util.StringUtil;
 import org.axe.util.sql.CommonSqlUtil;
@@ -59,16 +69,28 @@ import org.axe.util.sql.OracleUtil;
  * TODO(OK):增加外部数据源可配置，连接池
  * TODO(OK):自动返回新增主键
  */
+@DependsOn(DataSourceHelper.class)
 public final class DataBaseHelper implements Helper{
 //    private static final Logger LOGGER = LoggerFactory.getLogger(DataBaseHelper.class);
     
     private static ThreadLocal<HashMap<String,Connection>> CONNECTION_HOLDER;
+    /**
+     * 线程的事务上下文，每个@Tns方法一层
+     * 开启事务时不取连接，哪个数据源第一次用到，才把哪个数据源的连接加入事务
+     */
+    private static ThreadLocal<TransactionContext> TRANSACTION_HOLDER;
+    
+    /**
+     * 非MySql数据库游标查询时，每次从数据库取的行数
+     */
+    private static final int STREAM_FETCH_SIZE = 1000;
     
     @Override
     public void init() throws Exception{
     	synchronized (this) {
     		//#数据库连接池
             CONNECTION_HOLDER = new ThreadLocal<>();
+            TRANSACTION_HOLDER = new ThreadLocal<>();
             //#SQL程咬金
             /*Set<Class<?>> sqlCyjClassSet = ClassHelper.getClassSetBySuper(SqlCyj.class);
             if(CollectionUtil.isNotEmpty(sqlCyjClassSet)){
@@ -88,15 +110,51 @@ public final class DataBaseHelper implements Helper{
      * @throws SQLException 
      */
     public static Connection getConnection(String dataSourceName) throws SQLException {
+    	Transaction transaction = getCurrentTransaction();
+    	if(transaction != null){
+    		BaseDataSource dataSource = DataSourceHelper.getDataSourceAll().get(dataSourceName);
+    		if(dataSource != null && dataSource.tns()){
+    			Connection connection = transaction.getConnection(dataSourceName);
+    			if(connection == null){
+    				//事务中第一次用到这个数据源，加入事务
+    				connection = enlistConnection(transaction, dataSourceName, dataSource);
+    			}
+    			return connection;
+    		}
+    	}
+        return getHolderConnection(dataSourceName, false);
+    }
+    
+    /**
+     * 获取查询用的连接
+     * 读写分离的数据源，不在事务中时走从库，只读事务加入事务时也取从库连接，写事务中走主库
+     * @throws SQLException 
+     */
+    public static Connection getReadConnection(String dataSourceName) throws SQLException {
+    	if(getCurrentTransaction() == null){
+    		return getHolderConnection(dataSourceName, true);
+    	}
+    	return getConnection(dataSourceName);
+    }
+    
+    /**
+     * 不在事务中的连接，放在线程里，用完即还
+     */
+    private static Connection getHolderConnection(String dataSourceName, boolean read) throws SQLException {
         HashMap<String,Connection> connMap = CONNECTION_HOLDER.get();
 		//LogUtil.log("test>获取链接");
         if (connMap == null || !connMap.containsKey(dataSourceName)) {
         	//如果此次操作连接不存在，则需要获取连接
-        	//如果前面打开事物了，则这里会存在连接，不会再进来
             try {
             	Map<String, BaseDataSource> dsMap = DataSourceHelper.getDataSourceAll();
         		if(dsMap.containsKey(dataSourceName)){
-        			Connection connection = dsMap.get(dataSourceName).getConnection();
+        			BaseDataSource dataSource = dsMap.get(dataSourceName);
+        			Connection connection = null;
+        			if(read && dataSource instanceof ReadWriteDataSource){
+        				connection = ((ReadWriteDataSource)dataSource).getReadConnection();
+        			}else{
+        				connection = dataSource.getConnection();
+        			}
         			if(connMap == null){
         				connMap = new HashMap<>();
         				CONNECTION_HOLDER.set(connMap);
@@ -141,9 +199,14 @@ public final class DataBaseHelper implements Helper{
 			throw e;
 		}  finally {
 			if(connMap != null){
+				//关闭了的连接不能留在线程里，否则下次会取到已经还回池里的连接
+				Connection con = connMap.get(dataSourceName);
+				if(con != null && con.isClosed()){
+					connMap.remove(dataSourceName);
+				}
 				boolean isAllConClosed = true;
-				for(Connection con:connMap.values()){
-					if(!con.isClosed()){
+				for(Connection one:connMap.values()){
+					if(!one.isClosed()){
 						isAllConClosed = false;
 						break;
 					}
@@ -161,20 +224,7 @@ public final class DataBaseHelper implements Helper{
      * sql前去数据库路上的终点站，出了这个方法，就是奈何桥了。
      */
     private static SqlExecutor getPrepareStatement(String dataSourceName,Connection conn, String sql, Object[] params, Class<?>[] paramTypes,boolean RETURN_GENERATED_KEYS) throws SQLException{
-		// #空格格式化，去掉首位空格，规范中间的空格{
-//		sql = sql.trim();
-		while (sql.contains("  ")) {
-			sql = sql.replaceAll("  ", " ");
-		}
-		sql = sql.trim();
-		// }
-    	
-    	SqlPackage sp = null;
-    	if(DataSourceHelper.isMySql(dataSourceName)){
-    		sp = MySqlUtil.convertGetFlag(sql, params, paramTypes);
-    	}else if(DataSourceHelper.isOracle(dataSourceName)){
-    		sp = OracleUtil.convertGetFlag(sql, params, paramTypes);
-    	}
+    	SqlPackage sp = getSqlPackage(dataSourceName, sql, params, paramTypes);
     	
     	PreparedStatement ps = null;
     	if(RETURN_GENERATED_KEYS){
@@ -182,11 +232,46 @@ public final class DataBaseHelper implements Helper{
     	}else{
     		ps = conn.prepareStatement(sp.getSql());
     	}
+    	applyTransactionTimeout(ps);
     	for(int parameterIndex=1;parameterIndex<=sp.getParams().length;parameterIndex++){
     		ps.setObject(parameterIndex, sp.getParams()[parameterIndex-1]);
     	}
     	return new SqlExecutor(dataSourceName,sp,ps);
     }
+    /**
+     * 游标查询用的PreparedStatement，只向前读、只读，结果集边读边取
+     * MySql需要fetchSize为Integer.MIN_VALUE才会流式返回，其他数据库按批取
+     */
+    private static SqlExecutor getStreamPrepareStatement(String dataSourceName,Connection conn, String sql, Object[] params, Class<?>[] paramTypes) throws SQLException{
+    	SqlPackage sp = getSqlPackage(dataSourceName, sql, params, paramTypes);
+    	PreparedStatement ps = conn.prepareStatement(sp.getSql(), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+    	if(DataSourceHelper.isMySql(dataSourceName)){
+    		ps.setFetchSize(Integer.MIN_VALUE);
+    	}else{
+    		ps.setFetchSize(STREAM_FETCH_SIZE);
+    	}
+    	applyTransactionTimeout(ps);
+    	for(int parameterIndex=1;parameterIndex<=sp.getParams().length;parameterIndex++){
+    		ps.setObject(parameterIndex, sp.getParams()[parameterIndex-1]);
+    	}
+    	return new SqlExecutor(dataSourceName,sp,ps);
+    }
+    
+    private static SqlPackage getSqlPackage(String dataSourceName, String sql, Object[] params, Class<?>[] paramTypes){
+		// #空格格式化，去掉首位空格，规范中间的空格{
+//		sql = sql.trim();
+		sql = StringUtil.collapseSpace(sql);
+		// }
+    	
+    	SqlPackage sp = null;
+    	if(DataSourceHelper.isMySql(dataSourceName)){
+    		sp = MySqlUtil.convertGetFlag(sql, params, paramTypes);
+    	}else if(DataSourceHelper.isOracle(dataSourceName)){
+    		sp = OracleUtil.convertGetFlag(sql, params, paramTypes);
+    	}
+    	return sp;
+    }
+    
     private static SqlExecutor[] getPrepareStatement(String dataSourceName,Connection conn, String[] sqlAry, Object[] params, Class<?>[] paramTypes,boolean RETURN_GENERATED_KEYS) throws SQLException{
     	SqlExecutor[] sqlExecutorAry = new SqlExecutor[sqlAry.length];
     	for(int i=0;i<sqlAry.length;i++){
@@ -208,46 +293,13 @@ public final class DataBaseHelper implements Helper{
      */
 	public static <T> List<T> queryEntityList(final Class<T> entityClass, String sql, Object[] params, Class<?>[] paramTypes, String dataSourceName) throws SQLException {
         List<T> entityList = new ArrayList<>();
-        Connection conn = getConnection(dataSourceName);
+        Connection conn = getReadConnection(dataSourceName);
         try {
         	SqlExecutor se = getPrepareStatement(dataSourceName, conn, sql, params, paramTypes, false);
         	ResultSet table = se.readyExecuteStatement().executeQuery();
-        	List<EntityFieldMethod> entityFieldMethodList = ReflectionUtil.getSetMethodList(entityClass);
-			Set<String> transientField = new HashSet<>();
+        	RowMapper<T> rowMapper = getEntityRowMapper(entityClass);
         	while(table.next()){
-				T entity = ReflectionUtil.newInstance(entityClass);
-				for(EntityFieldMethod entityFieldMethod:entityFieldMethodList){
-					Field field = entityFieldMethod.getField();
-					String fieldName = field.getName();
-					if(transientField.contains(fieldName)){
-						continue;
-					}
-					Method method = entityFieldMethod.getMethod();
-					String columnName = StringUtil.camelToUnderline(fieldName);
-					try {
-						Object setMethodArg = CastUtil.castType(table.getObject(columnName),field.getType());
-						ReflectionUtil.invokeMethod(entity, method, setMethodArg);
-					} catch (SQLException e) {
-						if(e.getMessage().contains("Column '"+columnName+"' not found")){
-							//字段不存在情况再次尝试 原驼峰字段名，能否取到值
-							try {
-								Object setMethodArg = CastUtil.castType(table.getObject(fieldName),field.getType());
-								ReflectionUtil.invokeMethod(entity, method, setMethodArg);
-							} catch (SQLException e1) {
-								if(e1.getMessage().contains("Column '"+fieldName+"' not found")){
-									//字段不存在情况可以不处理
-								}else{
-									//其他异常抛出
-									throw e1;
-								}
-							}
-						}else{
-							//其他异常抛出
-							throw e;
-						}
-					}
-				}
-				entityList.add(entity);
+				entityList.add(rowMapper.mapRow(table));
 			}
 			table.close();
 			se.close();
@@ -273,41 +325,12 @@ public final class DataBaseHelper implements Helper{
      */
     public static <T> T queryEntity(final Class<T> entityClass, String sql, Object[] params, Class<?>[] paramTypes, String dataSourceName) throws SQLException {
         T entity = null;
-        Connection conn = getConnection(dataSourceName);
+        Connection conn = getReadConnection(dataSourceName);
         try {
         	SqlExecutor se =  getPrepareStatement(dataSourceName,conn, sql, params, paramTypes, false);
         	ResultSet table = se.readyExecuteStatement().executeQuery();
         	if(table.next()){
-    			List<EntityFieldMethod> entityFieldMethodList = ReflectionUtil.getSetMethodList(entityClass);
-    			entity = ReflectionUtil.newInstance(entityClass);
-    			for(EntityFieldMethod entityFieldMethod:entityFieldMethodList){
-					Field field = entityFieldMethod.getField();
-					String fieldName = field.getName();
-					Method method = entityFieldMethod.getMethod();
-					String columnName = StringUtil.camelToUnderline(fieldName);
-					try {
-						Object setMethodArg = CastUtil.castType(table.getObject(columnName),field.getType());
-						ReflectionUtil.invokeMethod(entity, method, setMethodArg);
-					} catch (SQLException e) {
-						if(e.getMessage().contains("Column '"+columnName+"' not found")){
-							//字段不存在情况再次尝试 原驼峰字段名，能否取到值
-							try {
-								Object setMethodArg = CastUtil.castType(table.getObject(fieldName),field.getType());
-								ReflectionUtil.invokeMethod(entity, method, setMethodArg);
-							} catch (SQLException e1) {
-								if(e1.getMessage().contains("Column '"+fieldName+"' not found")){
-									//字段不存在情况可以不处理
-								}else{
-									//其他异常抛出
-									throw e1;
-								}
-							}
-						}else{
-							//其他异常抛出
-							throw e;
-						}
-					}
-				}
+        		entity = getEntityRowMapper(entityClass).mapRow(table);
 			}
 			table.close();
 			se.close();
@@ -322,6 +345,103 @@ public final class DataBaseHelper implements Helper{
         return entity;
     }
 
+    /**
+     * 实体的行映射
+     * 第一行时按结果集的列取出编译好的EntityRowMapper，之后每行直接用
+     */
+    public static <T> RowMapper<T> getEntityRowMapper(final Class<T> entityClass){
+    	return new RowMapper<T>() {
+    		private EntityRowMapper<T> entityRowMapper;
+			@Override
+			public T mapRow(ResultSet table) throws SQLException {
+				if(entityRowMapper == null){
+					entityRowMapper = EntityRowMapper.getInstance(entityClass, table.getMetaData());
+				}
+				return entityRowMapper.mapRow(table);
+			}
+		};
+    }
+    
+    /**
+     * Map的行映射，key是列的label
+     */
+    public static RowMapper<Map<String, Object>> getMapRowMapper(){
+    	return new RowMapper<Map<String,Object>>() {
+			@Override
+			public Map<String, Object> mapRow(ResultSet table) throws SQLException {
+				ResultSetMetaData rsmd = table.getMetaData();
+				Map<String, Object> row = new HashMap<>();
+				for (int i = 1; i <= rsmd.getColumnCount(); i++) {
+					row.put(rsmd.getColumnLabel(i), table.getObject(i));
+	        	}
+				return row;
+			}
+		};
+    }
+    
+    /**
+     * 只取第一列的行映射，基本类型、String、Date这种结果用
+     */
+    public static <T> RowMapper<T> getFirstColumnRowMapper(final Class<T> type){
+    	return new RowMapper<T>() {
+    		@SuppressWarnings("unchecked")
+			@Override
+			public T mapRow(ResultSet table) throws SQLException {
+				return (T)CastUtil.castType(table.getObject(1), type);
+			}
+		};
+    }
+    
+    /**
+     * 游标查询，结果一行一行从数据库读出来，不整个放进内存
+     * 不在事务里时，单独从数据源取一个连接，ResultIterator读完或close()时释放
+     * 在事务里时，用事务的连接，注意MySql的流式结果没读完之前，这个连接不能再执行其他语句
+     * @throws SQLException 
+     */
+    public static <T> ResultIterator<T> queryIterator(String sql, Object[] params, Class<?>[] paramTypes, String dataSourceName, RowMapper<T> rowMapper) throws SQLException {
+    	BaseDataSource dataSource = DataSourceHelper.getDataSourceAll().get(dataSourceName);
+    	if(dataSource == null){
+    		throw new RuntimeException("connot find connection of dataSource:"+dataSourceName);
+    	}
+    	Connection conn = getTransactionConnection(dataSourceName);
+    	Connection ownConn = null;
+    	if(conn == null){
+    		if(dataSource instanceof ReadWriteDataSource){
+    			ownConn = ((ReadWriteDataSource)dataSource).getReadConnection();
+    		}else{
+    			ownConn = dataSource.getConnection();
+    		}
+    		conn = ownConn;
+    	}
+    	SqlExecutor se = null;
+    	try {
+    		se = getStreamPrepareStatement(dataSourceName, conn, sql, params, paramTypes);
+    		ResultSet table = se.readyExecuteStatement().executeQuery();
+    		return new ResultIterator<>(dataSource, ownConn, se, table, rowMapper);
+		} catch (SQLException e) {
+			if(se != null){
+				try {
+					se.close();
+				} catch (SQLException e1) {}
+			}
+			if(ownConn != null){
+				dataSource.closeConnection(ownConn);
+			}
+			throw e;
+		}
+    }
+    
+    /**
+     * 当前线程在事务中的连接，没有返回null
+     */
+    private static Connection getTransactionConnection(String dataSourceName) throws SQLException{
+    	if(getCurrentTransaction() != null && DataSourceHelper.getDataSourceAll().get(dataSourceName).tns()){
+    		//事务中，还没用到这个数据源的话，在这里加入事务
+    		return getConnection(dataSourceName);
+    	}
+    	return null;
+    }
+
     public static List<Map<String, Object>> queryList(String sql, Object[] params, Class<?>[] paramTypes) throws SQLException {
         String dataSourceName = DataSourceHelper.getDefaultDataSourceName();
     	return queryList(sql, params, paramTypes, dataSourceName);
@@ -333,7 +453,7 @@ public final class DataBaseHelper implements Helper{
      */
     public static List<Map<String, Object>> queryList(String sql, Object[] params, Class<?>[] paramTypes, String dataSourceName) throws SQLException {
         List<Map<String, Object>> result = new ArrayList<>();
-        Connection conn = getConnection(dataSourceName);
+        Connection conn = getReadConnection(dataSourceName);
         try {
         	SqlExecutor se =  getPrepareStatement(dataSourceName,conn, sql, params, paramTypes, false);
         	ResultSet table = se.readyExecuteStatement().executeQuery();
@@ -369,7 +489,7 @@ public final class DataBaseHelper implements Helper{
      */
     public static Map<String, Object> queryMap(String sql, Object[] params, Class<?>[] paramTypes, String dataSourceName) throws SQLException {
         Map<String, Object> result = null;
-        Connection conn = getConnection(dataSourceName);
+        Connection conn = getReadConnection(dataSourceName);
         try {
         	SqlExecutor se =  getPrepareStatement(dataSourceName,conn, sql, params, paramTypes, false);
         	ResultSet table = se.readyExecuteStatement().executeQuery();
@@ -405,7 +525,7 @@ public final class DataBaseHelper implements Helper{
 	@SuppressWarnings("unchecked")
 	public static <T> T queryPrimitive(String sql, Object[] params, Class<?>[] paramTypes, String dataSourceName) throws SQLException {
     	T result = null;
-        Connection conn = getConnection(dataSourceName);
+        Connection conn = getReadConnection(dataSourceName);
         try {
         	SqlExecutor se =  getPrepareStatement(dataSourceName,conn, sql, params, paramTypes, false);
         	ResultSet table = se.readyExecuteStatement().executeQuery();
@@ -453,6 +573,30 @@ public final class DataBaseHelper implements Helper{
         return result;
     }
     
+    /**
+     * 估算查询结果的行数，不精确，用于大表分页不想count全表的场景
+     * MySql取EXPLAIN第一行的rows*filtered%，其他数据库还是执行count
+     */
+    public static long estimateCountQuery(String sql, Object[] params, Class<?>[] paramTypes,String dataSourceName) {
+    	if(!DataSourceHelper.isMySql(dataSourceName)){
+    		return countQuery(sql, params, paramTypes, dataSourceName);
+    	}
+    	try {
+    		List<Map<String, Object>> planList = queryList("EXPLAIN " + sql, params, paramTypes, dataSourceName);
+    		if(planList.isEmpty()){
+    			return 0;
+    		}
+    		Map<String, Object> plan = planList.get(0);
+    		double rows = plan.get("rows") == null ? 0 : CastUtil.castDouble(plan.get("rows"));
+    		if(plan.get("filtered") != null){
+    			rows = rows * CastUtil.castDouble(plan.get("filtered")) / 100;
+    		}
+    		return Math.round(rows);
+    	} catch (Exception e) {
+    		throw new RuntimeException(e);
+    	}
+    }
+    
     public static int executeUpdate(String[] sqlAry, Object[] params, Class<?>[] paramTypes) throws SQLException {
         String dataSourceName = DataSourceHelper.getDefaultDataSourceName();
         return executeUpdate(sqlAry, params, paramTypes, dataSourceName);
@@ -569,25 +713,361 @@ public final class DataBaseHelper implements Helper{
     			generatedKey = queryPrimitive(OracleUtil.getGenerateIdSql(entity), new Object[0], new Class<?>[0],dataSourceName);
     		}
     		if(generatedKey != null){
-    			List<ColumnSchema> mappingColumnList = TableHelper.getCachedTableSchema(entity).getMappingColumnList();
-    			for(ColumnSchema columnSchema : mappingColumnList){
-    				if(columnSchema.getPrimary() && columnSchema.getPrimaryKeyAutoIncrement()){
-    					Method method = columnSchema.getColumnSchema().getMethod();
-    					Object idValue = ReflectionUtil.invokeMethod(entity, method);
-    					if(idValue == null){
-    						//如果id字段没有值，就用返回的自增主键赋值
-    						Object setMethodArg = CastUtil.castType(generatedKey,columnSchema.getColumnSchema().getField().getType());
-    						ReflectionUtil.setField(entity, columnSchema.getColumnSchema().getField(), setMethodArg);
-    					}
-    					break;
-    				}
-    			}
+    			setGeneratedKey(entity, generatedKey);
     		}
             return entity;
     	}while(false);
     	return null;
     }
     
+    /**
+     * 自增主键的字段，没有的返回null
+     */
+    private static ColumnSchema getAutoIncrementIdColumn(Object entity){
+    	List<ColumnSchema> mappingColumnList = TableHelper.getCachedTableSchema(entity).getMappingColumnList();
+    	for(ColumnSchema columnSchema : mappingColumnList){
+    		if(columnSchema.getPrimary() && columnSchema.getPrimaryKeyAutoIncrement()){
+    			return columnSchema;
+    		}
+    	}
+    	return null;
+    }
+    
+    /**
+     * 如果id字段没有值，就用返回的自增主键赋值
+     */
+    private static void setGeneratedKey(Object entity, Object generatedKey){
+    	ColumnSchema columnSchema = getAutoIncrementIdColumn(entity);
+    	if(columnSchema != null){
+    		Method method = columnSchema.getColumnSchema().getMethod();
+    		Object idValue = ReflectionUtil.invokeMethod(entity, method);
+    		if(idValue == null){
+    			Object setMethodArg = CastUtil.castType(generatedKey,columnSchema.getColumnSchema().getField().getType());
+    			ReflectionUtil.setField(entity, columnSchema.getColumnSchema().getField(), setMethodArg);
+    		}
+    	}
+    }
+    
+    /**
+     * 批量插入实体
+     * 按sql分组（分片实体按真实表分开），每组一个PreparedStatement，每batch_size条执行一次executeBatch
+     * MySql配置了batch_multi_values=true的，改成一句多行VALUES插入
+     * MySql的自增主键按顺序写回@Id字段，Oracle序列自增且id为空的实体，仍逐条插入以便取回主键
+     * @return 传入的实体列表
+     * @throws SQLException 
+     */
+    public static <T> List<T> insertEntities(List<T> entityList, String dataSourceName) throws SQLException {
+    	if(entityList == null)
+    		throw new RuntimeException("insertEntities failure, insertEntities param is null!");
+    	Map<String, BatchGroup> groupMap = new LinkedHashMap<>();
+    	for(T entity:entityList){
+    		if(entity == null)
+    			throw new RuntimeException("insertEntities failure, entity in list is null!");
+    		SqlPackage sp = null;
+    		if(DataSourceHelper.isMySql(dataSourceName)){
+    			sp = MySqlUtil.getInsertSqlPackage(entity);
+    		}else if(DataSourceHelper.isOracle(dataSourceName)){
+    			ColumnSchema idColumn = getAutoIncrementIdColumn(entity);
+    			if(idColumn != null && ReflectionUtil.invokeMethod(entity, idColumn.getColumnSchema().getMethod()) == null){
+    				insertEntity(entity, dataSourceName);
+    				continue;
+    			}
+    			sp = OracleUtil.getInsertSqlPackage(entity);
+    		}
+    		addToBatchGroup(groupMap, sp, entity);
+    	}
+    	boolean multiValues = DataSourceHelper.isMySql(dataSourceName) && 
+    			PropsUtil.getBoolean(ConfigHelper.getCONFIG_PROPS(), ConfigConstant.JDBC_DATASOURCE + "." + dataSourceName + "." + ConfigConstant.JDBC_BATCH_MULTI_VALUES, false);
+    	for(BatchGroup group:groupMap.values()){
+    		if(multiValues){
+    			executeMultiValuesInsert(group, dataSourceName);
+    		}else{
+    			executeBatch(group, dataSourceName, true);
+    		}
+    	}
+    	return entityList;
+    }
+    
+    /**
+     * 批量更新实体，返回影响的总行数
+     * @throws SQLException 
+     */
+    public static int updateEntities(List<?> entityList, String dataSourceName) throws SQLException {
+    	if(entityList == null)
+    		throw new RuntimeException("updateEntities failure, updateEntities param is null!");
+    	Map<String, BatchGroup> groupMap = new LinkedHashMap<>();
+    	for(Object entity:entityList){
+    		if(entity == null)
+    			throw new RuntimeException("updateEntities failure, entity in list is null!");
+    		addToBatchGroup(groupMap, CommonSqlUtil.getUpdateSqlPackage(entity), entity);
+    	}
+    	return sumRows(executeBatchGroups(groupMap, dataSourceName));
+    }
+    
+    /**
+     * 批量删除实体
+     * @return 每个实体删除的行数，顺序与传入的一致，驱动不返回行数的按1算
+     * @throws SQLException 
+     */
+    public static int[] deleteEntities(List<?> entityList, String dataSourceName) throws SQLException {
+    	if(entityList == null)
+    		throw new RuntimeException("deleteEntities failure, deleteEntities param is null!");
+    	Map<String, BatchGroup> groupMap = new LinkedHashMap<>();
+    	for(Object entity:entityList){
+    		if(entity == null)
+    			throw new RuntimeException("deleteEntities failure, entity in list is null!");
+    		addToBatchGroup(groupMap, CommonSqlUtil.getDeleteSqlPackage(entity), entity);
+    	}
+    	Map<Object, Integer> rowsMap = executeBatchGroups(groupMap, dataSourceName);
+    	int[] rowsAry = new int[entityList.size()];
+    	for(int i=0;i<rowsAry.length;i++){
+    		rowsAry[i] = rowsMap.get(new IdentityKey(entityList.get(i)));
+    	}
+    	return rowsAry;
+    }
+    
+    /**
+     * 批量保存实体，与insertOnDuplicateKeyEntity一样，@Id都有值的先批量update，没有更新到的和没有@Id值的再批量insert
+     * @throws SQLException 
+     */
+    public static <T> List<T> insertOnDuplicateKeyEntities(List<T> entityList, String dataSourceName) throws SQLException {
+    	if(entityList == null)
+    		throw new RuntimeException("insertOnDuplicateKeyEntities failure, insertOnDuplicateKeyEntities param is null!");
+    	List<T> updateList = new ArrayList<>();
+    	List<T> insertList = new ArrayList<>();
+    	for(T entity:entityList){
+    		if(entity == null)
+    			throw new RuntimeException("insertOnDuplicateKeyEntities failure, entity in list is null!");
+    		List<ColumnSchema> mappingColumnList = TableHelper.getCachedTableSchema(entity).getMappingColumnList();
+    		boolean findId = false;
+    		boolean idValueIsOk = true;
+    		for (ColumnSchema columnSchema:mappingColumnList) {
+    			if (columnSchema.getPrimary()) {
+    				findId = true;
+    				if(ReflectionUtil.invokeMethod(entity, columnSchema.getColumnSchema().getMethod()) == null){
+    					idValueIsOk = false;
+    				}
+    			}
+    		}
+    		if(findId && idValueIsOk){
+    			updateList.add(entity);
+    		}else{
+    			insertList.add(entity);
+    		}
+    	}
+    	if(!updateList.isEmpty()){
+    		Map<String, BatchGroup> groupMap = new LinkedHashMap<>();
+    		for(T entity:updateList){
+    			addToBatchGroup(groupMap, CommonSqlUtil.getUpdateSqlPackage(entity), entity);
+    		}
+    		Map<Object, Integer> rowsMap = executeBatchGroups(groupMap, dataSourceName);
+    		for(T entity:updateList){
+    			if(rowsMap.get(new IdentityKey(entity)) == 0){
+    				//没有记录被影响，说明@Id记录不存在，那么就插入
+    				insertList.add(entity);
+    			}
+    		}
+    	}
+    	if(!insertList.isEmpty()){
+    		insertEntities(insertList, dataSourceName);
+    	}
+    	return entityList;
+    }
+    
+    /**
+     * 同一句sql的实体放在一组
+     */
+    private static void addToBatchGroup(Map<String, BatchGroup> groupMap, SqlPackage sp, Object entity){
+    	BatchGroup group = groupMap.get(sp.getSql());
+    	if(group == null){
+    		group = new BatchGroup(sp.getSql());
+    		groupMap.put(sp.getSql(), group);
+    	}
+    	group.entityList.add(entity);
+    	group.paramsList.add(sp.getParams());
+    }
+    
+    /**
+     * 执行各组批量语句，返回 实体-影响行数
+     */
+    private static Map<Object, Integer> executeBatchGroups(Map<String, BatchGroup> groupMap, String dataSourceName) throws SQLException{
+    	Map<Object, Integer> rowsMap = new HashMap<>();
+    	for(BatchGroup group:groupMap.values()){
+    		int[] rowsAry = executeBatch(group, dataSourceName, false);
+    		for(int i=0;i<rowsAry.length;i++){
+    			rowsMap.put(new IdentityKey(group.entityList.get(i)), rowsAry[i]);
+    		}
+    	}
+    	return rowsMap;
+    }
+    
+    private static int sumRows(Map<Object, Integer> rowsMap){
+    	int rows = 0;
+    	for(Integer row:rowsMap.values()){
+    		rows = rows + row;
+    	}
+    	return rows;
+    }
+    
+    /**
+     * 一组实体复用一个PreparedStatement，addBatch，每batch_size条executeBatch一次
+     * @return 每个实体的影响行数，驱动返回SUCCESS_NO_INFO的按1算
+     */
+    private static int[] executeBatch(BatchGroup group, String dataSourceName, boolean returnGeneratedKeys) throws SQLException{
+    	int batchSize = getBatchSize(dataSourceName);
+    	int[] rowsAry = new int[group.entityList.size()];
+    	Connection conn = getConnection(dataSourceName);
+    	try {
+    		PreparedStatement ps = returnGeneratedKeys ? conn.prepareStatement(group.sql, Statement.RETURN_GENERATED_KEYS) : conn.prepareStatement(group.sql);
+    		try {
+    			applyTransactionTimeout(ps);
+    			CommonSqlUtil.debugSql(dataSourceName, new SqlPackage(group.sql, group.paramsList.get(0), null));
+    			int start = 0;
+    			for(int i=0;i<group.paramsList.size();i++){
+    				Object[] params = group.paramsList.get(i);
+    				for(int parameterIndex=1;parameterIndex<=params.length;parameterIndex++){
+    					ps.setObject(parameterIndex, params[parameterIndex-1]);
+    				}
+    				ps.addBatch();
+    				if(i-start+1 >= batchSize || i == group.paramsList.size()-1){
+    					int[] batchRowsAry = ps.executeBatch();
+    					for(int j=0;j<batchRowsAry.length;j++){
+    						rowsAry[start+j] = batchRowsAry[j] == Statement.SUCCESS_NO_INFO ? 1 : batchRowsAry[j];
+    					}
+    					if(returnGeneratedKeys){
+    						setGeneratedKeys(ps, group.entityList.subList(start, i+1));
+    					}
+    					start = i+1;
+    				}
+    			}
+    		} finally {
+    			ps.close();
+    		}
+    	} finally {
+    		if(conn.getAutoCommit()){
+    			closeConnection(dataSourceName);
+    		}
+    	}
+    	return rowsAry;
+    }
+    
+    /**
+     * MySql一句多行VALUES插入，每batch_size行一句
+     */
+    private static void executeMultiValuesInsert(BatchGroup group, String dataSourceName) throws SQLException{
+    	int batchSize = getBatchSize(dataSourceName);
+    	String values = group.sql.substring(group.sql.lastIndexOf(" VALUES ")+" VALUES ".length());
+    	Connection conn = getConnection(dataSourceName);
+    	try {
+    		for(int start=0;start<group.paramsList.size();start=start+batchSize){
+    			int end = Math.min(start+batchSize, group.paramsList.size());
+    			StringBuilder sqlBuffer = new StringBuilder(group.sql.length()+(end-start)*(values.length()+2));
+    			sqlBuffer.append(group.sql);
+    			List<Object> paramList = new ArrayList<>();
+    			for(int i=start;i<end;i++){
+    				if(i > start){
+    					sqlBuffer.append(", ").append(values);
+    				}
+    				for(Object param:group.paramsList.get(i)){
+    					paramList.add(param);
+    				}
+    			}
+    			PreparedStatement ps = conn.prepareStatement(sqlBuffer.toString(), Statement.RETURN_GENERATED_KEYS);
+    			try {
+    				applyTransactionTimeout(ps);
+    				CommonSqlUtil.debugSql(dataSourceName, new SqlPackage(group.sql, group.paramsList.get(start), null));
+    				for(int parameterIndex=1;parameterIndex<=paramList.size();parameterIndex++){
+    					ps.setObject(parameterIndex, paramList.get(parameterIndex-1));
+    				}
+    				ps.executeUpdate();
+    				setGeneratedKeys(ps, group.entityList.subList(start, end));
+    			} finally {
+    				ps.close();
+    			}
+    		}
+    	} finally {
+    		if(conn.getAutoCommit()){
+    			closeConnection(dataSourceName);
+    		}
+    	}
+    }
+    
+    /**
+     * 批量插入后的自增主键写回
+     * 返回的主键与行数一样多的，按行对应，只给id为空的赋值；与id为空的行数一样多的，依次赋给这些行
+     */
+    private static void setGeneratedKeys(PreparedStatement ps, List<Object> entityList) throws SQLException{
+    	if(entityList.isEmpty() || getAutoIncrementIdColumn(entityList.get(0)) == null){
+    		return;
+    	}
+    	List<Object> generatedKeyList = new ArrayList<>();
+    	ResultSet rs = ps.getGeneratedKeys();
+    	try {
+    		while(rs.next()){
+    			generatedKeyList.add(rs.getObject(1));
+    		}
+    	} finally {
+    		rs.close();
+    	}
+    	if(generatedKeyList.size() == entityList.size()){
+    		for(int i=0;i<entityList.size();i++){
+    			setGeneratedKey(entityList.get(i), generatedKeyList.get(i));
+    		}
+    	}else{
+    		ColumnSchema idColumn = getAutoIncrementIdColumn(entityList.get(0));
+    		List<Object> nullIdEntityList = new ArrayList<>();
+    		for(Object entity:entityList){
+    			if(ReflectionUtil.invokeMethod(entity, idColumn.getColumnSchema().getMethod()) == null){
+    				nullIdEntityList.add(entity);
+    			}
+    		}
+    		if(generatedKeyList.size() == nullIdEntityList.size()){
+    			for(int i=0;i<nullIdEntityList.size();i++){
+    				setGeneratedKey(nullIdEntityList.get(i), generatedKeyList.get(i));
+    			}
+    		}
+    	}
+    }
+    
+    private static int getBatchSize(String dataSourceName){
+    	int batchSize = PropsUtil.getInt(ConfigHelper.getCONFIG_PROPS(), ConfigConstant.JDBC_DATASOURCE + "." + dataSourceName + "." + ConfigConstant.JDBC_BATCH_SIZE, 1000);
+    	return batchSize > 0 ? batchSize : 1000;
+    }
+    
+    /**
+     * 同一句sql的一组实体
+     */
+    private static final class BatchGroup{
+    	private final String sql;
+    	private final List<Object> entityList = new ArrayList<>();
+    	private final List<Object[]> paramsList = new ArrayList<>();
+    	
+    	private BatchGroup(String sql) {
+    		this.sql = sql;
+    	}
+    }
+    
+    /**
+     * 按对象本身区分实体，实体可能重写了equals/hashCode
+     */
+    private static final class IdentityKey{
+    	private final Object entity;
+    	
+    	private IdentityKey(Object entity) {
+    		this.entity = entity;
+    	}
+    	
+    	@Override
+    	public int hashCode() {
+    		return System.identityHashCode(entity);
+    	}
+    	
+    	@Override
+    	public boolean equals(Object obj) {
+    		return obj instanceof IdentityKey && ((IdentityKey)obj).entity == entity;
+    	}
+    }
+    
 
     public static int updateEntity(Object entity) throws SQLException {
     	String dataSourceName = TableHelper.getCachedTableSchema(entity).getDataSourceName();
@@ -676,104 +1156,209 @@ public final class DataBaseHelper implements Helper{
     }
 
     /**
-     * 开启事务
+     * 当前线程是否在事务中
+     */
+    public static boolean isInTransaction(){
+    	return getCurrentTransaction() != null;
+    }
+    
+    /**
+     * 当前线程是否在只读事务中
+     */
+    public static boolean isReadOnlyTransaction(){
+    	Transaction transaction = getCurrentTransaction();
+    	return transaction != null && transaction.isReadOnly();
+    }
+    
+    private static Transaction getCurrentTransaction(){
+    	TransactionContext context = TRANSACTION_HOLDER.get();
+    	return context == null ? null : context.getCurrentTransaction();
+    }
+    
+    /**
+     * 事务中第一次用到的数据源，取连接加入事务
+     * 外层有嵌套事务的，这个连接上之前没有任何操作，回滚时整个回滚即可，不需要补保存点
+     */
+    private static Connection enlistConnection(Transaction transaction, String dataSourceName, BaseDataSource dataSource) throws SQLException{
+    	Connection connection = null;
+    	if(transaction.isReadOnly() && dataSource instanceof ReadWriteDataSource){
+    		//只读事务可以走从库
+    		connection = ((ReadWriteDataSource)dataSource).getReadConnection();
+    	}else{
+    		connection = dataSource.getConnection();
+    	}
+    	try {
+    		connection.setAutoCommit(false);//设置成手动提交
+    		if(transaction.isReadOnly()){
+    			connection.setReadOnly(true);
+    		}
+		} catch (SQLException e) {
+			dataSource.closeConnection(connection);
+			throw e;
+		}
+    	transaction.addConnection(dataSourceName, connection);
+    	return connection;
+    }
+    
+    /**
+     * 有事务超时限制的，按剩余时间设置语句超时，已经超时的直接报错
+     */
+    private static void applyTransactionTimeout(PreparedStatement ps) throws SQLException{
+    	Transaction transaction = getCurrentTransaction();
+    	if(transaction != null && transaction.getDeadline() > 0){
+    		long remaining = transaction.getDeadline() - System.currentTimeMillis();
+    		if(remaining <= 0){
+    			ps.close();
+    			throw new SQLException("transaction timed out");
+    		}
+    		ps.setQueryTimeout((int)((remaining + 999) / 1000));
+    	}
+    }
+
+    /**
+     * 开启事务，默认传播方式REQUIRED
      * @throws SQLException 
      */
     public static void beginTransaction() throws SQLException{
-//    	long t = System.currentTimeMillis();
-//		LogUtil.log("e1:"+t);
-    	Map<String, BaseDataSource> dsMap = DataSourceHelper.getDataSourceAll();
-    	HashMap<String, Connection> connMap = new HashMap<>();
-        try {
-        	for(String dataSourceName:dsMap.keySet()){
-        		BaseDataSource dataSource = dsMap.get(dataSourceName);
-//        		t = System.currentTimeMillis();
-//        		LogUtil.log("e2-"+dataSourceName+":"+t);
-        		if(dataSource.tns()){
-        			Connection conn = dataSource.getConnection();
-        			//LogUtil.log("test>新建链接");
-        			conn.setAutoCommit(false);//设置成手动提交
-        			connMap.put(dataSourceName, conn);
-        		}
-//        		t = System.currentTimeMillis();
-//        		LogUtil.log("e2-"+dataSourceName+":"+t);
-        	}
-        	CONNECTION_HOLDER.set(connMap);
-        } catch (SQLException e){
-//            LOGGER.error("begin transaction failure",e);
-            throw e;
-        }
-//        t = System.currentTimeMillis();
-//		LogUtil.log("e3:"+t);
+    	beginTransaction(Propagation.REQUIRED, false, -1);
+    }
+
+    /**
+     * 开启事务
+     * 这里只在线程的事务上下文里压一层，数据源的连接在第一次使用时才取出并加入事务
+     * NESTED时，在已经加入事务的连接上设置保存点
+     * 抛异常时不会压栈
+     * @param propagation 传播方式
+     * @param readOnly 是否只读，只在开启新事务时生效
+     * @param timeout 超时秒数，-1不限制，只在开启新事务时生效
+     * @throws SQLException 
+     */
+    public static void beginTransaction(Propagation propagation, boolean readOnly, int timeout) throws SQLException{
+    	TransactionContext context = TRANSACTION_HOLDER.get();
+    	if(context == null){
+    		context = new TransactionContext();
+    		TRANSACTION_HOLDER.set(context);
+    	}
+    	Frame frame = context.push(propagation, readOnly, timeout);
+    	if(frame.isNested()){
+    		try {
+    			for(Map.Entry<String, Connection> entry:frame.getTransaction().getConnectionMap().entrySet()){
+    				frame.getSavepointMap().put(entry.getKey(), entry.getValue().setSavepoint());
+    			}
+			} catch (SQLException e) {
+				//开启失败不留这一层，调用方不用再回滚弹出
+				popFrame(context);
+				throw e;
+			}
+    	}
     }
 
     /**
      * 提交事务
+     * 只有开启事务的那一层才真正提交，只提交加入了事务的连接
      * @throws SQLException 
      */
     public static void commitTransaction() throws SQLException{
-    	HashMap<String, Connection> connMap = CONNECTION_HOLDER.get();
-    	Map<String, BaseDataSource> dsMap = DataSourceHelper.getDataSourceAll();
-        if(connMap != null && connMap.size() > 0){
-//        	String errorDataSourceName = null;
-            try {
-            	for(String dataSourceName:connMap.keySet()){
-            		if(dsMap.get(dataSourceName).tns()){
-//            			errorDataSourceName = dataSourceName;
-            			Connection conn = connMap.get(dataSourceName);
-            			if(!conn.getAutoCommit()){
-            				conn.commit();
-            			}
-            		}
-            	}
-            } catch (SQLException e){
-//                LOGGER.error("commit transaction of dataSource["+errorDataSourceName+"] failure",e);
-                throw e;
-            }finally {
-            	for(String dataSourceName:connMap.keySet()){
-            		if(dsMap.get(dataSourceName).tns()){
-            			if(!connMap.get(dataSourceName).getAutoCommit()){
-            				closeConnection(dataSourceName);
-            			}
-            		}
-            	}
-            }
-        }
+    	TransactionContext context = TRANSACTION_HOLDER.get();
+    	if(context == null || context.isEmpty()){
+    		return;
+    	}
+    	Frame frame = context.peek();
+    	boolean success = false;
+    	try {
+    		if(frame.isNewTransaction()){
+    			Transaction transaction = frame.getTransaction();
+    			try {
+    				for(Connection conn:transaction.getConnectionMap().values()){
+    					conn.commit();
+    				}
+    			} finally {
+    				releaseTransaction(transaction);
+    			}
+    		}
+    		//嵌套事务提交时，保存点直接丢掉即可，随外层事务一起提交
+    		success = true;
+		} finally {
+			if(success){
+				popFrame(context);
+			}else{
+				//提交失败时，连接已经释放，留给随后的回滚弹出
+				frame.setCompleted(true);
+			}
+		}
     }
 
     /**
      * 回滚事务
+     * 开启事务的那一层整个回滚，嵌套事务回滚到保存点，加入外层事务的不做处理
      */
     public static void rollbackTransaction(){
-    	HashMap<String, Connection> connMap = CONNECTION_HOLDER.get();
+    	TransactionContext context = TRANSACTION_HOLDER.get();
+    	if(context == null || context.isEmpty()){
+    		return;
+    	}
+    	Frame frame = popFrame(context);
+    	if(frame.isCompleted()){
+    		return;
+    	}
+    	Transaction transaction = frame.getTransaction();
+    	try {
+    		if(frame.isNewTransaction()){
+    			try {
+    				for(Connection conn:transaction.getConnectionMap().values()){
+    					conn.rollback();
+    				}
+    			} finally {
+    				releaseTransaction(transaction);
+    			}
+    		}else if(frame.isNested()){
+    			for(Map.Entry<String, Connection> entry:transaction.getConnectionMap().entrySet()){
+    				Savepoint savepoint = frame.getSavepointMap().get(entry.getKey());
+    				if(savepoint != null){
+    					entry.getValue().rollback(savepoint);
+    				}else{
+    					//嵌套事务里才加入的连接，整个回滚
+    					entry.getValue().rollback();
+    				}
+    			}
+    		}
+		} catch (SQLException e) {
+//          LOGGER.error("rollback transaction of dataSource["+errorDataSourceName+"] failure",e);
+			throw new RuntimeException(e);
+		}
+    }
+    
+    private static Frame popFrame(TransactionContext context){
+    	Frame frame = context.pop();
+    	if(context.isEmpty()){
+    		TRANSACTION_HOLDER.remove();
+    	}
+    	return frame;
+    }
+    
+    /**
+     * 事务结束，还原连接的只读状态，把连接还给数据源
+     */
+    private static void releaseTransaction(Transaction transaction) throws SQLException{
     	Map<String, BaseDataSource> dsMap = DataSourceHelper.getDataSourceAll();
-        if(connMap != null && connMap.size() > 0){
-//        	String errorDataSourceName = null;
-            try {
-            	for(String dataSourceName:connMap.keySet()){
-            		if(dsMap.get(dataSourceName).tns()){
-//            			errorDataSourceName = dataSourceName;
-                		Connection conn = connMap.get(dataSourceName);
-    	            	conn.rollback();
-            		}
-            	}
-            } catch (SQLException e){
-//                LOGGER.error("rollback transaction of dataSource["+errorDataSourceName+"] failure",e);
-                throw new RuntimeException(e);
-            } finally {
-                try {
-                	for(String dataSourceName:connMap.keySet()){
-                		if(dsMap.get(dataSourceName).tns()){
-                			if(!connMap.get(dataSourceName).getAutoCommit()){
-                				closeConnection(dataSourceName);
-                			}
-                		}
-                	}
-                } catch (SQLException e) {
-                    throw new RuntimeException(e);
-                }
-            }
-        }
+    	SQLException error = null;
+    	for(Map.Entry<String, Connection> entry:transaction.getConnectionMap().entrySet()){
+    		Connection conn = entry.getValue();
+    		try {
+    			if(transaction.isReadOnly()){
+    				conn.setReadOnly(false);
+    			}
+    			dsMap.get(entry.getKey()).closeConnection(conn);
+			} catch (SQLException e) {
+				if(error == null){
+					error = e;
+				}
+			}
+    	}
+    	transaction.getConnectionMap().clear();
+    	if(error != null){
+    		throw error;
+    	}
     }
 
 	@Override
@@ -27,6 +27,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
+import org.axe.annotation.base.DependsOn;
 import org.axe.annotation.persistence.DataSource;
 import org.axe.helper.base.ConfigHelper;
 import org.axe.helper.ioc.ClassHelper;
@@ -39,6 +40,7 @@ import org.axe.util.StringUtil;
  * 数据源 助手类
  * @author CaiDongyu on 2016年5月20日 下午2:04:11.
  */
+@DependsOn({ConfigHelper.class,ClassHelper.class})
 public final class DataSourceHelper implements Helper{
 	
 	private static String DEFAULT_DATASOURCE_NAME = null;
@@ -29,6 +29,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
+import org.axe.annotation.base.DependsOn;
 import org.axe.bean.persistence.TableSchema;
 import org.axe.constant.ConfigConstant;
 import org.axe.helper.base.ConfigHelper;
@@ -41,6 +42,7 @@ import org.axe.util.sql.OracleUtil;
  * @author CaiDongyu
  * 数据库Schema 助手类
  */
+@DependsOn({ConfigHelper.class,DataBaseHelper.class,TableHelper.class})
 public final class SchemaHelper implements Helper{
 	@Override
 	public void init() throws Exception {}
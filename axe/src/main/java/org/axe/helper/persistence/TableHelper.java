@@ -24,12 +24,14 @@
 package org.axe.helper.persistence;
 
 import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.axe.annotation.base.DependsOn;
 import org.axe.annotation.persistence.Comment;
 import org.axe.annotation.persistence.Id;
 import org.axe.annotation.persistence.JustInsert;
@@ -42,6 +44,7 @@ import org.axe.constant.IdGenerateWay;
 import org.axe.helper.ioc.ClassHelper;
 import org.axe.interface_.base.Helper;
 import org.axe.interface_.persistence.Sharding;
+import org.axe.interface_.persistence.ShardingStrategy;
 import org.axe.interface_.persistence.TableNameEditor;
 import org.axe.util.CollectionUtil;
 import org.axe.util.ReflectionUtil;
@@ -55,6 +58,7 @@ import org.axe.util.sql.OracleUtil;
  * 剥离自DataBaseHelper 
  * @author CaiDongyu on 2016/5/6. 
  */
+@DependsOn({ClassHelper.class,DataSourceHelper.class})
 public final class TableHelper implements Helper{
 
 	// #@Table 实体
@@ -183,6 +187,23 @@ public final class TableHelper implements Helper{
 		tableSchema.setUniqueFields(uniqueFieldBuffer.toString());
 		tableSchema.setUniqueColumns(uniqueColumnBuffer.toString());
 		
+		//分片路由策略，由实体类的shardingStrategy()给出
+		if(tableSchema.getSharding() && !Modifier.isAbstract(entityClass.getModifiers())){
+			ShardingStrategy shardingStrategy = ((Sharding)ReflectionUtil.newInstance(entityClass)).shardingStrategy();
+			if(shardingStrategy != null){
+				for(ColumnSchema columnSchema:mappingColumnList){
+					if(columnSchema.getFieldName().equals(shardingStrategy.getShardingField())){
+						tableSchema.setShardingKeyColumn(columnSchema);
+						break;
+					}
+				}
+				if(tableSchema.getShardingKeyColumn() == null){
+					throw new Exception("sharding field [" + shardingStrategy.getShardingField() + "] not found in class#[" + entityClassName + "]");
+				}
+				tableSchema.setShardingStrategy(shardingStrategy);
+			}
+		}
+		
 		return tableSchema;
 	}
 	
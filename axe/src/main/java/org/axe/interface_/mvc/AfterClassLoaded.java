@@ -25,6 +25,10 @@ package org.axe.interface_.mvc;
 
 import java.util.Set;
 
+/**
+ * ClassHelper加载完类后回调
+ * classSet里只有有注解、有父类或接口的类，见ClassHelper.getClassSet()
+ */
 public interface AfterClassLoaded {
 	
 	public void doSomething(Set<Class<?>> classSet);
@@ -23,6 +23,8 @@
  */
 package org.axe.interface_.persistence;
 
+import java.util.List;
+
 /**
  * 基础Dao 接口，使用时候可选
  * 使用这个接口内的方法，Entity类必须要有@Id标注的字段
@@ -58,4 +60,25 @@ public interface BaseRepository {
 	 */
 	public <T> T saveEntity(T entity);
 	
+	/**
+	 * 批量插入，同一张表的复用一个PreparedStatement批量执行
+	 * 自增主键会写回@Id字段
+	 */
+	public <T> List<T> insertEntities(List<T> entityList);
+	
+	/**
+	 * 批量删除，需要entity类有@Id字段
+	 */
+	public int deleteEntities(List<?> entityList);
+	
+	/**
+	 * 批量更新，需要entity类有@Id字段
+	 */
+	public int updateEntities(List<?> entityList);
+	
+	/**
+	 * 批量保存，与saveEntity一样，@Id都有值的update，没有更新到的和没有@Id值的insert
+	 */
+	public <T> List<T> saveEntities(List<T> entityList);
+	
 }
@@ -2,6 +2,9 @@ package org.axe.interface_.persistence;
 
 import org.axe.annotation.persistence.Comment;
 import org.axe.annotation.persistence.Table;
+import org.axe.bean.persistence.TableSchema;
+import org.axe.helper.persistence.TableHelper;
+import org.axe.util.ReflectionUtil;
 
 /**
  * 数据库分表超类
@@ -20,14 +23,32 @@ public abstract class Sharding implements TableNameEditor{
 		this.shardingFlag = shardingFlag;
 	}
 
-	//单表达到多少数据开始分表
+	//单表达到多少数据开始分表，使用分片路由策略时不起作用
 	public abstract int oneTableMaxCount();
 	
+	/**
+	 * 分片路由策略，默认null，按oneTableMaxCount填满一张表再建下一张
+	 * 返回策略的，按分片键字段的值算出分片表，每个实体类只在启动时取一次
+	 */
+	public ShardingStrategy shardingStrategy(){
+		return null;
+	}
+	
 	@Override
 	public final String realTableName()throws Exception {
 		String realTableName = null;
 		Table table = this.getClass().getAnnotation(Table.class);
 		if(table != null){
+			TableSchema tableSchema = TableHelper.getCachedTableSchema(this);
+			ShardingStrategy shardingStrategy = tableSchema.getShardingStrategy();
+			if(shardingStrategy != null){
+				//按分片键算出分片标识
+				Object shardingKeyValue = ReflectionUtil.invokeMethod(this, tableSchema.getShardingKeyColumn().getColumnSchema().getMethod());
+				shardingFlag = shardingStrategy.shardingFlag(shardingKeyValue);
+				if(shardingFlag == null){
+					throw new Exception(table.tableName()+" sharding key ["+shardingStrategy.getShardingField()+"] is null");
+				}
+			}
 			realTableName = table.tableName()+"_sharding_"+shardingFlag;
 			return realTableName;
 		}else{
@@ -0,0 +1,45 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2017 CaiDongyu
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.axe.interface_.persistence;
+
+/**
+ * 分片路由策略
+ * Sharding实体类覆盖shardingStrategy()返回策略后，不再按填满一张建一张的方式分片，
+ * 而是按分片键字段的值算出分片标识，分片表用到时才创建
+ * @Sql的WHERE里用 分片键=? 绑定了值的，只查算出的那一个分片
+ */
+public interface ShardingStrategy {
+	
+	/**
+	 * 分片键对应的实体字段名
+	 */
+	public String getShardingField();
+	
+	/**
+	 * 按分片键的值算出分片标识，必须是正整数，会拼在表名里
+	 * 值为null的返回null
+	 */
+	public Integer shardingFlag(Object shardingKeyValue);
+	
+}
@@ -23,37 +23,35 @@
  */
 package org.axe.interface_implement.mvc;
 
-import java.lang.annotation.Annotation;
-import java.lang.reflect.Method;
-import java.lang.reflect.ParameterizedType;
-import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.axe.annotation.mvc.Default;
 import org.axe.annotation.mvc.RequestEntity;
 import org.axe.annotation.mvc.RequestParam;
 import org.axe.bean.mvc.ExceptionHolder;
+import org.axe.bean.mvc.FormParam;
 import org.axe.bean.mvc.Handler;
 import org.axe.bean.mvc.Param;
+import org.axe.bean.mvc.ParamBinder.Slot;
 import org.axe.bean.mvc.ResultHolder;
 import org.axe.exception.RestException;
 import org.axe.helper.mvc.FormRequestHelper;
 import org.axe.interface_.mvc.Filter;
 import org.axe.util.AjaxRequestUtil;
-import org.axe.util.CastUtil;
 import org.axe.util.CollectionUtil;
 import org.axe.util.JsonUtil;
 import org.axe.util.LogUtil;
-import org.axe.util.ReflectionUtil;
 import org.axe.util.RequestUtil;
-import org.axe.util.StringUtil;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 
 /**
  * Axe 请求参数解析Filter
@@ -85,7 +83,7 @@ public final class AxeRequestParamAnalyzeFilter implements Filter {
 		//解析resquest中参数
 		analyzeRequestParam(request, param, handler);
 		//转化请求参数到方法参数
-		convertRequestParam2ActionParam(handler.getActionMethod(), param, request, response);
+		convertRequestParam2ActionParam(handler, param, request, response);
 		return true;
 	}
 	
@@ -96,10 +94,10 @@ public final class AxeRequestParamAnalyzeFilter implements Filter {
 		try {
 			if(FormRequestHelper.isMultipart(request)){
 	            //如果是文件上传
-	            FormRequestHelper.initParam(param,request,param.getRequestPath(),handler.getMappingPath());
+	            FormRequestHelper.initParam(param,request);
 	        }else{
 	            //如果不是
-				AjaxRequestUtil.initParam(param,request,param.getRequestPath(),handler.getMappingPath());
+				AjaxRequestUtil.initParam(param,request);
 	        }
 		} catch (Exception e) {
 			LogUtil.error(e);
@@ -109,142 +107,114 @@ public final class AxeRequestParamAnalyzeFilter implements Filter {
 	
 
 	/**
-	 * 将解析好的参数包Param里的各个参数，排列映射到action的方法参数
+	 * 将解析好的参数包Param里的各个参数，按Handler的绑定计划排列映射到action的方法参数
 	 */
-	private void convertRequestParam2ActionParam(Method actionMethod,Param param,HttpServletRequest request, HttpServletResponse response){
-    	Type[] parameterTypes = actionMethod.getGenericParameterTypes();
-    	Annotation[][] parameterAnnotations = actionMethod.getParameterAnnotations();
-    	parameterTypes = parameterTypes == null?new Class<?>[0]:parameterTypes;
+	private void convertRequestParam2ActionParam(Handler handler,Param param,HttpServletRequest request, HttpServletResponse response){
+		Slot[] slots = handler.getParamBinder().getSlots();
     	//按顺序来，塞值
-    	List<Object> parameterValueList = new ArrayList<>();
-    	List<String> requiredParameterError = new ArrayList<>();
-    	List<String> compileParameterError = new ArrayList<>();
-    	for(int i=0;i<parameterTypes.length;i++){
+    	Object[] parameterValues = new Object[slots.length];
+    	List<String> requiredParameterError = null;
+    	List<String> compileParameterError = null;
+    	for(int i=0;i<slots.length;i++){
+    		Slot slot = slots[i];
     		Object parameterValue = null;
-    		do{
-    			Type parameterType = parameterTypes[i];
-    			Annotation[] parameterAnnotationAry = parameterAnnotations[i];
-    			
-    			RequestParam requestParam = null;
-    			RequestEntity requestEntity = null;
-    			Default def = null;
-    			for(Annotation anno:parameterAnnotationAry){
-    				if(anno instanceof RequestParam){
-    					requestParam = (RequestParam)anno;
-    				}else if(anno instanceof RequestEntity){
-    					requestEntity = (RequestEntity)anno;
-					}else if(anno instanceof Default){
-						def = (Default)anno;
+    		switch (slot.getKind()) {
+			case REQUEST_PARAM:{
+				RequestParam requestParam = slot.getRequestParam();
+				//TODO:除了文件数组、单文件比较特殊需要转换，其他的都按照自动类型匹配，这样不够智能
+				//而且，如果fieldMap和fileMap出现同名，则会导致参数混乱，不支持同名（虽然这种情况说明代码写的真操蛋！）
+				parameterValue = RequestUtil.getRequestParam(param,requestParam.name(), slot.getParameterType());
+				//默认值
+				if(parameterValue == null){
+					parameterValue = slot.getDefaultValue();
+				}
+				
+				//检测是否必填
+				if(requestParam.required() && parameterValue ==  null){
+					if(requiredParameterError == null){
+						requiredParameterError = new ArrayList<>();
 					}
-    			}
-    			
-    			//## 是否@RequestParam标注的
-    			if(requestParam != null){
-    				String fieldName = requestParam.name();
-					//TODO:除了文件数组、单文件比较特殊需要转换，其他的都按照自动类型匹配，这样不够智能
-					//而且，如果fieldMap和fileMap出现同名，则会导致参数混乱，不支持同名（虽然这种情况说明代码写的真操蛋！）
-					parameterValue = RequestUtil.getRequestParam(param,fieldName, parameterType);
-					//默认值
-					if(parameterValue == null){
-						if(def != null && def.value() != null && def.value().length > 0){
-							parameterValue = CastUtil.castType(def.value()[0], parameterType);
+					requiredParameterError.add(slot.getErrorName());
+				}
+				
+				//检查是否满足校验
+				if(parameterValue != null && slot.getCompilePattern() != null){
+					Matcher matcher = slot.getCompilePattern().matcher(String.valueOf(parameterValue));
+					if(!matcher.find()){
+						if(compileParameterError == null){
+							compileParameterError = new ArrayList<>();
 						}
+						compileParameterError.add(slot.getErrorName());
 					}
-					
-					//检测是否必填
-					if(requestParam.required() && parameterValue ==  null){
-    					requiredParameterError.add(StringUtil.isEmpty(requestParam.desc())?fieldName:requestParam.desc());
-    				}
-					
-					//检查是否满足校验
-					if(parameterValue != null && StringUtil.isNotEmpty(requestParam.compile())){
-						Pattern compile = Pattern.compile(requestParam.compile());
-						Matcher matcher = compile.matcher(String.valueOf(parameterValue));
-						if(!matcher.find()){
-							compileParameterError.add(StringUtil.isEmpty(requestParam.desc())?fieldName:requestParam.desc());
-						}
+				}
+				break;
+			}
+			case REQUEST_ENTITY:{
+				RequestEntity requestEntity = slot.getRequestEntity();
+				if(requiredParameterError == null){
+					requiredParameterError = new ArrayList<>();
+				}
+				if(handler.getParamBinder().isEntityStreamable() && !param.isBodyParsed()){
+					//直接从body字节绑定
+					parameterValue = bindRequestEntity(slot, param, requiredParameterError);
+				}else if(CollectionUtil.isNotEmpty(param.getBodyParamMap())){
+					Map<String, Object> bodyParamMap = param.getBodyParamMap();
+					//排除字段
+					//userName
+					//roleList.*.createTime
+					for(String excludedField:requestEntity.excludedFields()){
+						excludedMap(bodyParamMap, excludedField);
 					}
-					
-					break;
-    			}else if(requestEntity != null){
-					if(CollectionUtil.isNotEmpty(param.getBodyParamMap())){
-						Map<String, Object> bodyParamMap = param.getBodyParamMap();
-						//排除字段
-						//userName
-						//roleList.*.createTime
-						for(String excludedField:requestEntity.excludedFields()){
-							excludedMap(bodyParamMap, excludedField);
-						}
-						//默认值
-						if(def != null && def.value() != null && def.value().length > 0){
-							for(String defVal:def.value()){
-								String key = defVal.substring(0, defVal.indexOf(":"));
-								String value = "";
-								if(!defVal.endsWith(":")){
-									value = defVal.substring(defVal.indexOf(":")+1);
-								}
-								defMap(bodyParamMap, key, value);
-							}
-						}
-						//必填字段
-						if(requestEntity.requiredFields() != null){
-							for(String requiredField:requestEntity.requiredFields()){
-								boolean hasValue = requiredMap(bodyParamMap, requiredField);
-								if(!hasValue){
-									requiredParameterError.add(requiredField);
-								}
-							}
-						}
-						
-						if(CollectionUtil.isEmpty(requiredParameterError)){
-							Class<?> entityClass = (Class<?>)parameterType;
-							String bodyParamMapJson = JsonUtil.toJson(bodyParamMap);
-							try {
-								parameterValue = JsonUtil.fromJson(bodyParamMapJson, entityClass);
-							} catch (Exception e) {
-								throw new RestException("参数格式错误，无法转换："+e.getMessage());
+					//默认值
+					String[] defKeys = slot.getEntityDefaultKeys();
+					String[] defValues = slot.getEntityDefaultValues();
+					for(int j=0;j<defKeys.length;j++){
+						defMap(bodyParamMap, defKeys[j], defValues[j]);
+					}
+					//必填字段
+					if(requestEntity.requiredFields() != null){
+						for(String requiredField:requestEntity.requiredFields()){
+							boolean hasValue = requiredMap(bodyParamMap, requiredField);
+							if(!hasValue){
+								requiredParameterError.add(requiredField);
 							}
 						}
-					}else{
-						for(String requiredField:requestEntity.requiredFields()){
-							requiredParameterError.add(requiredField);
+					}
+					
+					if(CollectionUtil.isEmpty(requiredParameterError)){
+						Class<?> entityClass = (Class<?>)slot.getParameterType();
+						String bodyParamMapJson = JsonUtil.toJson(bodyParamMap);
+						try {
+							parameterValue = JsonUtil.fromJson(bodyParamMapJson, entityClass);
+						} catch (Exception e) {
+							throw new RestException("参数格式错误，无法转换："+e.getMessage());
 						}
 					}
-    			}else{
-    				Class<?> parameterClass = null; 
-    				if(parameterType instanceof Class){
-    					parameterClass = (Class<?>)parameterType;
-    				}else if(parameterType instanceof ParameterizedType){
-    					parameterClass = (Class<?>)((ParameterizedType) parameterType).getRawType();
-    				}
-    				if(parameterClass != null){
-    					//## 不含注解的
-    					//* 如果是HttpServletRequest
-    					if(ReflectionUtil.compareType(HttpServletRequest.class, parameterClass)){
-    						parameterValue = request;
-    						break;
-    					}
-    					if(ReflectionUtil.compareType(HttpServletResponse.class, parameterClass)){
-    						parameterValue = response;
-    						break;
-    					}
-    					//* 如果是Param
-    					if(ReflectionUtil.compareType(Param.class,parameterClass)){
-    						parameterValue = param;
-    						break;
-    					}
-    					//* 如果是Map<String,Object> 
-    					if(ReflectionUtil.compareType(Map.class, parameterClass)){
-    						parameterValue = param.getBodyParamMap();
-    						break;
-    					}
-    					
-    				}
-    			}
-    			
-    			//## 其他杂七杂八类型，只能给null，框架不管
-    		}while(false);
-    		parameterValueList.add(parameterValue);
+				}else{
+					for(String requiredField:requestEntity.requiredFields()){
+						requiredParameterError.add(requiredField);
+					}
+				}
+				break;
+			}
+			//## 不含注解的
+			case HTTP_SERVLET_REQUEST:
+				parameterValue = request;
+				break;
+			case HTTP_SERVLET_RESPONSE:
+				parameterValue = response;
+				break;
+			case PARAM:
+				parameterValue = param;
+				break;
+			case BODY_PARAM_MAP:
+				parameterValue = param.getBodyParamMap();
+				break;
+			default:
+				//## 其他杂七杂八类型，只能给null，框架不管
+				break;
+			}
+    		parameterValues[i] = parameterValue;
     	}
     	
     	if(CollectionUtil.isNotEmpty(requiredParameterError)){
@@ -253,9 +223,148 @@ public final class AxeRequestParamAnalyzeFilter implements Filter {
     	if(CollectionUtil.isNotEmpty(compileParameterError)){
     		throw new RestException("参数"+compileParameterError.toString()+"格式错误");
     	}
-    	param.setActionParamList(parameterValueList);
+    	param.setActionParams(parameterValues);
     }
 	
+	/**
+	 * body字节只解析一次成json树，在树上做排除、默认值、必填检查，然后直接绑定成实体
+	 * 不再经过 Map->String->POJO 的来回转换
+	 */
+	private Object bindRequestEntity(Slot slot,Param param,List<String> requiredParameterError){
+		RequestEntity requestEntity = slot.getRequestEntity();
+		ObjectNode bodyNode = null;
+		try {
+			bodyNode = AjaxRequestUtil.readBodyTree(param.getBodyBytes());
+		} catch (Exception e) {
+			LogUtil.error(e);
+			throw new RestException(RestException.SC_INTERNAL_SERVER_ERROR,e.getMessage());
+		}
+		if(bodyNode != null){
+			//与JsonUtil.fromJson一致，值为null的字段当作不存在
+			removeNullField(bodyNode);
+		}
+		//和bodyParamMap一样，url参数、路径变量覆盖body里的同名字段
+		List<FormParam> formParamList = param.getRequestFormParamList();
+		if(CollectionUtil.isNotEmpty(formParamList)){
+			if(bodyNode == null){
+				bodyNode = JsonNodeFactory.instance.objectNode();
+			}
+			for(FormParam formParam:formParamList){
+				if(formParam.getFieldValue() == null){
+					bodyNode.remove(formParam.getFieldName());
+				}else{
+					bodyNode.put(formParam.getFieldName(), formParam.getFieldValue());
+				}
+			}
+		}
+		if(bodyNode == null || bodyNode.size() == 0){
+			for(String requiredField:requestEntity.requiredFields()){
+				requiredParameterError.add(requiredField);
+			}
+			return null;
+		}
+		//排除字段
+		for(String excludedField:requestEntity.excludedFields()){
+			excludedNode(bodyNode, excludedField);
+		}
+		//默认值
+		String[] defKeys = slot.getEntityDefaultKeys();
+		String[] defValues = slot.getEntityDefaultValues();
+		for(int j=0;j<defKeys.length;j++){
+			defNode(bodyNode, defKeys[j], defValues[j]);
+		}
+		//必填字段
+		if(requestEntity.requiredFields() != null){
+			for(String requiredField:requestEntity.requiredFields()){
+				if(!requiredNode(bodyNode, requiredField)){
+					requiredParameterError.add(requiredField);
+				}
+			}
+		}
+		if(CollectionUtil.isNotEmpty(requiredParameterError)){
+			return null;
+		}
+		try {
+			return JsonUtil.fromTree(bodyNode, (Class<?>)slot.getParameterType());
+		} catch (Exception e) {
+			throw new RestException("参数格式错误，无法转换："+e.getMessage());
+		}
+	}
+	
+	private void removeNullField(JsonNode node){
+		if(node.isObject()){
+			Iterator<JsonNode> it = node.elements();
+			while(it.hasNext()){
+				JsonNode child = it.next();
+				if(child.isNull()){
+					it.remove();
+				}else{
+					removeNullField(child);
+				}
+			}
+		}else if(node.isArray()){
+			for(JsonNode child:node){
+				removeNullField(child);
+			}
+		}
+	}
+	
+	private void excludedNode(JsonNode node,String fieldStack){
+		if(node.isArray()){
+			for(JsonNode el:node){
+				excludedNode(el, fieldStack);
+			}
+			return;
+		}
+		if(!node.isObject()) return;
+		int pointIndex = fieldStack.indexOf(".");
+		if(pointIndex>0){
+			JsonNode next = node.get(fieldStack.substring(0,pointIndex));
+			if(next != null){
+				excludedNode(next, fieldStack.substring(pointIndex+1));
+			}
+		}else{
+			((ObjectNode)node).remove(fieldStack);
+		}
+	}
+	
+	private void defNode(JsonNode node,String fieldStack,String defValue){
+		if(node.isArray()){
+			for(JsonNode el:node){
+				defNode(el, fieldStack, defValue);
+			}
+			return;
+		}
+		if(!node.isObject()) return;
+		int pointIndex = fieldStack.indexOf(".");
+		if(pointIndex>0){
+			JsonNode next = node.get(fieldStack.substring(0,pointIndex));
+			if(next != null){
+				defNode(next, fieldStack.substring(pointIndex+1), defValue);
+			}
+		}else if(node.get(fieldStack) == null){
+			((ObjectNode)node).put(fieldStack, defValue);
+		}
+	}
+	
+	private boolean requiredNode(JsonNode node,String fieldStack){
+		if(node.isArray()){
+			//与requiredList一致，只看第一个元素
+			for(JsonNode el:node){
+				return requiredNode(el, fieldStack);
+			}
+			return false;
+		}
+		if(!node.isObject()) return false;
+		int pointIndex = fieldStack.indexOf(".");
+		if(pointIndex>0){
+			JsonNode next = node.get(fieldStack.substring(0,pointIndex));
+			return next != null && requiredNode(next, fieldStack.substring(pointIndex+1));
+		}else{
+			return node.get(fieldStack) != null;
+		}
+	}
+	
 	@SuppressWarnings("unchecked")
 	private void excludedMap(Map<String,Object> bodyParamMap,String fieldStack){
 		//把fieldStack从bodyParamMap里删掉
@@ -0,0 +1,64 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2017 CaiDongyu
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.axe.interface_implement.persistence;
+
+import org.axe.interface_.persistence.ShardingStrategy;
+
+/**
+ * 按分片键取模分片，分片标识1~shardCount
+ * 整数类型按值取模，其他类型按toString()的hashCode取模
+ */
+public final class HashShardingStrategy implements ShardingStrategy{
+	
+	private final String shardingField;
+	private final int shardCount;
+	
+	public HashShardingStrategy(String shardingField, int shardCount) {
+		if(shardCount <= 0){
+			throw new IllegalArgumentException("shardCount must be greater than 0");
+		}
+		this.shardingField = shardingField;
+		this.shardCount = shardCount;
+	}
+
+	@Override
+	public String getShardingField() {
+		return shardingField;
+	}
+
+	@Override
+	public Integer shardingFlag(Object shardingKeyValue) {
+		if(shardingKeyValue == null){
+			return null;
+		}
+		long hash;
+		if(shardingKeyValue instanceof Number){
+			hash = ((Number)shardingKeyValue).longValue();
+		}else{
+			hash = shardingKeyValue.toString().hashCode();
+		}
+		return (int)(((hash % shardCount) + shardCount) % shardCount) + 1;
+	}
+	
+}
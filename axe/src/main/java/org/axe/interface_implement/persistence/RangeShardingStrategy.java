@@ -0,0 +1,67 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2017 CaiDongyu
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.axe.interface_implement.persistence;
+
+import org.axe.interface_.persistence.ShardingStrategy;
+import org.axe.util.CastUtil;
+
+/**
+ * 按分片键的值分段，每rangeSize个值一个分片
+ * 0~rangeSize-1是分片1，rangeSize~2*rangeSize-1是分片2，以此类推，分片键不能是负数
+ */
+public final class RangeShardingStrategy implements ShardingStrategy{
+	
+	private final String shardingField;
+	private final long rangeSize;
+	
+	public RangeShardingStrategy(String shardingField, long rangeSize) {
+		if(rangeSize <= 0){
+			throw new IllegalArgumentException("rangeSize must be greater than 0");
+		}
+		this.shardingField = shardingField;
+		this.rangeSize = rangeSize;
+	}
+
+	@Override
+	public String getShardingField() {
+		return shardingField;
+	}
+
+	@Override
+	public Integer shardingFlag(Object shardingKeyValue) {
+		if(shardingKeyValue == null){
+			return null;
+		}
+		long value = shardingKeyValue instanceof Number ? ((Number)shardingKeyValue).longValue() : CastUtil.castLong(shardingKeyValue);
+		if(value < 0){
+			throw new IllegalArgumentException("range sharding key ["+shardingField+"] must not be negative: "+value);
+		}
+		long shardingFlag = value / rangeSize + 1;
+		if(shardingFlag > Integer.MAX_VALUE){
+			throw new IllegalArgumentException("range sharding key ["+shardingField+"] out of range: "+value);
+		}
+		return (int)shardingFlag;
+	}
+	
+}
@@ -0,0 +1,71 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2017 CaiDongyu
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.axe.interface_implement.persistence;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import org.axe.interface_.persistence.ShardingStrategy;
+
+/**
+ * 按时间分段，分片标识就是按pattern格式化后的数字
+ * 比如pattern是yyyyMM，2019年2月的数据在 表名_sharding_201902
+ * 分片键可以是Date（包括java.sql的时间类型）或者毫秒数
+ */
+public final class TimeShardingStrategy implements ShardingStrategy{
+	
+	private final String shardingField;
+	private final String pattern;
+	
+	public TimeShardingStrategy(String shardingField, String pattern) {
+		if(pattern == null || !pattern.matches("[yMdH]+") || pattern.length() > 9){
+			throw new IllegalArgumentException("invalid time sharding pattern: "+pattern+", only y M d H allowed, such as yyyyMM");
+		}
+		this.shardingField = shardingField;
+		this.pattern = pattern;
+	}
+
+	@Override
+	public String getShardingField() {
+		return shardingField;
+	}
+
+	@Override
+	public Integer shardingFlag(Object shardingKeyValue) {
+		if(shardingKeyValue == null){
+			return null;
+		}
+		Date date;
+		if(shardingKeyValue instanceof Date){
+			date = (Date)shardingKeyValue;
+		}else if(shardingKeyValue instanceof Number){
+			date = new Date(((Number)shardingKeyValue).longValue());
+		}else{
+			throw new IllegalArgumentException("time sharding key ["+shardingField+"] must be Date or Long: "+shardingKeyValue.getClass().getName());
+		}
+		//SimpleDateFormat不是线程安全的，每次新建
+		return Integer.parseInt(new SimpleDateFormat(pattern).format(date));
+	}
+	
+}
@@ -60,6 +60,14 @@ public abstract class AspectProxy implements Proxy{
         return result;
     }
 
+    /**
+     * 切点，创建代理时每个方法判断一次，返回false的方法不经过这个切面
+     * 与intercept不同，这里不是每次调用都判断
+     */
+    public boolean pointcut(Class<?> cls,Method method){
+        return true;
+    }
+
     public void begin(){
 
     }
@@ -24,7 +24,6 @@
 package org.axe.proxy.base;
 
 import java.lang.reflect.Method;
-import java.util.ArrayList;
 import java.util.List;
 
 import org.axe.interface_.proxy.Proxy;
@@ -43,21 +42,24 @@ public final class ProxyChain {
     private final MethodProxy methodProxy;
     private final Object[] methodParams;
 
-    private List<Proxy> proxyList = new ArrayList<Proxy>();
+    private final Proxy[] proxyAry;
 
-    private ThreadLocal<Integer> proxyIndex = new ThreadLocal<Integer>(){
-    	protected Integer initialValue() {
-    		return 0;
-    	};
-    };
+    /**
+     * 每次调用一个ProxyChain，下标是普通字段
+     */
+    private int proxyIndex = 0;
 
-    public ProxyChain(Class<?> targetClass, Object targetObject, Method targetMethod, MethodProxy methodProxy, Object[] methodParams, List<Proxy> proxyList) {
+    public ProxyChain(Class<?> targetClass, Object targetObject, Method targetMethod, MethodProxy methodProxy, Object[] methodParams, Proxy[] proxyAry) {
         this.targetClass = targetClass;
         this.targetObject = targetObject;
         this.targetMethod = targetMethod;
         this.methodProxy = methodProxy;
         this.methodParams = methodParams;
-        this.proxyList = proxyList;
+        this.proxyAry = proxyAry;
+    }
+
+    public ProxyChain(Class<?> targetClass, Object targetObject, Method targetMethod, MethodProxy methodProxy, Object[] methodParams, List<Proxy> proxyList) {
+    	this(targetClass, targetObject, targetMethod, methodProxy, methodParams, proxyList.toArray(new Proxy[proxyList.size()]));
     }
 
     public Object getTargetObject() {
@@ -83,9 +85,7 @@ public final class ProxyChain {
     public Object doProxyChain() throws Throwable{
         Object methodResult;
         if(!isLastProxy()){
-        	int proxyIndexNum = proxyIndex.get();
-        	proxyIndex.set(proxyIndexNum+1);
-        	methodResult = proxyList.get(proxyIndexNum).doProxy(this);
+        	methodResult = proxyAry[proxyIndex++].doProxy(this);
         } else {
             methodResult = methodProxy.invokeSuper(targetObject, methodParams);
         }
@@ -93,6 +93,6 @@ public final class ProxyChain {
     }
     
     public boolean isLastProxy(){
-    	return proxyIndex.get() >= proxyList.size();
+    	return proxyIndex >= proxyAry.length;
     }
 }
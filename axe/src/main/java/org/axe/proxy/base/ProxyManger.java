@@ -23,29 +23,165 @@
  */
 package org.axe.proxy.base;
 
+import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
+import org.axe.annotation.aop.Aspect;
 import org.axe.interface_.proxy.Proxy;
 
+import net.sf.cglib.proxy.Callback;
+import net.sf.cglib.proxy.CallbackFilter;
 import net.sf.cglib.proxy.Enhancer;
 import net.sf.cglib.proxy.MethodInterceptor;
 import net.sf.cglib.proxy.MethodProxy;
+import net.sf.cglib.proxy.NoOp;
 
 /**
  * 代理管理器
  * 负责创建代理对象
+ * 切点在创建代理时按方法解析，每个方法冻结一条Proxy[]，没切到的方法不经过拦截器，直接调用父类
  * @author CaiDongyu on 2016/4/14.
  */
 public final class ProxyManger {
 
+	/**
+	 * 一个方法都没切到的，不需要代理，返回null
+	 */
     @SuppressWarnings("unchecked")
 	public static <T> T createProxy(final Class<T> targetClass, final List<Proxy> proxyList){
-        return (T) Enhancer.create(targetClass,new MethodInterceptor() {
+    	//方法签名 -> 代理链
+    	final Map<String, Integer> methodCallbackIndexMap = new HashMap<>();
+    	Map<List<Proxy>, Integer> chainIndexMap = new LinkedHashMap<>();
+    	List<Callback> callbackList = new ArrayList<>();
+    	callbackList.add(NoOp.INSTANCE);
+    	for(Map.Entry<String, Method> methodEntry:getProxyableMethods(targetClass).entrySet()){
+    		List<Proxy> chain = new ArrayList<>();
+    		for(Proxy proxy:proxyList){
+    			if(matches(proxy, targetClass, methodEntry.getValue())){
+    				chain.add(proxy);
+    			}
+    		}
+    		if(chain.isEmpty()){
+    			methodCallbackIndexMap.put(methodEntry.getKey(), 0);
+    			continue;
+    		}
+    		//同样的代理链共用一个拦截器
+    		Integer callbackIndex = chainIndexMap.get(chain);
+    		if(callbackIndex == null){
+    			callbackIndex = callbackList.size();
+    			chainIndexMap.put(chain, callbackIndex);
+    			callbackList.add(new ChainInterceptor(targetClass, chain.toArray(new Proxy[chain.size()])));
+    		}
+    		methodCallbackIndexMap.put(methodEntry.getKey(), callbackIndex);
+    	}
+    	if(callbackList.size() == 1){
+    		return null;
+    	}
+    	
+    	Enhancer enhancer = new Enhancer();
+    	enhancer.setSuperclass(targetClass);
+    	enhancer.setCallbacks(callbackList.toArray(new Callback[callbackList.size()]));
+    	enhancer.setCallbackFilter(new CallbackFilter() {
 			@Override
-			public Object intercept(Object targetObject, Method targetMethod, Object[] methodParams, MethodProxy methodProxy) throws Throwable {
-				return new ProxyChain(targetClass,targetObject,targetMethod,methodProxy,methodParams,proxyList).doProxyChain();
+			public int accept(Method method) {
+				Integer callbackIndex = methodCallbackIndexMap.get(getSignature(method));
+				return callbackIndex == null ? 0 : callbackIndex;
 			}
-		} );
+		});
+        return (T) enhancer.create();
+    }
+    
+    /**
+     * 切面是否作用于这个方法
+     * 类上有@Aspect指定的注解，或者方法上有；AspectProxy还可以再用pointcut过滤
+     */
+    private static boolean matches(Proxy proxy, Class<?> targetClass, Method method){
+    	Aspect aspect = proxy.getClass().getAnnotation(Aspect.class);
+    	if(aspect != null && !isAnnotationPresent(aspect, targetClass) && !isAnnotationPresent(aspect, method)){
+    		return false;
+    	}
+    	if(proxy instanceof AspectProxy){
+    		return ((AspectProxy) proxy).pointcut(targetClass, method);
+    	}
+    	return true;
+    }
+    
+    private static boolean isAnnotationPresent(Aspect aspect, Class<?> targetClass){
+    	for(Class<? extends Annotation> annotation:aspect.value()){
+    		if(!annotation.equals(Aspect.class) && targetClass.isAnnotationPresent(annotation)){
+    			return true;
+    		}
+    	}
+    	return false;
+    }
+    
+    private static boolean isAnnotationPresent(Aspect aspect, Method method){
+    	for(Class<? extends Annotation> annotation:aspect.value()){
+    		if(!annotation.equals(Aspect.class) && method.isAnnotationPresent(annotation)){
+    			return true;
+    		}
+    	}
+    	return false;
+    }
+    
+    /**
+     * cglib会代理的方法，每个签名取实际调用到的那个：先是类继承链上非private、static、final的方法，子类优先，类里都没有的才取接口的方法
+     * 切点按这个方法判断，运行时切面拿到的也是这个方法
+     */
+    private static Map<String, Method> getProxyableMethods(Class<?> targetClass){
+    	Map<String, Method> methodMap = new LinkedHashMap<>();
+    	List<Method> interfaceMethodList = new ArrayList<>();
+    	for(Class<?> cls = targetClass; cls != null; cls = cls.getSuperclass()){
+    		for(Method method:cls.getDeclaredMethods()){
+    			int modifiers = method.getModifiers();
+    			if(Modifier.isPrivate(modifiers) || Modifier.isStatic(modifiers) || Modifier.isFinal(modifiers) || method.isBridge()){
+    				continue;
+    			}
+    			addMethod(methodMap, method);
+    		}
+    		for(Class<?> interfaceClass:cls.getInterfaces()){
+    			interfaceMethodList.addAll(Arrays.asList(interfaceClass.getMethods()));
+    		}
+    	}
+    	for(Method method:interfaceMethodList){
+    		addMethod(methodMap, method);
+    	}
+    	return methodMap;
+    }
+    
+    private static void addMethod(Map<String, Method> methodMap, Method method){
+    	String signature = getSignature(method);
+    	if(!methodMap.containsKey(signature)){
+    		methodMap.put(signature, method);
+    	}
+    }
+    
+    private static String getSignature(Method method){
+    	return method.getName() + Arrays.toString(method.getParameterTypes());
+    }
+    
+    /**
+     * 一条冻结的代理链，每次调用新建一个ProxyChain
+     */
+    private static final class ChainInterceptor implements MethodInterceptor{
+    	private final Class<?> targetClass;
+    	private final Proxy[] proxyAry;
+    	
+    	private ChainInterceptor(Class<?> targetClass, Proxy[] proxyAry) {
+			this.targetClass = targetClass;
+			this.proxyAry = proxyAry;
+		}
+    	
+		@Override
+		public Object intercept(Object targetObject, Method targetMethod, Object[] methodParams, MethodProxy methodProxy) throws Throwable {
+			return new ProxyChain(targetClass,targetObject,targetMethod,methodProxy,methodParams,proxyAry).doProxyChain();
+		}
     }
 }
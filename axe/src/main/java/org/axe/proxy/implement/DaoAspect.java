@@ -29,25 +29,36 @@ import java.lang.reflect.Type;
 import java.lang.reflect.WildcardType;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.axe.annotation.aop.Aspect;
 import org.axe.annotation.persistence.Dao;
 import org.axe.annotation.persistence.ResultProxy;
 import org.axe.annotation.persistence.Sql;
+import org.axe.bean.persistence.KeysetQuery;
 import org.axe.bean.persistence.Page;
 import org.axe.bean.persistence.PageConfig;
+import org.axe.bean.persistence.PageConfig.CountMode;
+import org.axe.bean.persistence.ResultIterator;
+import org.axe.bean.persistence.ShardDirectory;
+import org.axe.bean.persistence.ShardQuery;
 import org.axe.bean.persistence.ShardingTableCreateTask;
 import org.axe.bean.persistence.SqlPackage;
+import org.axe.bean.persistence.SqlTemplate;
 import org.axe.bean.persistence.TableSchema;
 import org.axe.helper.persistence.DataBaseHelper;
 import org.axe.helper.persistence.DataSourceHelper;
 import org.axe.helper.persistence.TableHelper;
 import org.axe.interface_.persistence.BaseRepository;
+import org.axe.interface_.persistence.RowHandler;
+import org.axe.interface_.persistence.RowMapper;
 import org.axe.interface_.persistence.Sharding;
 import org.axe.interface_.persistence.SqlResultProxy;
 import org.axe.interface_.proxy.Proxy;
@@ -68,47 +79,34 @@ import org.axe.util.sql.OracleUtil;
  */
 @Aspect(Dao.class)
 public final class DaoAspect implements Proxy {
+	
+	/**
+	 * Dao类 -> 方法 -> 调用信息，每个Dao方法第一次调用时解析一次
+	 */
+	private static final Map<Class<?>, Map<Method, DaoMethod>> DAO_METHOD_CACHE = new ConcurrentHashMap<>();
 
 	@Override
 	public Object doProxy(ProxyChain proxyChain) throws Throwable {
 		Object result = null;
 		Method targetMethod = proxyChain.getTargetMethod();
 		Object[] methodParams = proxyChain.getMethodParams();
-		Class<?>[] parameterTypes = targetMethod.getParameterTypes();
 		Class<?> daoClass = proxyChain.getTargetClass();
+		// 注解、数据源、返回类型、结果代理器、BaseRepository操作都已解析好
+		DaoMethod daoMethod = getDaoMethod(daoClass, targetMethod);
+		Class<?>[] parameterTypes = daoMethod.parameterTypes;
 		// 先以Dao上的数据源为准，后面如果Sql与Entity的数据源设置不一样，提示错误
-		String daoDataSourceName = daoClass.getAnnotation(Dao.class).dataSource();
-		if(StringUtil.isEmpty(daoDataSourceName)){
-			daoDataSourceName = DataSourceHelper.getDefaultDataSourceName();
-		}
-
-		// 如果有sql结果代理器
-		Type returnType = null;
-		Class<?> rawType = null;
-		SqlResultProxy sqlResultProxy = null;
-		if (targetMethod.isAnnotationPresent(ResultProxy.class)) {
-			ResultProxy resultProxy = targetMethod.getAnnotation(ResultProxy.class);
-			Class<? extends SqlResultProxy> proxyClass = resultProxy.value();
-			returnType = resultProxy.returnType();// 伪造返回结果类型，这样查询就都是List<Map<String,Object>>结果集
-			rawType = resultProxy.rawType();// 伪造返回结果类型，这样查询就都是List<Map<String,Object>>结果集
-			sqlResultProxy = ReflectionUtil.newInstance(proxyClass);
-		}
+		String daoDataSourceName = daoMethod.dataSourceName;
+		// 如果有sql结果代理器，返回类型是ResultProxy伪造的，这样查询就都是List<Map<String,Object>>结果集
+		Type returnType = daoMethod.returnType;
+		Class<?> rawType = daoMethod.rawType;
+		SqlResultProxy sqlResultProxy = daoMethod.sqlResultProxy;
 
-		if (targetMethod.isAnnotationPresent(Sql.class)) {
-			Sql sqlAnnotation = targetMethod.getAnnotation(Sql.class);
-			String rawSql = sqlAnnotation.value();
-			String headAfterUnion = sqlAnnotation.headAfterUnion();//2019/2/14 sql头部补充
-			String tailAfterUnion = sqlAnnotation.tailAfterUnion();//2019/2/14 sql尾句补充
-
-			// #解析指令代码
-			rawSql = CommonSqlUtil.convertSqlAppendCommand(rawSql, methodParams);
-			headAfterUnion = CommonSqlUtil.convertSqlAppendCommand(headAfterUnion, methodParams);
-			tailAfterUnion = CommonSqlUtil.convertSqlAppendCommand(tailAfterUnion, methodParams);
-			
-			// #解析Sql中的类名字段名
+		if (daoMethod.operation == Operation.SQL) {
+			// #解析Sql中的类名字段名，没有#拼接指令的语句，模板已经编译好
 			// #根据sql匹配出Entity类
+			SqlTemplate sqlTemplate = getSqlTemplate(daoMethod, methodParams);
 			// CaiDongyu 2019/2/13{ 对分片操作进行处理，一表操作转为多表操作
-			Map<String, TableSchema> sqlEntityTableMap = CommonSqlUtil.convertSqlEntity2Table(rawSql);
+			Map<String, TableSchema> sqlEntityTableMap = sqlTemplate.getSqlEntityTableMap();
 			
 			List<Map<String,String>> sqlEntityTableNameList = new ArrayList<>();
 			for(String entityClassSimpleName:sqlEntityTableMap.keySet()){
@@ -116,14 +114,18 @@ public final class DaoAspect implements Proxy {
 				Map<String,String> sqlEntityTableNameMap = new HashMap<>();
 				//分片的需要获取分片表集合
 				if(tableSchema.getSharding()){
+					//分片目录有缓存，不用每次都查_sharding_gt表
+					ShardDirectory shardDirectory = ShardDirectory.getInstance(daoDataSourceName, tableSchema.getTableName());
+					List<Integer> shardingFlagList = shardDirectory.getShardingFlagList();
+					//按策略路由的分片表，WHERE绑定了分片键的只查那一个分片
+					Integer routedShardingFlag = getRoutedShardingFlag(sqlTemplate, tableSchema, methodParams);
+					if(routedShardingFlag != null && shardDirectory.containsShard(routedShardingFlag)){
+						shardingFlagList = Collections.singletonList(routedShardingFlag);
+					}
 					StringBuilder sqlBuffer = new StringBuilder();
-					sqlBuffer.append("SELECT sharding_flag FROM ")
-					.append(tableSchema.getTableName())
-					.append("_sharding_gt ORDER BY sharding_flag ASC");
-					List<Map<String, Object>> queryList = DataBaseHelper.queryList(sqlBuffer.toString(), new Object[]{}, new Class<?>[]{},daoDataSourceName);
-					for(Map<String,Object> row:queryList){
+					for(Integer shardingFlag:shardingFlagList){
 						sqlBuffer.setLength(0);
-						sqlBuffer.append(tableSchema.getTableName()).append("_sharding_").append(row.get("sharding_flag").toString());
+						sqlBuffer.append(tableSchema.getTableName()).append("_sharding_").append(shardingFlag);
 						sqlEntityTableNameMap.put(sqlBuffer.toString(), entityClassSimpleName);
 					}
 				}else{
@@ -132,37 +134,51 @@ public final class DaoAspect implements Proxy {
 				sqlEntityTableNameList.add(sqlEntityTableNameMap);
 			}
 			
-			List<String> sqlList = CommonSqlUtil.convertRawSql(rawSql,sqlEntityTableMap,sqlEntityTableNameList);
+			List<String> sqlList = sqlTemplate.getSqlList(sqlEntityTableNameList);
 			
 			if(CollectionUtil.isNotEmpty(sqlList)){
-				List<String> headAfterUnionList = CommonSqlUtil.convertRawSql(headAfterUnion,sqlEntityTableMap,sqlEntityTableNameList);
-				List<String> tailAfterUnionList = CommonSqlUtil.convertRawSql(tailAfterUnion,sqlEntityTableMap,sqlEntityTableNameList);
-				if(CollectionUtil.isNotEmpty(headAfterUnionList)){
-					headAfterUnion = headAfterUnionList.get(0);//取第一个，所以不能head里出现表名并且是分表的实体类，这样只会被第一个分表表名有效
-				}
-				if(CollectionUtil.isNotEmpty(tailAfterUnionList)){
-					tailAfterUnion = tailAfterUnionList.get(0);
-				}
+				//取第一个，所以不能head里出现表名并且是分表的实体类，这样只会被第一个分表表名有效
+				String headAfterUnion = sqlTemplate.getHeadAfterUnion(sqlEntityTableNameList);
+				String tailAfterUnion = sqlTemplate.getTailAfterUnion(sqlEntityTableNameList);
 				
 				//sqlAry里的sql语句，都是同一性质的操作
 				if (sqlList.get(0).trim().toUpperCase().startsWith("SELECT")) {
 				//}	
-					returnType = returnType == null ? targetMethod.getGenericReturnType() : returnType;
-					rawType = rawType == null ? targetMethod.getReturnType() : rawType;
-					if (returnType instanceof ParameterizedType) {
+					int rowHandlerIndex = daoMethod.rowHandlerIndex;
+					if (rowHandlerIndex >= 0 || ReflectionUtil.compareType(Iterator.class, rawType) || ReflectionUtil.compareType(ResultIterator.class, rawType)) {
+						// 游标方式，Iterator返回值或者RowHandler参数，结果一行一行读，不装进List
+						Type rowType = rowHandlerIndex >= 0 ? getActualType(targetMethod.getGenericParameterTypes()[rowHandlerIndex]) : getActualType(returnType);
+						String sql = unionSqlAry(sqlList,headAfterUnion,tailAfterUnion);
+						ResultIterator<?> resultIterator = DataBaseHelper.queryIterator(sql, methodParams, parameterTypes, daoDataSourceName, getRowMapper(rowType));
+						if (rowHandlerIndex >= 0) {
+							result = handleRows(resultIterator, (RowHandler<?>) methodParams[rowHandlerIndex], rawType);
+						} else {
+							result = resultIterator;
+						}
+					} else if (returnType instanceof ParameterizedType) {
 						Type[] actualTypes = ((ParameterizedType) returnType).getActualTypeArguments();
 						// 带泛型的，只支持Page、List、Map这样
 						if (Page.class.isAssignableFrom(rawType) || // 如果要求返回类型是Page分页
 								ReflectionUtil.compareType(List.class, rawType)) {
 							
-							convertPageSqlList(sqlList, daoDataSourceName, methodParams, parameterTypes);
-							
-							String sql = unionSqlAry(sqlList,headAfterUnion,tailAfterUnion);
-							result = listResult(actualTypes[0], daoDataSourceName, sql, methodParams, parameterTypes);
-
-							if (Page.class.isAssignableFrom(rawType)) {
-								// 如果是分页，包装返回结果
-								result = pageResult(sql, methodParams, parameterTypes, (List<?>) result, daoDataSourceName);
+							KeysetQuery keysetQuery = KeysetQuery.getInstance(daoDataSourceName, methodParams, parameterTypes);
+							ShardQuery shardQuery = keysetQuery == null ? ShardQuery.getInstance(daoDataSourceName, sqlList, headAfterUnion, tailAfterUnion) : null;
+							if (keysetQuery != null) {
+								// 游标分页，按排序键定位，不用offset
+								result = keysetQueryResult(keysetQuery, rawType, getRowMapper(actualTypes[0]), unionSqlAry(sqlList,headAfterUnion,tailAfterUnion));
+							} else if (shardQuery != null) {
+								// 分片表并行查询，结果在内存里归并
+								result = shardQueryResult(shardQuery, rawType, getRowMapper(actualTypes[0]), tailAfterUnion, methodParams, parameterTypes);
+							} else {
+								convertPageSqlList(sqlList, daoDataSourceName, methodParams, parameterTypes);
+								
+								String sql = unionSqlAry(sqlList,headAfterUnion,tailAfterUnion);
+								result = listResult(actualTypes[0], daoDataSourceName, sql, methodParams, parameterTypes);
+	
+								if (Page.class.isAssignableFrom(rawType)) {
+									// 如果是分页，包装返回结果
+									result = pageResult(sql, methodParams, parameterTypes, (List<?>) result, daoDataSourceName);
+								}
 							}
 						} else if (ReflectionUtil.compareType(Map.class, rawType)) {
 							// Map无所谓里面的泛型
@@ -180,14 +196,24 @@ public final class DaoAspect implements Proxy {
 							} else {
 								result = DataBaseHelper.queryList(sql, methodParams, parameterTypes, dataSourceName);
 							}*/
-							convertPageSqlList(sqlList, daoDataSourceName, methodParams, parameterTypes);
-							
-							String sql = unionSqlAry(sqlList,headAfterUnion,tailAfterUnion);
-							result = listResult(returnType, daoDataSourceName, sql, methodParams, parameterTypes);
-
-							if (Page.class.isAssignableFrom(rawType)) {
-								// 如果是分页，包装返回结果
-								result = pageResult(sql, methodParams, parameterTypes, (List<?>) result, daoDataSourceName);
+							KeysetQuery keysetQuery = KeysetQuery.getInstance(daoDataSourceName, methodParams, parameterTypes);
+							ShardQuery shardQuery = keysetQuery == null ? ShardQuery.getInstance(daoDataSourceName, sqlList, headAfterUnion, tailAfterUnion) : null;
+							if (keysetQuery != null) {
+								// 游标分页，没有泛型的按Map返回
+								result = keysetQueryResult(keysetQuery, rawType, DataBaseHelper.getMapRowMapper(), unionSqlAry(sqlList,headAfterUnion,tailAfterUnion));
+							} else if (shardQuery != null) {
+								// 分片表并行查询，没有泛型的按Map返回
+								result = shardQueryResult(shardQuery, rawType, DataBaseHelper.getMapRowMapper(), tailAfterUnion, methodParams, parameterTypes);
+							} else {
+								convertPageSqlList(sqlList, daoDataSourceName, methodParams, parameterTypes);
+								
+								String sql = unionSqlAry(sqlList,headAfterUnion,tailAfterUnion);
+								result = listResult(returnType, daoDataSourceName, sql, methodParams, parameterTypes);
+	
+								if (Page.class.isAssignableFrom(rawType)) {
+									// 如果是分页，包装返回结果
+									result = pageResult(sql, methodParams, parameterTypes, (List<?>) result, daoDataSourceName);
+								}
 							}
 						} else if (ReflectionUtil.compareType(Map.class, rawType)) {
 							// Map
@@ -233,11 +259,7 @@ public final class DaoAspect implements Proxy {
 							}
 						} else {
 							// Entity
-							if (StringUtil.isEmpty(daoDataSourceName)) {
-								result = DataBaseHelper.queryEntity(rawType, unionSqlAry(sqlList,headAfterUnion,tailAfterUnion), methodParams, parameterTypes);
-							} else {
-								result = DataBaseHelper.queryEntity(rawType, unionSqlAry(sqlList,headAfterUnion,tailAfterUnion), methodParams, parameterTypes, daoDataSourceName);
-							}
+							result = DataBaseHelper.queryEntity(rawType, unionSqlAry(sqlList,headAfterUnion,tailAfterUnion), methodParams, parameterTypes, daoDataSourceName);
 						}
 					}
 				} else {
@@ -245,86 +267,104 @@ public final class DaoAspect implements Proxy {
 					for(int i=0;i<sqlAry.length;i++){
 						sqlAry[i] = sqlList.get(i);
 					}
-					if (StringUtil.isEmpty(daoDataSourceName)) {
-						result = DataBaseHelper.executeUpdate(sqlAry, methodParams, parameterTypes);
-					} else {
-						result = DataBaseHelper.executeUpdate(sqlAry, methodParams, parameterTypes, daoDataSourceName);
-					}
+					result = DataBaseHelper.executeUpdate(sqlAry, methodParams, parameterTypes, daoDataSourceName);
 				}
 			}
-		} else if (BaseRepository.class.isAssignableFrom(daoClass)
-				&& !ReflectionUtil.compareType(BaseRepository.class, daoClass)) {
-			String methodName = targetMethod.getName();
-			Class<?>[] paramAry = targetMethod.getParameterTypes();
-			if ("insertEntity".equals(methodName)) {
+		} else {
+			switch (daoMethod.operation) {
+			case INSERT_ENTITY: {
 				// # Repository.insertEntity(Object entity);
-				if (paramAry.length == 1 && ReflectionUtil.compareType(paramAry[0], Object.class)) {
-					Object entity = methodParams[0];
-					//2018/12/29 插入前分片检测
-					insertDataShardingTableCheck(entity, daoDataSourceName);
-					
-					if (StringUtil.isEmpty(daoDataSourceName)) {
-						result = DataBaseHelper.insertEntity(entity);
-					} else {
-						result = DataBaseHelper.insertEntity(entity, daoDataSourceName);
-					}
+				Object entity = methodParams[0];
+				//2018/12/29 插入前分片检测
+				insertDataShardingTableCheck(entity, daoDataSourceName);
+				
+				result = DataBaseHelper.insertEntity(entity, daoDataSourceName);
 
-					//2018/12/29 插入后的分片数据表状态更新
-					shardingTableStatusCheck(entity, daoDataSourceName);
-				}
-			} else if ("deleteEntity".equals(methodName)) {
+				//2018/12/29 插入后的分片数据表状态更新
+				shardingRowCountChange(entity, daoDataSourceName, 1);
+				break;
+			}
+			case DELETE_ENTITY: {
 				// # Repository.deleteEntity(Object entity);
-				if (paramAry.length == 1 && ReflectionUtil.compareType(paramAry[0], Object.class)) {
-					Object entity = methodParams[0];
-					if (StringUtil.isEmpty(daoDataSourceName)) {
-						result = DataBaseHelper.deleteEntity(entity);
-					} else {
-						result = DataBaseHelper.deleteEntity(entity, daoDataSourceName);
-					}
-					//2018/12/29 插入后的分片数据表状态更新
-					shardingTableStatusCheck(entity, daoDataSourceName);
-				}
-			} else if ("updateEntity".equals(methodName)) {
+				Object entity = methodParams[0];
+				result = DataBaseHelper.deleteEntity(entity, daoDataSourceName);
+				//2018/12/29 删除后的分片数据表行数更新
+				shardingRowCountChange(entity, daoDataSourceName, -CastUtil.castInteger(result));
+				break;
+			}
+			case UPDATE_ENTITY: {
 				// # Repository.updateEntity(Object entity);
-				if (paramAry.length == 1 && ReflectionUtil.compareType(paramAry[0], Object.class)) {
-					Object entity = methodParams[0];
-					if (StringUtil.isEmpty(daoDataSourceName)) {
-						result = DataBaseHelper.updateEntity(entity);
-					} else {
-						result = DataBaseHelper.updateEntity(entity, daoDataSourceName);
-					}
-				}
-			} else if ("getEntity".equals(methodName)) {
+				Object entity = methodParams[0];
+				result = DataBaseHelper.updateEntity(entity, daoDataSourceName);
+				break;
+			}
+			case GET_ENTITY: {
 				// # Repository.getEntity(T entity);
-				if (paramAry.length == 1 && ReflectionUtil.compareType(paramAry[0], Object.class)) {
-					Object entity = methodParams[0];
-					if (StringUtil.isEmpty(daoDataSourceName)) {
-						result = DataBaseHelper.getEntity(entity);
-					} else {
-						result = DataBaseHelper.getEntity(entity, daoDataSourceName);
-					}
-				}
-			} else if ("saveEntity".equals(methodName)) {
+				Object entity = methodParams[0];
+				result = DataBaseHelper.getEntity(entity, daoDataSourceName);
+				break;
+			}
+			case SAVE_ENTITY: {
 				// # Repository.saveEntity(Object entity);
-				if (paramAry.length == 1 && ReflectionUtil.compareType(paramAry[0], Object.class)) {
-					Object entity = methodParams[0];
-					//2018/12/29 插入前分片检测
-					insertDataShardingTableCheck(entity, daoDataSourceName);
-					
-					if (StringUtil.isEmpty(daoDataSourceName)) {
-						result = DataBaseHelper.insertOnDuplicateKeyEntity(entity);
-					} else {
-						result = DataBaseHelper.insertOnDuplicateKeyEntity(entity, daoDataSourceName);
-					}
-					
-					//2018/12/29 插入后的分片数据表状态更新
-					shardingTableStatusCheck(entity, daoDataSourceName);
+				Object entity = methodParams[0];
+				//2018/12/29 插入前分片检测
+				insertDataShardingTableCheck(entity, daoDataSourceName);
+				
+				result = DataBaseHelper.insertOnDuplicateKeyEntity(entity, daoDataSourceName);
+				
+				//2018/12/29 插入后的分片数据表状态更新，save可能是更新，行数按新增算，只会让分片早一点关闭
+				shardingRowCountChange(entity, daoDataSourceName, 1);
+				break;
+			}
+			case INSERT_ENTITIES: {
+				// # Repository.insertEntities(List<T> entityList);
+				List<?> entityList = (List<?>) methodParams[0];
+				String dataSourceName = getEntitiesDataSourceName(entityList, daoDataSourceName);
+				for (Object entity : entityList) {
+					insertDataShardingTableCheck(entity, dataSourceName);
 				}
-			} else {
+				result = DataBaseHelper.insertEntities(entityList, dataSourceName);
+				for (Object entity : entityList) {
+					shardingRowCountChange(entity, dataSourceName, 1);
+				}
+				break;
+			}
+			case DELETE_ENTITIES: {
+				// # Repository.deleteEntities(List<?> entityList);
+				List<?> entityList = (List<?>) methodParams[0];
+				String dataSourceName = getEntitiesDataSourceName(entityList, daoDataSourceName);
+				int[] rowsAry = DataBaseHelper.deleteEntities(entityList, dataSourceName);
+				int rows = 0;
+				for (int i = 0; i < rowsAry.length; i++) {
+					rows = rows + rowsAry[i];
+					shardingRowCountChange(entityList.get(i), dataSourceName, -rowsAry[i]);
+				}
+				result = rows;
+				break;
+			}
+			case UPDATE_ENTITIES: {
+				// # Repository.updateEntities(List<?> entityList);
+				List<?> entityList = (List<?>) methodParams[0];
+				result = DataBaseHelper.updateEntities(entityList, getEntitiesDataSourceName(entityList, daoDataSourceName));
+				break;
+			}
+			case SAVE_ENTITIES: {
+				// # Repository.saveEntities(List<T> entityList);
+				List<?> entityList = (List<?>) methodParams[0];
+				String dataSourceName = getEntitiesDataSourceName(entityList, daoDataSourceName);
+				for (Object entity : entityList) {
+					insertDataShardingTableCheck(entity, dataSourceName);
+				}
+				result = DataBaseHelper.insertOnDuplicateKeyEntities(entityList, dataSourceName);
+				for (Object entity : entityList) {
+					shardingRowCountChange(entity, dataSourceName, 1);
+				}
+				break;
+			}
+			default:
 				result = proxyChain.doProxyChain();
+				break;
 			}
-		} else {
-			result = proxyChain.doProxyChain();
 		}
 
 		// 如果有Sql结果代理器，那么代理一下
@@ -334,6 +374,72 @@ public final class DaoAspect implements Proxy {
 		return result;
 	}
 	
+	/**
+	 * Iterator<T>、RowHandler<T>里的T，没有泛型的当作Map
+	 */
+	private Type getActualType(Type type){
+		if(type instanceof ParameterizedType){
+			Type[] actualTypes = ((ParameterizedType) type).getActualTypeArguments();
+			if(actualTypes.length > 0){
+				return actualTypes[0];
+			}
+		}
+		return Map.class;
+	}
+	
+	/**
+	 * 游标方式的行映射，与List<T>支持的元素类型一致
+	 */
+	private RowMapper<?> getRowMapper(Type rowType){
+		Class<?> rowClass = null;
+		if(rowType instanceof Class){
+			rowClass = (Class<?>) rowType;
+		}else if(rowType instanceof ParameterizedType){
+			rowClass = (Class<?>) ((ParameterizedType) rowType).getRawType();
+		}
+		if(rowClass == null || ReflectionUtil.compareType(Object.class, rowClass) || ReflectionUtil.compareType(Map.class, rowClass)){
+			// ?、Object、Map
+			return DataBaseHelper.getMapRowMapper();
+		}
+		if (ReflectionUtil.compareType(String.class, rowClass)
+				|| ReflectionUtil.compareType(Date.class, rowClass)
+				|| ReflectionUtil.compareType(Byte.class, rowClass)
+				|| ReflectionUtil.compareType(Boolean.class, rowClass)
+				|| ReflectionUtil.compareType(Short.class, rowClass)
+				|| ReflectionUtil.compareType(Character.class, rowClass)
+				|| ReflectionUtil.compareType(Integer.class, rowClass)
+				|| ReflectionUtil.compareType(Long.class, rowClass)
+				|| ReflectionUtil.compareType(Float.class, rowClass)
+				|| ReflectionUtil.compareType(Double.class, rowClass)) {
+			return DataBaseHelper.getFirstColumnRowMapper(rowClass);
+		}
+		// Entity
+		return DataBaseHelper.getEntityRowMapper(rowClass);
+	}
+	
+	/**
+	 * 逐行交给RowHandler，结束后释放游标
+	 * 方法返回类型是int、long的，返回处理的行数
+	 */
+	@SuppressWarnings("unchecked")
+	private Object handleRows(ResultIterator<?> resultIterator, RowHandler<?> rowHandler, Class<?> rawType) throws Exception{
+		long count = 0;
+		try {
+			while(resultIterator.hasNext()){
+				((RowHandler<Object>) rowHandler).handle(resultIterator.next());
+				count++;
+			}
+		} finally {
+			resultIterator.close();
+		}
+		if(ReflectionUtil.compareType(long.class, rawType) || ReflectionUtil.compareType(Long.class, rawType)){
+			return count;
+		}else if(ReflectionUtil.compareType(int.class, rawType) || ReflectionUtil.compareType(Integer.class, rawType)){
+			return (int) count;
+		}
+		return null;
+	}
+	
 	//对sqlList中的每句Sql都预先做分页处理，进入DataBaseHelper后，会对总句进行分页处理
 	private void convertPageSqlList(List<String> sqlList,String dataSourceName,Object[] methodParams, Class<?>[] parameterTypes){
 		if(CollectionUtil.isNotEmpty(sqlList) && sqlList.size() > 1){
@@ -352,6 +458,175 @@ public final class DaoAspect implements Proxy {
 		}
 	}
 	
+	/**
+	 * 批量操作的数据源，Dao没有指定的，用第一个实体的数据源
+	 */
+	private String getEntitiesDataSourceName(List<?> entityList, String daoDataSourceName){
+		if (StringUtil.isEmpty(daoDataSourceName) && !entityList.isEmpty()) {
+			return TableHelper.getCachedTableSchema(entityList.get(0)).getDataSourceName();
+		}
+		return daoDataSourceName;
+	}
+	
+	/**
+	 * 按WHERE里绑定的分片键值算出分片，不能确定的返回null
+	 */
+	private Integer getRoutedShardingFlag(SqlTemplate sqlTemplate, TableSchema tableSchema, Object[] methodParams){
+		int paramIndex = sqlTemplate.getShardingKeyParamIndex();
+		if(paramIndex < 0 || tableSchema.getShardingStrategy() == null || paramIndex >= methodParams.length){
+			return null;
+		}
+		Object shardingKeyValue = methodParams[paramIndex];
+		if(shardingKeyValue == null || shardingKeyValue instanceof List){
+			return null;
+		}
+		//Dao参数的类型可能和实体字段不一样，比如字段是Long，参数传的String，要先转成字段的类型再算分片
+		//转不了的不做路由，查全部分片
+		Class<?> fieldType = tableSchema.getShardingKeyColumn().getColumnSchema().getField().getType();
+		try {
+			shardingKeyValue = CastUtil.castType(shardingKeyValue, fieldType);
+		} catch (Exception e) {
+			return null;
+		}
+		boolean typeMatched = fieldType.isPrimitive() ? 
+				shardingKeyValue instanceof Number || shardingKeyValue instanceof Boolean || shardingKeyValue instanceof Character : 
+				fieldType.isInstance(shardingKeyValue);
+		if(!typeMatched){
+			return null;
+		}
+		return tableSchema.getShardingStrategy().shardingFlag(shardingKeyValue);
+	}
+	
+	/**
+	 * 取@Sql的语句模板
+	 * 没有#拼接指令时，语句是固定的，编译一次后按方法缓存
+	 * 有#拼接指令的，先拼好再编译，每次调用都要重新来
+	 */
+	private SqlTemplate getSqlTemplate(DaoMethod daoMethod, Object[] methodParams){
+		if(daoMethod.sqlTemplate != null){
+			return daoMethod.sqlTemplate;
+		}
+		// #解析指令代码
+		Sql sqlAnnotation = daoMethod.sqlAnnotation;
+		String rawSql = CommonSqlUtil.convertSqlAppendCommand(sqlAnnotation.value(), methodParams);
+		String headAfterUnion = CommonSqlUtil.convertSqlAppendCommand(sqlAnnotation.headAfterUnion(), methodParams);//2019/2/14 sql头部补充
+		String tailAfterUnion = CommonSqlUtil.convertSqlAppendCommand(sqlAnnotation.tailAfterUnion(), methodParams);//2019/2/14 sql尾句补充
+		return CommonSqlUtil.compileSqlTemplate(rawSql, headAfterUnion, tailAfterUnion);
+	}
+	
+	private DaoMethod getDaoMethod(Class<?> daoClass, Method targetMethod){
+		Map<Method, DaoMethod> daoMethodMap = DAO_METHOD_CACHE.get(daoClass);
+		if(daoMethodMap == null){
+			daoMethodMap = new ConcurrentHashMap<>();
+			Map<Method, DaoMethod> existMap = DAO_METHOD_CACHE.putIfAbsent(daoClass, daoMethodMap);
+			daoMethodMap = existMap == null ? daoMethodMap : existMap;
+		}
+		DaoMethod daoMethod = daoMethodMap.get(targetMethod);
+		if(daoMethod == null){
+			daoMethod = new DaoMethod(daoClass, targetMethod);
+			daoMethodMap.put(targetMethod, daoMethod);
+		}
+		return daoMethod;
+	}
+	
+	/**
+	 * Dao方法要执行的操作
+	 * BaseRepository的方法按方法名和参数类型确定，不符合的交给代理链
+	 */
+	private enum Operation{
+		SQL(null),
+		INSERT_ENTITY(Object.class),
+		DELETE_ENTITY(Object.class),
+		UPDATE_ENTITY(Object.class),
+		GET_ENTITY(Object.class),
+		SAVE_ENTITY(Object.class),
+		INSERT_ENTITIES(List.class),
+		DELETE_ENTITIES(List.class),
+		UPDATE_ENTITIES(List.class),
+		SAVE_ENTITIES(List.class),
+		PROCEED(null);
+		
+		private final Class<?> paramType;
+		
+		private Operation(Class<?> paramType) {
+			this.paramType = paramType;
+		}
+		
+		private static Operation of(Class<?> daoClass, Method method){
+			if(method.isAnnotationPresent(Sql.class)){
+				return SQL;
+			}
+			if(BaseRepository.class.isAssignableFrom(daoClass) && !ReflectionUtil.compareType(BaseRepository.class, daoClass)){
+				// insertEntity -> INSERT_ENTITY
+				String name = method.getName().replaceAll("([A-Z])", "_$1").toUpperCase();
+				Class<?>[] paramAry = method.getParameterTypes();
+				for(Operation operation:values()){
+					if(operation.paramType != null && operation.name().equals(name) 
+							&& paramAry.length == 1 && ReflectionUtil.compareType(paramAry[0], operation.paramType)){
+						return operation;
+					}
+				}
+			}
+			return PROCEED;
+		}
+	}
+	
+	/**
+	 * 一个Dao方法的调用信息，代替每次调用时的注解读取、方法名比较和结果代理器的反射创建
+	 * 所以SqlResultProxy的实现要是无状态的，每个方法只有一个实例
+	 */
+	private static final class DaoMethod{
+		private final Operation operation;
+		private final String dataSourceName;
+		private final Class<?>[] parameterTypes;
+		private final Type returnType;
+		private final Class<?> rawType;
+		private final SqlResultProxy sqlResultProxy;
+		/**
+		 * 参数里RowHandler的位置，没有是-1
+		 * 普通?占位符模式下，参数是按顺序取值的，所以RowHandler要放在最后
+		 */
+		private final int rowHandlerIndex;
+		private final Sql sqlAnnotation;
+		/**
+		 * 没有#拼接指令的语句模板，有指令的是null，每次调用按参数编译
+		 */
+		private final SqlTemplate sqlTemplate;
+		
+		private DaoMethod(Class<?> daoClass, Method method) {
+			this.operation = Operation.of(daoClass, method);
+			String dataSourceName = daoClass.getAnnotation(Dao.class).dataSource();
+			this.dataSourceName = StringUtil.isEmpty(dataSourceName) ? DataSourceHelper.getDefaultDataSourceName() : dataSourceName;
+			this.parameterTypes = method.getParameterTypes();
+			if (method.isAnnotationPresent(ResultProxy.class)) {
+				ResultProxy resultProxy = method.getAnnotation(ResultProxy.class);
+				this.returnType = resultProxy.returnType();
+				this.rawType = resultProxy.rawType();
+				this.sqlResultProxy = ReflectionUtil.newInstance(resultProxy.value());
+			} else {
+				this.returnType = method.getGenericReturnType();
+				this.rawType = method.getReturnType();
+				this.sqlResultProxy = null;
+			}
+			int rowHandlerIndex = -1;
+			for(int i=0;i<parameterTypes.length;i++){
+				if(RowHandler.class.isAssignableFrom(parameterTypes[i])){
+					rowHandlerIndex = i;
+					break;
+				}
+			}
+			this.rowHandlerIndex = rowHandlerIndex;
+			this.sqlAnnotation = method.getAnnotation(Sql.class);
+			if (sqlAnnotation != null && !CommonSqlUtil.hasSqlAppendCommand(sqlAnnotation.value())
+					&& !CommonSqlUtil.hasSqlAppendCommand(sqlAnnotation.headAfterUnion())
+					&& !CommonSqlUtil.hasSqlAppendCommand(sqlAnnotation.tailAfterUnion())) {
+				this.sqlTemplate = CommonSqlUtil.compileSqlTemplate(sqlAnnotation.value(), sqlAnnotation.headAfterUnion(), sqlAnnotation.tailAfterUnion());
+			} else {
+				this.sqlTemplate = null;
+			}
+		}
+	}
+	
 	private String unionSqlAry(List<String> sqlList,String headAfterUnion,String tailAfterUnion){
 		//Select 需要聚合union all所有结果
 		StringBuilder sqlBuf = new StringBuilder();
@@ -485,6 +760,32 @@ public final class DaoAspect implements Proxy {
 		return result;
 	}
 
+	/**
+	 * 分片并行查询的List、Page结果，Page的总数是各分片count的和
+	 */
+	private Object shardQueryResult(ShardQuery shardQuery, Class<?> rawType, RowMapper<?> rowMapper, String tailAfterUnion, 
+			Object[] methodParams, Class<?>[] parameterTypes) throws SQLException {
+		List<?> records = shardQuery.queryList(tailAfterUnion, methodParams, parameterTypes, rowMapper);
+		if (Page.class.isAssignableFrom(rawType)) {
+			PageConfig pageConfig = CommonSqlUtil.getPageConfigFromParams(methodParams, parameterTypes);
+			return pageResult(records, pageConfig, shardQuery.countQuery(methodParams, parameterTypes));
+		}
+		return records;
+	}
+	
+	/**
+	 * 游标分页的List、Page结果，Page带上下一页的游标
+	 */
+	private Object keysetQueryResult(KeysetQuery keysetQuery, Class<?> rawType, RowMapper<?> rowMapper, String sql) throws SQLException {
+		List<?> records = keysetQuery.queryList(sql, rowMapper);
+		if (Page.class.isAssignableFrom(rawType)) {
+			long count = countQuery(sql, keysetQuery.getParams(), keysetQuery.getParamTypes(), keysetQuery.getPageConfig(), keysetQuery.getDataSourceName());
+			Page<?> page = pageResult(records, keysetQuery.getPageConfig(), count);
+			return new Page<>(page.getRecords(), page.getPageConfig(), page.getCount(), page.getPages(), keysetQuery.getNextCursor());
+		}
+		return records;
+	}
+
 	/**
 	 * 包装List返回结果成分页
 	 */
@@ -500,11 +801,30 @@ public final class DaoAspect implements Proxy {
 		for (int i = 0; i < paramTypes_.length; i++) {
 			paramTypes_[i] = paramTypes[i];
 		}
-		long count = 0;
+		long count = countQuery(sql, params_, paramTypes_, pageConfig, dataSourceName);
+		return pageResult(records, pageConfig, count);
+	}
+	
+	/**
+	 * 按PageConfig的CountMode查总数，不查的返回-1
+	 */
+	private long countQuery(String sql, Object[] params, Class<?>[] paramTypes, PageConfig pageConfig, String dataSourceName) {
+		CountMode countMode = pageConfig == null ? CountMode.EXACT : pageConfig.getCountMode();
+		if (countMode == CountMode.NONE) {
+			return -1;
+		}
 		if (StringUtil.isEmpty(dataSourceName)) {
-			count = DataBaseHelper.countQuery(sql, params_, paramTypes_);
-		} else {
-			count = DataBaseHelper.countQuery(sql, params_, paramTypes_, dataSourceName);
+			dataSourceName = DataSourceHelper.getDefaultDataSourceName();
+		}
+		if (countMode == CountMode.ESTIMATE) {
+			return DataBaseHelper.estimateCountQuery(sql, params, paramTypes, dataSourceName);
+		}
+		return DataBaseHelper.countQuery(sql, params, paramTypes, dataSourceName);
+	}
+	
+	private <T> Page<T> pageResult(List<T> records, PageConfig pageConfig, long count) {
+		if (count < 0) {
+			return new Page<>(records, pageConfig, -1, -1);
 		}
 		pageConfig = pageConfig == null ? new PageConfig(1, count) : pageConfig;
 		long pages = count / pageConfig.getPageSize();
@@ -530,26 +850,38 @@ public final class DaoAspect implements Proxy {
 			
 			//*注意，这里的查询，都是排序后取的第一条，但是没用limit或者top，因为都是方言，所以只需要排序，DataBaseHelper.queryPrimitive默认会返回第一条
 			Sharding sentity = (Sharding)entity;
+			if(tableSchema.getShardingStrategy() != null){
+				//按策略路由的，分片表由分片键决定，还没有就先建上
+				TableHelper.getRealTableName(entity);
+				int shardingFlag = sentity.getShardingFlag();
+				List<String> shardingTableCreateSqlAry = new ArrayList<>();
+				if(DataSourceHelper.isMySql(dataSourceName)){
+					shardingTableCreateSqlAry.add(MySqlUtil.getTableCreateSql(dataSourceName,entity));
+				}else if(DataSourceHelper.isOracle(dataSourceName)){
+					shardingTableCreateSqlAry = OracleUtil.getTableCreateSql(dataSourceName,entity);
+				}else {
+					throw new Exception(tableSchema.getEntityClass().getName()+" sharding table create failed, unspported dbtype driver, only mysql/oracle");
+				}
+				ShardDirectory.getInstance(dataSourceName, tableSchema.getTableName()).createShardIfAbsent(shardingFlag, 
+						shardingTableCreateSqlAry.toArray(new String[shardingTableCreateSqlAry.size()]), 
+						CommonSqlUtil.getShardingGtTableRecordSql(tableSchema, shardingFlag));
+				return;
+			}
 			//如果是新增，数据分片id还是空的，就需要计算分片id，新增数据表等等的检测
 			//如果是保存，那就不需要了。
 			if(sentity.getShardingFlag() == null){
-				//查询当前可以插入的表分片的id
-				StringBuilder sqlBuffer = new StringBuilder();
-				sqlBuffer.append("SELECT sharding_flag FROM ")
-				.append(tableSchema.getTableName())
-				.append("_sharding_gt WHERE sharding_table_status=1 ORDER BY sharding_flag ASC");
-				Integer shardingFlag = null;
-				shardingFlag = DataBaseHelper.queryPrimitive(sqlBuffer.toString(), new Object[]{}, new Class<?>[]{},dataSourceName);
+				//查询当前可以插入的表分片的id，从分片目录缓存里取
+				ShardDirectory shardDirectory = ShardDirectory.getInstance(dataSourceName, tableSchema.getTableName());
+				Integer shardingFlag = shardDirectory.getOpenShardingFlag();
 				
 				if(shardingFlag == null){
 					//如果是空，没有可用的分片id，需要新增分片记录和分片数据表
 					//#1.计算新的分片id
-					//那么继续看，最后一条不可用的分片id是多少，倒序排序，取第一条
-					sqlBuffer.setLength(0);
-					sqlBuffer.append("SELECT sharding_flag FROM ")
-					.append(tableSchema.getTableName())
-					.append("_sharding_gt WHERE sharding_table_status=0 ORDER BY sharding_flag DESC");//这里不加limit因为标准sql，不能有方言
-					shardingFlag = DataBaseHelper.queryPrimitive(sqlBuffer.toString(), new Object[]{}, new Class<?>[]{},dataSourceName);
+					//那么继续看，最后一条不可用的分片id是多少
+					shardingFlag = shardDirectory.getMaxShardingFlag();
+					if(shardingFlag == null){
+						throw new Exception(tableSchema.getTableName()+"_sharding_gt has no sharding record");
+					}
 					//先将entity数据对象的分片标识+1，下面开始构建新的分片数据表，但是由于分片数据表要退出事务后才创建，所以等下还得把分片标识先改回来
 					sentity.setShardingFlag(shardingFlag+1);
 					
@@ -597,10 +929,10 @@ public final class DaoAspect implements Proxy {
 	/**
 	 * 2018/12/29
 	 * 分片数据表状态检测
-	 * 在insert和save时候做检测，因为这种情况下会对表的行数产生影响
-	 * delete暂时不做检测，一旦表已经被关闭插入，那么就不打开了
+	 * 在insert、save、delete后记录行数变化，行数只在内存里计数，由ShardDirectory定时刷回_sharding_gt表
+	 * 达到oneTableMaxCount后关闭这个分片的插入，一旦表已经被关闭插入，那么就不打开了
 	 */
-	private void shardingTableStatusCheck(Object entity,String dataSourceName) throws Exception{
+	private void shardingRowCountChange(Object entity,String dataSourceName,long delta) throws Exception{
 		TableSchema tableSchema = TableHelper.getCachedTableSchema(entity);
 		
 		//只有需要分片的，才处理
@@ -609,25 +941,13 @@ public final class DaoAspect implements Proxy {
 				dataSourceName = tableSchema.getDataSourceName();
 			}
 			
-			//*注意，这里的查询，都是排序后取的第一条，但是没用limit或者top，因为都是方言，所以只需要排序，DataBaseHelper.queryPrimitive默认会返回第一条
 			Sharding sentity = (Sharding)entity;
 			if(sentity.getShardingFlag() == null){
 				throw new Exception("shardingFlag is null");
 			}
-			
-			//查询当前可以插入的表分片的id
-			StringBuilder sqlBuffer = new StringBuilder();
-			sqlBuffer.append("SELECT count(1) FROM ").append(TableHelper.getRealTableName(entity));
-			long row_count = DataBaseHelper.queryPrimitive(sqlBuffer.toString(), new Object[]{}, new Class<?>[]{},dataSourceName);
-			sqlBuffer.setLength(0);
-			sqlBuffer.append("UPDATE ")
-			.append(tableSchema.getTableName())
-			.append("_sharding_gt set row_count=").append(row_count);
-			if(row_count >= sentity.oneTableMaxCount()){
-				sqlBuffer.append(",sharding_table_status=0");
-			}
-			sqlBuffer.append(" where sharding_flag=").append(sentity.getShardingFlag());
-			DataBaseHelper.executeUpdate(new String[]{sqlBuffer.toString()}, new Object[]{}, new Class<?>[]{},dataSourceName);
+			//按策略路由的分片不会关闭
+			long oneTableMaxCount = tableSchema.getShardingStrategy() == null ? sentity.oneTableMaxCount() : Long.MAX_VALUE;
+			ShardDirectory.getInstance(dataSourceName, tableSchema.getTableName()).addRowCount(sentity.getShardingFlag(), delta, oneTableMaxCount);
 		}
 	}
 	
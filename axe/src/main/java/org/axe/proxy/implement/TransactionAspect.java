@@ -26,11 +26,13 @@ package org.axe.proxy.implement;
 import java.lang.reflect.Method;
 import java.sql.SQLException;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.Set;
 
 import org.axe.annotation.aop.Aspect;
 import org.axe.annotation.ioc.Service;
 import org.axe.annotation.persistence.Tns;
+import org.axe.bean.persistence.ShardDirectory;
 import org.axe.bean.persistence.ShardingTableCreateTask;
 import org.axe.helper.persistence.DataBaseHelper;
 import org.axe.proxy.base.AspectProxy;
@@ -39,14 +41,22 @@ import org.axe.util.LogUtil;
 /**
  * 事务代理
  * 代理所有 @Service注解的类
- * 只增强 @Tns注解的方法
+ * 只增强 @Tns注解的方法，切点在创建代理时解析，没有@Tns的方法不进代理链
  * @author CaiDongyu on 2016/4/19.
  */
 @Aspect(Service.class)
 public final class TransactionAspect extends AspectProxy {
-    private static final ThreadLocal<String> TNS_POINT_FLAG_HOLDER = new ThreadLocal<>();
-    private static final ThreadLocal<String> SHARDING_TABLE_CREATE_TASK_POINT_FLAG_HOLDER = new ThreadLocal<>();
+    private static final ThreadLocal<Object> SHARDING_TABLE_CREATE_TASK_POINT_FLAG_HOLDER = new ThreadLocal<>();
     private static final ThreadLocal<Set<ShardingTableCreateTask>> SHARDING_TABLE_CREATE_TASK_HOLDER = new ThreadLocal<>();
+    /**
+     * 每次调用一层，记录before是否压了事务栈，没压的after、error不能提交或回滚，否则弹掉的是外层的事务
+     */
+    private static final ThreadLocal<LinkedList<Boolean>> FRAME_PUSHED_HOLDER = new ThreadLocal<LinkedList<Boolean>>(){
+    	@Override
+    	protected LinkedList<Boolean> initialValue() {
+    		return new LinkedList<>();
+    	}
+    };
     
     /**
      * 添加分片表创建任务
@@ -57,7 +67,7 @@ public final class TransactionAspect extends AspectProxy {
     		//如果，是经过Service然后调用的Dao，那么这肯定会有值
     		set.add(task);
     	}else{
-    		String methodPoint = "Dao";
+    		Object methodPoint = "Dao";
     		//如果是从别的地方，直接调用的Dao，那么就没有这个值，也不存在事务，那么，可以直接创建此表了
     		SHARDING_TABLE_CREATE_TASK_POINT_FLAG_HOLDER.set(methodPoint);
     		HashSet<ShardingTableCreateTask> taskSet = new HashSet<ShardingTableCreateTask>();
@@ -67,22 +77,31 @@ public final class TransactionAspect extends AspectProxy {
     	}
     }
 
+    @Override
+    public boolean pointcut(Class<?> cls, Method method) {
+    	return method.isAnnotationPresent(Tns.class);
+    }
+
+    @Override
+    public void begin() {
+    	FRAME_PUSHED_HOLDER.get().push(Boolean.FALSE);
+    }
+
     @Override
     public void before(Class<?> cls, Method method, Object[] params) throws Throwable {
-    	String methodPoint = method.toGenericString();
+    	//方法本身作为切入点标记，不用每次拼接方法签名
+    	Object methodPoint = method;
     	
-    	//TODO:事务的传播机制
-    	//目前比较简单，只是在哪儿打开，就在哪儿关闭，比如方法1通过托管获取并执行了其他Service方法，那么如果要打开事务，就只会打开一次
-        String tnsPointFlag = TNS_POINT_FLAG_HOLDER.get();
-        //开启事务，条件：1.没有打开过事务。2.方法上有@Tns注解
-        if(tnsPointFlag == null && method.isAnnotationPresent(Tns.class)){
-            DataBaseHelper.beginTransaction();
-            TNS_POINT_FLAG_HOLDER.set(methodPoint);
-//            LogUtil.log("begin transaction on point:"+methodPoint);
+    	//事务的传播机制，每个@Tns方法在线程的事务上下文里压一层，由传播方式决定加入、新开还是挂起
+        Tns tns = method.getAnnotation(Tns.class);
+        if(tns != null){
+        	DataBaseHelper.beginTransaction(tns.propagation(), tns.readOnly(), tns.timeout());
+        	FRAME_PUSHED_HOLDER.get().set(0, Boolean.TRUE);
+//        	LogUtil.log("begin transaction on point:"+methodPoint);
         }
         
         //分片表的创建机制，在进入第一层事务切面的时候，会添加这个分片表set，供后续Dao切面使用
-        String shardingTableCreateTaskPointFlag = SHARDING_TABLE_CREATE_TASK_POINT_FLAG_HOLDER.get();
+        Object shardingTableCreateTaskPointFlag = SHARDING_TABLE_CREATE_TASK_POINT_FLAG_HOLDER.get();
         if(shardingTableCreateTaskPointFlag == null){
         	SHARDING_TABLE_CREATE_TASK_POINT_FLAG_HOLDER.set(methodPoint);
         	SHARDING_TABLE_CREATE_TASK_HOLDER.set(new HashSet<ShardingTableCreateTask>());
@@ -93,15 +112,14 @@ public final class TransactionAspect extends AspectProxy {
     
     @Override
     public void after(Class<?> cls, Method method, Object[] params, Object result) throws Throwable {
-    	String methodPoint = method.toGenericString();
+    	Object methodPoint = method;
     	
-    	String tnsPointFlag = TNS_POINT_FLAG_HOLDER.get();
-    	//提交事务关闭连接，条件：1.开启过事务。2.在这个方法上开启了事务。3.方法上有@Tns注解
-    	if(tnsPointFlag != null && tnsPointFlag.equals(methodPoint) && method.isAnnotationPresent(Tns.class)){
-        	DataBaseHelper.commitTransaction();
-        	TNS_POINT_FLAG_HOLDER.remove();
-//        	LogUtil.log("commit transaction on point:"+methodPoint);
-        }
+    	//弹出这一层，是这一层开启的事务才会真正提交；提交失败时这一层还在，留给error回滚弹出
+    	if(FRAME_PUSHED_HOLDER.get().peek()){
+    		DataBaseHelper.commitTransaction();
+    		FRAME_PUSHED_HOLDER.get().set(0, Boolean.FALSE);
+    	}
+//    	LogUtil.log("commit transaction on point:"+methodPoint);
     	
     	//执行并清空掉分片数据表创建任务
     	doShardingTableCreateTask(methodPoint);
@@ -109,22 +127,30 @@ public final class TransactionAspect extends AspectProxy {
     
     @Override
     public void error(Class<?> cls, Method method, Object[] params, Throwable e) {
-    	String methodPoint = method.toGenericString();
+    	Object methodPoint = method;
     	
     	//回退事务
-    	String tnsPointFlag = TNS_POINT_FLAG_HOLDER.get();
-    	if(tnsPointFlag != null && tnsPointFlag.equals(methodPoint) && method.isAnnotationPresent(Tns.class)){
-    		 DataBaseHelper.rollbackTransaction();
-             TNS_POINT_FLAG_HOLDER.remove();
-//             LogUtil.log("rollback transaction on point:"+methodPoint);
+    	if(FRAME_PUSHED_HOLDER.get().peek()){
+    		FRAME_PUSHED_HOLDER.get().set(0, Boolean.FALSE);
+    		DataBaseHelper.rollbackTransaction();
     	}
+//    	LogUtil.log("rollback transaction on point:"+methodPoint);
     	
     	//执行并清空掉分片数据表创建任务
     	doShardingTableCreateTask(methodPoint);
     }
     
-    private static void doShardingTableCreateTask(String methodPoint){
-        String shardingTableCreateTaskPointFlag = SHARDING_TABLE_CREATE_TASK_POINT_FLAG_HOLDER.get();
+    @Override
+    public void end() {
+    	LinkedList<Boolean> framePushedList = FRAME_PUSHED_HOLDER.get();
+    	framePushedList.pop();
+    	if(framePushedList.isEmpty()){
+    		FRAME_PUSHED_HOLDER.remove();
+    	}
+    }
+    
+    private static void doShardingTableCreateTask(Object methodPoint){
+        Object shardingTableCreateTaskPointFlag = SHARDING_TABLE_CREATE_TASK_POINT_FLAG_HOLDER.get();
     	if(shardingTableCreateTaskPointFlag != null && shardingTableCreateTaskPointFlag.equals(methodPoint)){
     		//分片表与事务无关，事务是否成功都对新增分片表无影响
     		
@@ -145,6 +171,8 @@ public final class TransactionAspect extends AspectProxy {
 							throw e;
 						}
 					}
+					//分片记录变了，分片目录缓存失效
+					ShardDirectory.invalidate(task.getDataSourceName(), task.getTableName());
 					
     			} catch (SQLException e) {
 	                LogUtil.error(new Exception("do sharding table ["+task.getTableName()+"]["+task.getShardingFlag()+"] create task failure"));
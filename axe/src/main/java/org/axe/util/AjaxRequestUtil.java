@@ -32,6 +32,9 @@ import javax.servlet.http.HttpServletRequest;
 import org.axe.bean.mvc.FormParam;
 import org.axe.bean.mvc.Param;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
 /**
  * 请求助手类
  * @author CaiDongyu on 2016/4/25.
@@ -40,29 +43,76 @@ public final class AjaxRequestUtil {
 	
 	private AjaxRequestUtil() {}
 	
-	@SuppressWarnings("unchecked")
-	public static void initParam(Param param,HttpServletRequest request,String requestPath,String mappingPath)throws Exception{
+	public static void initParam(Param param,HttpServletRequest request)throws Exception{
         List<FormParam> formParamList = new ArrayList<>();
-        formParamList.addAll(RequestUtil.parseParameter(request,requestPath,mappingPath));
+        formParamList.addAll(RequestUtil.parseParameter(request,param));
 //        String body = CodeUtil.decodeURL(StreamUtil.getString(request.getInputStream()));
-        String body = "";
+        //body只读一次原始字节，字符串和Map都交给Param按需解析
+        byte[] bodyBytes = null;
         try {
-        	body=StreamUtil.getString(request.getInputStream());
+        	bodyBytes=StreamUtil.getBytes(request.getInputStream());
 		} catch (Exception e) {}
-        Map<String,Object> bodyParamMap = null;
-    	if(StringUtil.isNotEmpty(body)){
-    		body = body.trim();
-    		if(body.startsWith("[") && body.endsWith("]")){
-    			body = "{\"\":"+body+"}";
-    		}
-    		if(body.startsWith("{")){
-    			try {
-    				bodyParamMap = JsonUtil.fromJson(body, Map.class);
-                } catch (Exception e){
-                	throw new Exception("read body to json failure",e);
-                }
-    		}
-    	}
-        param.init(body,formParamList,null,bodyParamMap);
+        param.initLazy(bodyBytes,formParamList);
     }
+	
+	/**
+	 * body字节转字符串，与原先按行读取的结果一致：去掉换行、首尾空白，数组包装成 {"":[...]}
+	 */
+	public static String decodeBody(byte[] bodyBytes){
+		String body = new String(bodyBytes);
+		if(body.indexOf('\n') >= 0 || body.indexOf('\r') >= 0){
+			body = body.replace("\r", "").replace("\n", "");
+		}
+		body = body.trim();
+		if(body.startsWith("[") && body.endsWith("]")){
+			body = "{\"\":"+body+"}";
+		}
+		return body;
+	}
+	
+	/**
+	 * 解析body成Map，不是json对象的返回null
+	 */
+	@SuppressWarnings("unchecked")
+	public static Map<String,Object> parseBodyParamMap(String body) throws Exception{
+		Map<String,Object> bodyParamMap = null;
+		if(StringUtil.isNotEmpty(body) && body.startsWith("{")){
+			try {
+				bodyParamMap = JsonUtil.fromJson(body, Map.class);
+			} catch (Exception e){
+				throw new Exception("read body to json failure",e);
+			}
+		}
+		return bodyParamMap;
+	}
+	
+	/**
+	 * 直接从body字节解析成json树，不经过字符串和Map，不是json的返回null
+	 * 数组同样包装成 {"":[...]}
+	 */
+	public static ObjectNode readBodyTree(byte[] bodyBytes) throws Exception{
+		if(bodyBytes == null) return null;
+		int start = 0;
+		int end = bodyBytes.length-1;
+		while(start <= end && bodyBytes[start] <= ' '){
+			start++;
+		}
+		while(end >= start && bodyBytes[end] <= ' '){
+			end--;
+		}
+		if(start > end) return null;
+		boolean isArray = bodyBytes[start] == '[' && bodyBytes[end] == ']';
+		if(!isArray && bodyBytes[start] != '{') return null;
+		try {
+			JsonNode node = JsonUtil.readTree(bodyBytes, start, end-start+1);
+			if(isArray){
+				ObjectNode wrapper = JsonUtil.createObjectNode();
+				wrapper.set("", node);
+				return wrapper;
+			}
+			return node instanceof ObjectNode?(ObjectNode)node:null;
+		} catch (Exception e){
+			throw new Exception("read body to json failure",e);
+		}
+	}
 }
@@ -120,6 +120,14 @@ public final class  CastUtil {
 		return value;
 	}
     
+    /**
+     * 取from=>to的类型转换器，没有返回null
+     * 需要对同一对类型反复转换时，先取出转换器再用，省去每次拼接key查找
+     */
+    public static BaseTypeConvert getTypeConvert(Class<?> fromType,Class<?> toType){
+    	return TYPE_2_TYPE_MAP.get(fromType.getName()+"=>"+toType.getName());
+    }
+    
     /**
      * 转为 String
      */
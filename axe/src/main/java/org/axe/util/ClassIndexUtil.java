@@ -0,0 +1,223 @@
+/**
+ * MIT License
+ * 
+ * Copyright (c) 2017 CaiDongyu
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.axe.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 类扫描的索引工具
+ * 1.只读class文件头（常量池、父类、接口、类上的注解），判断类是否需要加载，不用Class.forName
+ *   有注解的、有父类或接口的类才可能被ClassHelper按注解、父类查到，其余的类不加载
+ * 2.构建时可以生成 META-INF/axe.index，扫描时遇到带索引的目录或jar，直接按索引加载，不再遍历
+ *   生成方法：编译后执行 java org.axe.util.ClassIndexUtil target/classes
+ */
+public final class ClassIndexUtil {
+	
+	public static final String INDEX_FILE = "META-INF/axe.index";
+	
+	private static final String OBJECT_CLASS = "java/lang/Object";
+	private static final String RUNTIME_VISIBLE_ANNOTATIONS = "RuntimeVisibleAnnotations";
+	
+	private ClassIndexUtil() {}
+	
+	public static void main(String[] args) throws IOException {
+		if(args == null || args.length == 0){
+			System.out.println("usage: java org.axe.util.ClassIndexUtil <classes dir>");
+			return;
+		}
+		for(String classesDir:args){
+			int count = writeIndex(new File(classesDir));
+			System.out.println(classesDir + "/" + INDEX_FILE + ": " + count + " classes");
+		}
+	}
+	
+	/**
+	 * 扫描classes目录，把需要加载的类名写到 META-INF/axe.index，返回类的数量
+	 */
+	public static int writeIndex(File classesRoot) throws IOException {
+		List<String> classNameList = new ArrayList<>();
+		collectClassName(classesRoot, "", classNameList);
+		Collections.sort(classNameList);
+		File indexFile = new File(classesRoot, INDEX_FILE);
+		indexFile.getParentFile().mkdirs();
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(indexFile), StandardCharsets.UTF_8)) {
+			for(String className:classNameList){
+				writer.write(className);
+				writer.write("\n");
+			}
+		}
+		return classNameList.size();
+	}
+	
+	private static void collectClassName(File dir, String packageName, List<String> classNameList) throws IOException {
+		File[] files = dir.listFiles();
+		if(files == null) return;
+		for(File file:files){
+			String fileName = file.getName();
+			if(file.isDirectory()){
+				collectClassName(file, packageName.isEmpty() ? fileName : packageName + "." + fileName, classNameList);
+			}else if(fileName.endsWith(".class")){
+				try (InputStream in = new FileInputStream(file)) {
+					if(isCandidate(in)){
+						String className = fileName.substring(0, fileName.length()-".class".length());
+						classNameList.add(packageName.isEmpty() ? className : packageName + "." + className);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * 读索引文件，一行一个类名
+	 */
+	public static List<String> readIndex(InputStream in) throws IOException {
+		List<String> classNameList = new ArrayList<>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+		String line;
+		while((line = reader.readLine()) != null){
+			line = line.trim();
+			if(!line.isEmpty() && !line.startsWith("#")){
+				classNameList.add(line);
+			}
+		}
+		return classNameList;
+	}
+	
+	/**
+	 * 按class文件头判断类是否需要加载：父类不是Object、实现了接口、或者类上有运行时注解
+	 * 文件格式不认识的，当作需要加载
+	 * 不关闭in
+	 */
+	public static boolean isCandidate(InputStream in) {
+		try {
+			DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+			if(data.readInt() != 0xCAFEBABE){
+				return true;
+			}
+			data.readUnsignedShort();//minor_version
+			data.readUnsignedShort();//major_version
+			int constantCount = data.readUnsignedShort();
+			String[] utf8Ary = new String[constantCount];
+			int[] classNameIndexAry = new int[constantCount];
+			for(int i=1;i<constantCount;i++){
+				int tag = data.readUnsignedByte();
+				switch (tag) {
+				case 1://Utf8
+					utf8Ary[i] = data.readUTF();
+					break;
+				case 7://Class
+					classNameIndexAry[i] = data.readUnsignedShort();
+					break;
+				case 8://String
+				case 16://MethodType
+				case 19://Module
+				case 20://Package
+					data.skipBytes(2);
+					break;
+				case 15://MethodHandle
+					data.skipBytes(3);
+					break;
+				case 3://Integer
+				case 4://Float
+				case 9://Fieldref
+				case 10://Methodref
+				case 11://InterfaceMethodref
+				case 12://NameAndType
+				case 17://Dynamic
+				case 18://InvokeDynamic
+					data.skipBytes(4);
+					break;
+				case 5://Long
+				case 6://Double
+					data.skipBytes(8);
+					i++;
+					break;
+				default:
+					return true;
+				}
+			}
+			data.readUnsignedShort();//access_flags
+			data.readUnsignedShort();//this_class
+			int superClass = data.readUnsignedShort();
+			if(superClass != 0 && !OBJECT_CLASS.equals(utf8Ary[classNameIndexAry[superClass]])){
+				return true;
+			}
+			if(data.readUnsignedShort() > 0){
+				return true;
+			}
+			//跳过字段和方法，只看类的属性
+			for(int m=0;m<2;m++){
+				int memberCount = data.readUnsignedShort();
+				for(int i=0;i<memberCount;i++){
+					data.skipBytes(6);
+					skipAttributes(data);
+				}
+			}
+			int attributeCount = data.readUnsignedShort();
+			for(int i=0;i<attributeCount;i++){
+				String attributeName = utf8Ary[data.readUnsignedShort()];
+				int length = data.readInt();
+				if(RUNTIME_VISIBLE_ANNOTATIONS.equals(attributeName)){
+					return data.readUnsignedShort() > 0;
+				}
+				skipFully(data, length);
+			}
+			return false;
+		} catch (Exception e) {
+			return true;
+		}
+	}
+	
+	private static void skipAttributes(DataInputStream data) throws IOException {
+		int attributeCount = data.readUnsignedShort();
+		for(int i=0;i<attributeCount;i++){
+			data.skipBytes(2);
+			skipFully(data, data.readInt());
+		}
+	}
+	
+	private static void skipFully(DataInputStream data, int length) throws IOException {
+		while(length > 0){
+			int skipped = data.skipBytes(length);
+			if(skipped <= 0){
+				throw new IOException("unexpected end of class file");
+			}
+			length = length - skipped;
+		}
+	}
+}
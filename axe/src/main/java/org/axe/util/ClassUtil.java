@@ -24,12 +24,20 @@
 package org.axe.util;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.JarURLConnection;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
@@ -52,9 +60,13 @@ public final class ClassUtil {
      * 加载类
      */
     public static Class<?> loadClass(String className,boolean isInitialized){
+        return loadClass(className, isInitialized, getClassLoader());
+    }
+    
+    private static Class<?> loadClass(String className,boolean isInitialized,ClassLoader classLoader){
         Class<?> cls;
         try {
-            cls = Class.forName(className, isInitialized, getClassLoader());
+            cls = Class.forName(className, isInitialized, classLoader);
         } catch (ClassNotFoundException e) {
         	LogUtil.error(new Exception("load class error:"+className));
             LogUtil.error(e);
@@ -73,40 +85,66 @@ public final class ClassUtil {
 
     /**
      * 获取指定包名下，所有的类
+     * 每个jar、每个子目录在ForkJoinPool里并行扫描
      */
     public static Set<Class<?>> getClassSet(String packageName){
+    	return getClassSet(packageName, false);
+    }
+    
+    /**
+     * 获取指定包名下，可能被按注解、父类、接口查到的类
+     * 先读class文件头过滤，没有注解、没有父类也没有接口的类不加载
+     * 目录或jar根下有 META-INF/axe.index 的，直接按索引加载
+     */
+    public static Set<Class<?>> getCandidateClassSet(String packageName){
+    	return getClassSet(packageName, true);
+    }
+    
+    private static Set<Class<?>> getClassSet(String packageName, boolean candidateOnly){
         Set<Class<?>> classSet = new HashSet<>();
+        if(packageName == null) return classSet;
+        
+        //工作线程的上下文类加载器不一定是应用的，这里先取好
+        ClassLoader classLoader = getClassLoader();
+        Set<Class<?>> concurrentClassSet = Collections.newSetFromMap(new ConcurrentHashMap<Class<?>, Boolean>());
+        List<RecursiveAction> taskList = new ArrayList<>();
         try {
-            if(packageName == null) return classSet;
-
-            Enumeration<URL> urls = getClassLoader().getResources(packageName.replace(".","/"));
+        	String packagePath = packageName.replace(".","/");
+            Enumeration<URL> urls = classLoader.getResources(packagePath);
             while(urls.hasMoreElements()){
                 URL url = urls.nextElement();
                 if(url != null){
                     String protocol = url.getProtocol();
                     if(protocol.equals("file")){
-                        String packagePath = url.getPath().replaceAll("%20"," ");
-                        addClass(classSet, packagePath, packageName);
+                        String packageDirPath = url.getPath().replaceAll("%20"," ");
+                        File packageDir = new File(packageDirPath);
+                        //包目录往上退到classes根目录
+                        File rootDir = packageDir;
+                        for(int i=0;i<packageName.split("\\.").length && rootDir != null;i++){
+                        	rootDir = rootDir.getParentFile();
+                        }
+                        //索引里只有候选类，要全部类时不用索引
+                        File indexFile = rootDir == null || !candidateOnly ? null : new File(rootDir, ClassIndexUtil.INDEX_FILE);
+                        if(indexFile != null && indexFile.isFile()){
+                        	try (InputStream in = new FileInputStream(indexFile)) {
+                        		addIndexedClass(concurrentClassSet, ClassIndexUtil.readIndex(in), packageName, classLoader);
+                        	}
+                        }else{
+                        	taskList.add(new DirectoryScanTask(concurrentClassSet, packageDir, packageName, classLoader, candidateOnly));
+                        }
                     } else if(protocol.equals("jar")){
                         JarURLConnection jarURLConnection = (JarURLConnection)url.openConnection();
                         if(jarURLConnection != null){
                             JarFile jarFile = jarURLConnection.getJarFile();
                             if(jarFile != null){
-                                String packagePath = packageName.replace(".","/");
-                                Enumeration<JarEntry> jarEntries = jarFile.entries();
-                                while(jarEntries.hasMoreElements()){
-                                    JarEntry jarEntry = jarEntries.nextElement();
-                                    String jarEntryName = jarEntry.getName();
-                                    //此处注意，jar包entries是所有jar包中资源，所以需要过滤掉不需要的
-                                    //TODO:另外，这个地方没有注意到spi问题，有些spi的资源，可能还是会报ClassDefNotFound异常
-                                    if(!jarEntryName.startsWith(packagePath)){
-                                        continue;
-                                    }
-                                    if(jarEntryName.endsWith(".class")){
-                                        String className = jarEntryName.substring(0,jarEntryName.lastIndexOf(".")).replace("/",".");
-                                        doAddClass(classSet, className);
-                                    }
-                                }
+                            	JarEntry indexEntry = candidateOnly ? jarFile.getJarEntry(ClassIndexUtil.INDEX_FILE) : null;
+                            	if(indexEntry != null){
+                            		try (InputStream in = jarFile.getInputStream(indexEntry)) {
+                            			addIndexedClass(concurrentClassSet, ClassIndexUtil.readIndex(in), packageName, classLoader);
+                            		}
+                            	}else{
+                            		taskList.add(new JarScanTask(concurrentClassSet, jarFile, packagePath, classLoader, candidateOnly));
+                            	}
                             }
                         }
                     }
@@ -116,39 +154,129 @@ public final class ClassUtil {
             LogUtil.error(e);
             throw new RuntimeException(e);
         }
-        return classSet;
-    }
-
-    private static void addClass(Set<Class<?>> classSet, String packagePath, String packageName) {
-        File[] files = new File(packagePath).listFiles();
-        for(File file : files){
-        	if((file.isFile() && file.getName().endsWith(".class")) || file.isDirectory()){
-        		String fileName = file.getName();
-                if(file.isFile()){
-                    String className = fileName.substring(0,fileName.lastIndexOf("."));
-                    if(StringUtil.isNotEmpty(packagePath)){
-                        className = packageName+"."+className;
-                    }
-                    doAddClass(classSet, className);
-                }else{
-                    String subPackagePath = fileName;
-                    if(StringUtil.isNotEmpty(packagePath)){
-                        subPackagePath = packagePath + "/" + subPackagePath;
-                    }
-                    String subPackageName = fileName;
-                    if(StringUtil.isNotEmpty(packageName)){
-                        subPackageName = packageName + "." + subPackageName;
-                    }
-                    addClass(classSet, subPackagePath, subPackageName);
-                }
+        if(!taskList.isEmpty()){
+        	ForkJoinPool pool = new ForkJoinPool();
+        	try {
+        		for(RecursiveAction task:taskList){
+        			pool.execute(task);
+        		}
+        		for(RecursiveAction task:taskList){
+        			task.join();
+        		}
+        	} finally {
+        		pool.shutdown();
         	}
         }
+        classSet.addAll(concurrentClassSet);
+        return classSet;
     }
-
-    private static void doAddClass(Set<Class<?>> classSet, String className) {
-        Class<?> cls = loadClass(className, false);
-        classSet.add(cls);
+    
+    private static void addIndexedClass(Set<Class<?>> classSet, List<String> classNameList, String packageName, ClassLoader classLoader){
+    	String packagePrefix = packageName + ".";
+    	for(String className:classNameList){
+    		if(className.startsWith(packagePrefix)){
+    			classSet.add(loadClass(className, false, classLoader));
+    		}
+    	}
+    }
+    
+    /**
+     * 扫描一个jar里包路径下的类
+     */
+    private static final class JarScanTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final Set<Class<?>> classSet;
+    	private final JarFile jarFile;
+    	private final String packagePath;
+    	private final ClassLoader classLoader;
+    	private final boolean candidateOnly;
+    	
+    	private JarScanTask(Set<Class<?>> classSet, JarFile jarFile, String packagePath, ClassLoader classLoader, boolean candidateOnly) {
+			this.classSet = classSet;
+			this.jarFile = jarFile;
+			this.packagePath = packagePath;
+			this.classLoader = classLoader;
+			this.candidateOnly = candidateOnly;
+		}
+    	
+		@Override
+		protected void compute() {
+			Enumeration<JarEntry> jarEntries = jarFile.entries();
+			while(jarEntries.hasMoreElements()){
+				JarEntry jarEntry = jarEntries.nextElement();
+				String jarEntryName = jarEntry.getName();
+				//此处注意，jar包entries是所有jar包中资源，所以需要过滤掉不需要的
+				//TODO:另外，这个地方没有注意到spi问题，有些spi的资源，可能还是会报ClassDefNotFound异常
+				if(!jarEntryName.startsWith(packagePath)){
+					continue;
+				}
+				if(jarEntryName.endsWith(".class")){
+					boolean candidate = true;
+					if(candidateOnly){
+						try (InputStream in = jarFile.getInputStream(jarEntry)) {
+							candidate = ClassIndexUtil.isCandidate(in);
+						} catch (IOException e) {
+							candidate = true;
+						}
+					}
+					if(candidate){
+						String className = jarEntryName.substring(0,jarEntryName.lastIndexOf(".")).replace("/",".");
+						classSet.add(loadClass(className, false, classLoader));
+					}
+				}
+			}
+		}
+    }
+    
+    /**
+     * 扫描一个目录，子目录拆成子任务
+     */
+    private static final class DirectoryScanTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final Set<Class<?>> classSet;
+    	private final File dir;
+    	private final String packageName;
+    	private final ClassLoader classLoader;
+    	private final boolean candidateOnly;
+    	
+    	private DirectoryScanTask(Set<Class<?>> classSet, File dir, String packageName, ClassLoader classLoader, boolean candidateOnly) {
+			this.classSet = classSet;
+			this.dir = dir;
+			this.packageName = packageName;
+			this.classLoader = classLoader;
+			this.candidateOnly = candidateOnly;
+		}
+    	
+		@Override
+		protected void compute() {
+			File[] files = dir.listFiles();
+			if(files == null) return;
+			List<DirectoryScanTask> subTaskList = new ArrayList<>();
+			for(File file : files){
+				String fileName = file.getName();
+				if(file.isDirectory()){
+					String subPackageName = StringUtil.isNotEmpty(packageName) ? packageName + "." + fileName : fileName;
+					subTaskList.add(new DirectoryScanTask(classSet, file, subPackageName, classLoader, candidateOnly));
+				}else if(file.isFile() && fileName.endsWith(".class")){
+					boolean candidate = true;
+					if(candidateOnly){
+						try (InputStream in = new FileInputStream(file)) {
+							candidate = ClassIndexUtil.isCandidate(in);
+						} catch (IOException e) {
+							candidate = true;
+						}
+					}
+					if(candidate){
+						String className = fileName.substring(0,fileName.lastIndexOf("."));
+						if(StringUtil.isNotEmpty(packageName)){
+							className = packageName+"."+className;
+						}
+						classSet.add(loadClass(className, false, classLoader));
+					}
+				}
+			}
+			invokeAll(subTaskList);
+		}
     }
 
 }
-
@@ -23,24 +23,129 @@
  */
 package org.axe.util;
 
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.annotation.JsonSetter;
+import com.fasterxml.jackson.annotation.Nulls;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.Module;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 
 /**
  * JSON 工具类
+ * ObjectMapper线程安全，全局共享一个，这样Jackson的序列化器、反序列化器缓存才能复用
+ * 每个类型的ObjectReader、ObjectWriter也缓存起来
  * @author CaiDongyu on 2016/4/11.
  */
 public final class JsonUtil {
+	
+	/**
+	 * ObjectMapper和它的Reader、Writer缓存放在一起，注册Module时整个换掉，读的时候不会拿到新Mapper配旧缓存
+	 */
+	private static volatile MapperHolder MAPPER = new MapperHolder(new ArrayList<Module>());
+	
     private JsonUtil() {}
     
+    private static final class MapperHolder {
+    	private final List<Module> moduleList;
+    	private final ObjectMapper objectMapper;
+    	private final Map<Class<?>,ObjectReader> readerCache = new ConcurrentHashMap<>();
+    	private final Map<Class<?>,ObjectWriter> writerCache = new ConcurrentHashMap<>();
+    	
+    	private MapperHolder(List<Module> moduleList) {
+    		this.moduleList = moduleList;
+    		this.objectMapper = createObjectMapper(moduleList);
+		}
+    }
+    
+    private static ObjectMapper createObjectMapper(List<Module> moduleList){
+    	ObjectMapper objectMapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES,false);
+    	//json里值为null的字段，不覆盖对象字段的初始值，以前是用正则把 "xxx":null 从字符串里删掉的
+    	objectMapper.setDefaultSetterInfo(JsonSetter.Value.forValueNulls(Nulls.SKIP));
+    	objectMapper.configOverride(Map.class).setSetterInfo(JsonSetter.Value.forContentNulls(Nulls.SKIP));
+    	objectMapper.configOverride(HashMap.class).setSetterInfo(JsonSetter.Value.forContentNulls(Nulls.SKIP));
+    	objectMapper.configOverride(LinkedHashMap.class).setSetterInfo(JsonSetter.Value.forContentNulls(Nulls.SKIP));
+    	for(Module module:moduleList){
+    		objectMapper.registerModule(module);
+    	}
+    	return objectMapper;
+    }
+    
+    /**
+     * 注册Jackson Module
+     * 建议在ConfigHelper加载时注册（axe.json_modules 配置，或者AfterConfigLoaded回调里调用）
+     * 和Jackson一样按Module.getTypeId()去重（一般就是类名），重复注册的忽略，Helper刷新时不会越注册越多
+     * 注册后换一个新的ObjectMapper，Reader、Writer缓存跟着一起换
+     */
+    public static synchronized void registerModule(Module module){
+    	Object typeId = module.getTypeId();
+    	List<Module> moduleList = MAPPER.moduleList;
+    	if(typeId != null){
+    		for(Module registered:moduleList){
+    			if(typeId.equals(registered.getTypeId())){
+    				return;
+    			}
+    		}
+    	}
+    	moduleList = new ArrayList<>(moduleList);
+    	moduleList.add(module);
+    	MAPPER = new MapperHolder(moduleList);
+    }
+    
+    /**
+     * 共享的ObjectMapper，不要修改它的配置
+     */
+    public static ObjectMapper getObjectMapper(){
+    	return MAPPER.objectMapper;
+    }
+    
+    public static ObjectReader getReader(Class<?> type){
+    	MapperHolder mapper = MAPPER;
+    	ObjectReader reader = mapper.readerCache.get(type);
+    	if(reader == null){
+    		reader = mapper.objectMapper.readerFor(type);
+    		mapper.readerCache.put(type, reader);
+    	}
+    	return reader;
+    }
+    
+    public static ObjectWriter getWriter(Class<?> type){
+    	MapperHolder mapper = MAPPER;
+    	ObjectWriter writer = mapper.writerCache.get(type);
+    	if(writer == null){
+    		writer = mapper.objectMapper.writerFor(type);
+    		mapper.writerCache.put(type, writer);
+    	}
+    	return writer;
+    }
+    
     /**
      * 将 POJO 转为 JSON
      */
     public static String toJson(Object obj){
         String json;
         try {
-        	ObjectMapper OBJECT_MAPPER = new ObjectMapper();
-            json = OBJECT_MAPPER.writeValueAsString(obj);
+        	if(obj == null){
+        		json = getObjectMapper().writeValueAsString(obj);
+        	}else{
+        		json = getWriter(obj.getClass()).writeValueAsString(obj);
+        	}
         } catch (Exception e){
             LogUtil.error(e);
             throw new RuntimeException(e);
@@ -48,6 +153,46 @@ public final class JsonUtil {
         return json;
     }
 
+    /**
+     * 将 POJO 以UTF-8直接写到输出流，不生成中间字符串
+     * JsonGenerator的缓冲区由Jackson按线程回收复用
+     * 不会关闭out
+     */
+    public static void writeJson(OutputStream out, Object obj){
+    	try {
+    		writeJson(getObjectMapper().getFactory().createGenerator(out, JsonEncoding.UTF8), obj);
+    	} catch (Exception e){
+    		LogUtil.error(e);
+    		throw new RuntimeException(e);
+    	}
+    }
+    
+    /**
+     * 将 POJO 直接写到Writer，不生成中间字符串
+     * 不会关闭writer
+     */
+    public static void writeJson(Writer writer, Object obj){
+    	try {
+    		writeJson(getObjectMapper().getFactory().createGenerator(writer), obj);
+    	} catch (Exception e){
+    		LogUtil.error(e);
+    		throw new RuntimeException(e);
+    	}
+    }
+    
+    private static void writeJson(JsonGenerator generator, Object obj) throws Exception{
+    	generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    	try {
+    		if(obj == null){
+    			getObjectMapper().writeValue(generator, obj);
+    		}else{
+    			getWriter(obj.getClass()).writeValue(generator, obj);
+    		}
+    	} finally {
+    		generator.close();
+    	}
+    }
+
     /**
      * 将 JSON 转为 POJO
      */
@@ -55,15 +200,12 @@ public final class JsonUtil {
 	public static <T> T fromJson(String json, Class<T> type){
         T pojo;
         try {
-        	ObjectMapper OBJECT_MAPPER = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES,false);
         	if(String.class.equals(type)){
             	pojo = (T) json;
             }else{
-            	String reg = "[ ]*\"[^\"]+\"[ ]*:[ ]*null[ ]*";
-        		json = json.replaceAll(""+reg+",", "");
-        		json = json.replaceAll(","+reg+"\\}", "}");
-        		json = json.replaceAll("\\{"+reg+"\\}", "{}");
-            	pojo = OBJECT_MAPPER.readValue(json,type);
+            	pojo = getReader(type).readValue(json);
+            	//Map、List这种无类型的结果，null值字段同样去掉
+            	removeNullField(pojo);
             }
         } catch (Exception e){
             LogUtil.error(e);
@@ -72,4 +214,58 @@ public final class JsonUtil {
         return pojo;
     }
     
+    /**
+     * 将 JSON 字节解析成树
+     */
+    public static JsonNode readTree(byte[] json, int offset, int len){
+    	JsonParser parser = null;
+    	try {
+    		ObjectMapper objectMapper = getObjectMapper();
+    		parser = objectMapper.getFactory().createParser(json, offset, len);
+    		return objectMapper.readTree(parser);
+    	} catch (Exception e){
+    		LogUtil.error(e);
+    		throw new RuntimeException(e);
+    	} finally {
+    		if(parser != null){
+    			try {
+    				parser.close();
+				} catch (Exception e2) {}
+    		}
+    	}
+    }
+    
+    public static ObjectNode createObjectNode(){
+    	return JsonNodeFactory.instance.objectNode();
+    }
+    
+    /**
+     * 将 JSON 树直接转为 POJO，不经过字符串
+     */
+    public static <T> T fromTree(JsonNode node, Class<T> type){
+    	try {
+    		return getReader(type).readValue(node);
+    	} catch (Exception e){
+    		LogUtil.error(e);
+    		throw new RuntimeException(e);
+    	}
+    }
+    
+    private static void removeNullField(Object obj){
+    	if(obj instanceof Map){
+    		Iterator<?> it = ((Map<?,?>)obj).values().iterator();
+    		while(it.hasNext()){
+    			Object value = it.next();
+    			if(value == null){
+    				it.remove();
+    			}else{
+    				removeNullField(value);
+    			}
+    		}
+    	}else if(obj instanceof List){
+    		for(Object el:(List<?>)obj){
+    			removeNullField(el);
+    		}
+    	}
+    }
 }
@@ -26,14 +26,17 @@ package org.axe.util;
 import java.lang.annotation.Annotation;
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.axe.bean.persistence.EntityFieldMethod;
 import org.axe.exception.RedirectorInterrupt;
@@ -47,6 +50,8 @@ import org.axe.exception.RestException;
 public final class ReflectionUtil {
 
 //    private static final Logger LOGGER = LoggerFactory.getLogger(ReflectionUtil.class);
+	private static final Object[] EMPTY_ARGS = new Object[0];
+	private static final Map<Method, MethodHandle> METHOD_HANDLE_CACHE = new ConcurrentHashMap<>();
 
     
     public static List<Method> getMethodByAnnotation(Class<?> cls,Class<? extends Annotation> annotationClass){
@@ -218,32 +223,25 @@ public final class ReflectionUtil {
 
     /**
      * 调用方法
+     * 方法句柄按Method缓存，不用每次unreflect
      */
     public static  Object invokeMethod(Object obj,Method method,Object ...args){
         Object result;
-        method.setAccessible(true);
         try {
-        	MethodHandle mh=MethodHandles.lookup().unreflect(method);
-        	ArrayList<Object> argList = new ArrayList<>();
-        	argList.add(obj);
-        	if(args != null){
-        		for(Object arg:args){
-        			argList.add(arg);
-        		}
+        	MethodHandle mh = METHOD_HANDLE_CACHE.get(method);
+        	if(mh == null){
+        		method.setAccessible(true);
+        		//(Object,Object[])Object，实例和参数数组都按固定形状传入
+        		mh = MethodHandles.lookup().unreflect(method);
+        		mh = mh.asSpreader(Object[].class, method.getParameterTypes().length)
+        				.asType(MethodType.methodType(Object.class, Object.class, Object[].class));
+        		METHOD_HANDLE_CACHE.put(method, mh);
         	}
-        	result = mh.invokeWithArguments(argList);
+        	result = mh.invokeExact(obj, args == null ? EMPTY_ARGS : args);
 		} catch (Throwable cause) {
 			//TODO:这里的方法调用异常打印，暂时关闭，体验友好有些，否则crontroller的异常，不管什么，有的是RestException，也都会打印出来，不好看。
 //			LOGGER.error("invoke method failure,method : "+method+", args : "+args,cause);
-			if(cause instanceof RestException){
-				//Rest中断异常，需要返回前台异常信息
-				throw (RestException)cause;
-			}else if(cause instanceof RedirectorInterrupt){
-				//重定向中断，需要跳转
-				throw (RedirectorInterrupt)cause;
-			}else{
-				throw new RuntimeException(cause);
-			}
+			throw wrapInvokeException(cause);
 		}
         
         /*try {
@@ -274,6 +272,48 @@ public final class ReflectionUtil {
 		}*/
         return result;
     }
+    
+    /**
+     * 把方法绑定到实例上，生成(Object[])Object的调用句柄，配合invokeBound使用
+     * 用于Controller的action这种实例固定、调用频繁的方法
+     */
+    public static MethodHandle bindMethod(Object obj,Method method){
+    	method.setAccessible(true);
+    	try {
+    		MethodHandle mh = MethodHandles.lookup().unreflect(method);
+    		if(!Modifier.isStatic(method.getModifiers())){
+    			mh = mh.bindTo(obj);
+    		}
+    		return mh.asSpreader(Object[].class, method.getParameterTypes().length)
+    				.asType(MethodType.methodType(Object.class, Object[].class));
+		} catch (IllegalAccessException e) {
+			throw new RuntimeException(e);
+		}
+    }
+    
+    /**
+     * 调用bindMethod生成的句柄，异常处理同invokeMethod
+     */
+    public static Object invokeBound(MethodHandle boundMethod,Object[] args){
+    	try {
+    		return (Object) boundMethod.invokeExact(args == null ? EMPTY_ARGS : args);
+		} catch (Throwable cause) {
+			throw wrapInvokeException(cause);
+		}
+    }
+    
+    private static RuntimeException wrapInvokeException(Throwable cause){
+    	if(cause instanceof RestException){
+    		//Rest中断异常，需要返回前台异常信息
+    		return (RestException)cause;
+    	}else if(cause instanceof RedirectorInterrupt){
+    		//重定向中断，需要跳转
+    		return (RedirectorInterrupt)cause;
+    	}else{
+    		return new RuntimeException(cause);
+    	}
+    }
+
 
     /**
      * 设置成员变量的值
@@ -123,7 +123,7 @@ public final class RequestUtil {
         return path;
 	}
 	
-	public static List<FormParam> parseParameter(HttpServletRequest request,String requestPath,String mappingPath){
+	public static List<FormParam> parseParameter(HttpServletRequest request,Param param){
     	List<FormParam> formParamList = new ArrayList<>();
         //分析url查询字符串
     	Enumeration<String> paramNames = request.getParameterNames();
@@ -146,21 +146,13 @@ public final class RequestUtil {
             }
         }
         //分析url路径参数
-        //requestPath 客户端过来的servletPath
-        //action方法上的@Quest.value注解值
-        Pattern reg4requestPath = Pattern.compile(mappingPath.replaceAll("\\{["+REG_WORD+"]*\\}","(["+REG_WORD+"]*)"));
-        Matcher matcher4requestPath = reg4requestPath.matcher(requestPath);
-		Pattern reg4mappingPath = Pattern.compile("\\{(["+REG_WORD+"]*)\\}");
-		Matcher matcher4mappingPath = reg4mappingPath.matcher(mappingPath);
-		boolean fieldValueFind = matcher4requestPath.find();
-		for(int fieldValueGroupIndex = 1; matcher4mappingPath.find();fieldValueGroupIndex++){
-			String fieldName = matcher4mappingPath.group(1);
-			String fieldValue = null;
-			if(fieldValueFind && fieldValueGroupIndex<=matcher4requestPath.groupCount()){
-				fieldValue = matcher4requestPath.group(fieldValueGroupIndex);
-			}
-			formParamList.add(new FormParam(fieldName,fieldValue));
-		}
+        //路由时已经按mappingPath模板取好了，这里直接用
+        String[] pathVariableNames = param.getPathVariableNames();
+        String[] pathVariableValues = param.getPathVariableValues();
+        for(int i=0;i<pathVariableNames.length;i++){
+        	String fieldValue = i<pathVariableValues.length?pathVariableValues[i]:null;
+        	formParamList.add(new FormParam(pathVariableNames[i],fieldValue));
+        }
 		
         return formParamList;
     }
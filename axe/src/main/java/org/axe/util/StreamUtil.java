@@ -24,6 +24,7 @@
 package org.axe.util;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
@@ -61,6 +62,25 @@ public final class StreamUtil {
         return sb.toString();
     }
 
+    /**
+     * 从输入流中读取全部字节
+     */
+    public static byte[] getBytes(InputStream is) throws Exception{
+    	ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            int length;
+            byte[] buffer = new byte[4*1024];
+            while((length = is.read(buffer,0,buffer.length)) != -1){
+                out.write(buffer,0,length);
+            }
+        } finally {
+        	try {
+        		is.close();
+        	} catch (Exception e2) {}
+        }
+        return out.toByteArray();
+    }
+
     /**
      * 将输入流复制到输出流
      */
@@ -155,6 +155,27 @@ public final class StringUtil {
 		return !isEmpty(str);
 	}
 
+	/**
+	 * 连续的空格合并成一个，并去掉首尾空格
+	 * 只扫一遍，没有连续空格时直接trim返回
+	 */
+	public static String collapseSpace(String str) {
+		if (str.indexOf("  ") < 0) {
+			return str.trim();
+		}
+		StringBuilder sb = new StringBuilder(str.length());
+		char last = 0;
+		for (int i = 0; i < str.length(); i++) {
+			char c = str.charAt(i);
+			if (c == ' ' && last == ' ') {
+				continue;
+			}
+			sb.append(c);
+			last = c;
+		}
+		return sb.toString().trim();
+	}
+
 	public static final char UNDERLINE = '_';
 
 	public static String camelToUnderline(String param) {
@@ -33,8 +33,10 @@ import java.util.regex.Pattern;
 
 import org.axe.bean.persistence.PageConfig;
 import org.axe.bean.persistence.SqlPackage;
+import org.axe.bean.persistence.SqlTemplate;
 import org.axe.bean.persistence.TableSchema;
 import org.axe.bean.persistence.TableSchema.ColumnSchema;
+import org.axe.bean.persistence.TableSchema.CrudSql;
 import org.axe.constant.ConfigConstant;
 import org.axe.helper.base.ConfigHelper;
 import org.axe.helper.persistence.TableHelper;
@@ -42,7 +44,6 @@ import org.axe.util.CastUtil;
 import org.axe.util.CollectionUtil;
 import org.axe.util.LogUtil;
 import org.axe.util.PropsUtil;
-import org.axe.util.ReflectionUtil;
 import org.axe.util.StringUtil;
 
 /**
@@ -52,6 +53,15 @@ import org.axe.util.StringUtil;
 public final class CommonSqlUtil {
 	private CommonSqlUtil() {}
 	
+	/**
+	 * #1 拼接指令
+	 */
+	private static final Pattern SQL_APPEND_COMMAND_PATTERN = Pattern.compile("#([1-9][0-9]*)");
+	/**
+	 * ?1 指定位置的占位符
+	 */
+	private static final Pattern GET_FLAG_SPEC_PATTERN = Pattern.compile("\\?([1-9][0-9]*)");
+	
 	public static String getShardingGtTableRecordSql(TableSchema tableSchema,int shardingFlag){
 		StringBuilder sqlBuffer = new StringBuilder();
 		sqlBuffer.setLength(0);
@@ -62,102 +72,94 @@ public final class CommonSqlUtil {
 		return sqlBuffer.toString();
 	}
 	
+	/**
+	 * 语句按真实表名缓存在TableSchema里，每次只取字段值
+	 */
 	public static SqlPackage getUpdateSqlPackage(Object entity) {
+		TableSchema tableSchema = TableHelper.getCachedTableSchema(entity);
+		String realTableName = TableHelper.getRealTableName(entity);
+		CrudSql crudSql = tableSchema.getCrudSql(realTableName);
+		String sql = crudSql.getUpdateSql();
+		if(sql == null){
+			sql = buildUpdateSql(tableSchema, realTableName, entity.getClass());
+			crudSql.setUpdateSql(sql);
+		}
+		Object[] params = TableSchema.pickValues(tableSchema.getColumnValues(entity), tableSchema.getUpdateParamIndexAry());
+		return new SqlPackage(sql, params, null);
+	}
+	
+	private static String buildUpdateSql(TableSchema tableSchema, String realTableName, Class<?> entityClass) {
 		StringBuilder sqlBuffer = new StringBuilder();
-		sqlBuffer.append("UPDATE ").append(TableHelper.getRealTableName(entity)).append(" SET ");
-		List<ColumnSchema> mappingColumnList = TableHelper.getCachedTableSchema(entity).getMappingColumnList();
+		sqlBuffer.append("UPDATE ").append(realTableName).append(" SET ");
+		List<ColumnSchema> mappingColumnList = tableSchema.getMappingColumnList();
 		// #会做修改的字段
 		StringBuilder columns = new StringBuilder();
 		// #修改的条件
 		StringBuilder where = new StringBuilder(" WHERE 1=1 ");
-		// #占位符的值
-		List<Object> paramsColumns = new ArrayList<>();
-		List<Object> paramsWhere = new ArrayList<>();
-		for (ColumnSchema columnSchema : mappingColumnList) {
-			if (!columnSchema.getPrimary() && !columnSchema.getJustInsert()) {
+		for (int index : tableSchema.getUpdateParamIndexAry()) {
+			ColumnSchema columnSchema = mappingColumnList.get(index);
+			if (!columnSchema.getPrimary()) {
 				// #没有@Id注解且不是只做新增的字段作为修改内容
 				columns.append(columnSchema.getColumnName()).append("=?, ");
-				paramsColumns.add(ReflectionUtil.invokeMethod(entity, columnSchema.getColumnSchema().getMethod()));
-				continue;
-			}
-			if(columnSchema.getPrimary()){
+			} else {
 				// #有@Id的字段作为主键，用来当修改条件
 				where.append(" and ").append(columnSchema.getColumnName()).append("=?");
-				paramsWhere.add(ReflectionUtil.invokeMethod(entity, columnSchema.getColumnSchema().getMethod()));
-				continue;
 			}
 		}
-		columns.replace(columns.lastIndexOf(", "), columns.length(), " ");
-		sqlBuffer.append(columns.toString()).append(where.toString());
-
-		if (CollectionUtil.isEmpty(paramsWhere)) {
+		if (tableSchema.getIdParamIndexAry().length == 0) {
 			//注意，updateEntity，如果Entity中没有标注@Id的字段，是不能更新的，否则会where 1=1 全表更新！
-			throw new RuntimeException("update entity failure!cannot find any field with @Id in " + entity.getClass());
+			throw new RuntimeException("update entity failure!cannot find any field with @Id in " + entityClass);
 		}
-		paramsColumns.addAll(paramsWhere);
-		return new SqlPackage(sqlBuffer.toString(), paramsColumns.toArray(), null);
+		columns.replace(columns.lastIndexOf(", "), columns.length(), " ");
+		sqlBuffer.append(columns.toString()).append(where.toString());
+		return sqlBuffer.toString();
 	}
 
 	public static SqlPackage getDeleteSqlPackage(Object entity) {
-		StringBuilder sqlBuffer = new StringBuilder();
-		sqlBuffer.append("DELETE FROM ").append(TableHelper.getRealTableName(entity));
-		List<ColumnSchema> mappingColumnList = TableHelper.getCachedTableSchema(entity).getMappingColumnList();
-		// #修改的条件
-		StringBuilder where = new StringBuilder(" WHERE 1=1 ");
-		// #占位符的值
-		// #先过滤出带有@Id的EntityFieldMethod
-		List<ColumnSchema> idColumnList = new ArrayList<>();
-		for (ColumnSchema columnSchema : mappingColumnList) {
-			if (columnSchema.getPrimary()) {
-				idColumnList.add(columnSchema);
+		TableSchema tableSchema = TableHelper.getCachedTableSchema(entity);
+		String realTableName = TableHelper.getRealTableName(entity);
+		CrudSql crudSql = tableSchema.getCrudSql(realTableName);
+		String sql = crudSql.getDeleteSql();
+		if(sql == null){
+			if (tableSchema.getIdParamIndexAry().length == 0) {
+				// 注意，deleteEntity，如果Entity中没有标注@Id的字段，是不能删除的，否则会where 1=1 全表删除！
+				throw new RuntimeException("delete entity failure!cannot find any field with @Id in " + entity.getClass());
 			}
+			sql = "DELETE FROM " + realTableName + buildIdWhere(tableSchema);
+			crudSql.setDeleteSql(sql);
 		}
-
-		Object[] params = new Object[idColumnList.size()];
-		for (int i = 0; i < idColumnList.size(); i++) {
-			ColumnSchema columnSchema = idColumnList.get(i);
-			// #有@Id的字段作为主键，用来当修改条件
-			where.append(" and ").append(columnSchema.getColumnName()).append("=?");
-			params[i] = ReflectionUtil.invokeMethod(entity, columnSchema.getColumnSchema().getMethod());
-		}
-		sqlBuffer.append(where.toString());
-
-		if (CollectionUtil.isEmpty(idColumnList)) {
-			// 注意，deleteEntity，如果Entity中没有标注@Id的字段，是不能删除的，否则会where 1=1 全表删除！
-			throw new RuntimeException("delete entity failure!cannot find any field with @Id in " + entity.getClass());
-		}
-		return new SqlPackage(sqlBuffer.toString(), params, null);
+		Object[] params = TableSchema.pickValues(tableSchema.getColumnValues(entity), tableSchema.getIdParamIndexAry());
+		return new SqlPackage(sql, params, null);
 	}
 
 	public static SqlPackage getSelectByIdSqlPackage(Object entity) {
-		StringBuilder sqlBuffer = new StringBuilder();
-		sqlBuffer.append("SELECT * FROM ").append(TableHelper.getRealTableName(entity));
-		List<ColumnSchema> mappingColumnList = TableHelper.getCachedTableSchema(entity).getMappingColumnList();
-		// #修改的条件
-		StringBuilder where = new StringBuilder(" WHERE 1=1 ");
-		// #占位符的值
-		// #先过滤出带有@Id的EntityFieldMethod
-		List<ColumnSchema> idColumnList = new ArrayList<>();
-		for (ColumnSchema columnSchema:mappingColumnList) {
-			if (columnSchema.getPrimary()) {
-				idColumnList.add(columnSchema);
+		TableSchema tableSchema = TableHelper.getCachedTableSchema(entity);
+		String realTableName = TableHelper.getRealTableName(entity);
+		CrudSql crudSql = tableSchema.getCrudSql(realTableName);
+		String sql = crudSql.getSelectByIdSql();
+		if(sql == null){
+			// 注意，如果Entity中没有标注@Id的字段，就不能匹配了
+			if (tableSchema.getIdParamIndexAry().length == 0) {
+				throw new RuntimeException("select entity failure!cannot find any field with @Id in " + entity.getClass());
 			}
+			sql = "SELECT * FROM " + realTableName + buildIdWhere(tableSchema);
+			crudSql.setSelectByIdSql(sql);
 		}
-		// 注意，如果Entity中没有标注@Id的字段，就不能匹配了
-		if (CollectionUtil.isEmpty(idColumnList)) {
-			throw new RuntimeException("select entity failure!cannot find any field with @Id in " + entity.getClass());
-		}
-
-		Object[] params = new Object[idColumnList.size()];
-		for (int i = 0; i < idColumnList.size(); i++) {
-			ColumnSchema columnSchema = idColumnList.get(i);
+		Object[] params = TableSchema.pickValues(tableSchema.getColumnValues(entity), tableSchema.getIdParamIndexAry());
+		return new SqlPackage(sql, params, null);
+	}
+	
+	/**
+	 * 按@Id字段的条件
+	 */
+	private static String buildIdWhere(TableSchema tableSchema) {
+		List<ColumnSchema> mappingColumnList = tableSchema.getMappingColumnList();
+		StringBuilder where = new StringBuilder(" WHERE 1=1 ");
+		for (int index : tableSchema.getIdParamIndexAry()) {
 			// #有@Id的字段作为主键，用来当修改条件
-			where.append(" and ").append(columnSchema.getColumnName()).append("=?");
-			params[i] = ReflectionUtil.invokeMethod(entity, columnSchema.getColumnSchema().getMethod());
+			where.append(" and ").append(mappingColumnList.get(index).getColumnName()).append("=?");
 		}
-		sqlBuffer.append(where.toString());
-
-		return new SqlPackage(sqlBuffer.toString(), params, null);
+		return where.toString();
 	}
 	
 	public static Map<String, TableSchema> matcherEntityTableMap(String sql) {
@@ -222,6 +224,29 @@ public final class CommonSqlUtil {
 		return sqlList;
 	}
 	
+	/**
+	 * 编译@Sql语句模板，类名、字段名在这里一次转换好，表名留作槽位
+	 * 传进来的语句需要是已经解析过#拼接指令的
+	 */
+	public static SqlTemplate compileSqlTemplate(String sql, String headAfterUnion, String tailAfterUnion) {
+		Map<String, TableSchema> sqlEntityTableMap = convertSqlEntity2Table(sql);
+		return new SqlTemplate(sqlEntityTableMap, 
+				compileRawSql(sql, sqlEntityTableMap), 
+				compileRawSql(headAfterUnion, sqlEntityTableMap), 
+				compileRawSql(tailAfterUnion, sqlEntityTableMap));
+	}
+	
+	private static String compileRawSql(String sql, Map<String, TableSchema> sqlEntityTableMap) {
+		if(StringUtil.isNotEmpty(sql)){
+			// 末尾多加一个空格，与convertRawSql一致
+			sql = sql + " ";
+			if (CollectionUtil.isNotEmpty(sqlEntityTableMap)) {
+				sql = convertColumnName(sql, sqlEntityTableMap);
+			}
+		}
+		return sql;
+	}
+	
 	private static List<String> convertTableName(String sql, List<Map<String,String>> sqlEntityTableNameList) {
 		
 		List<String> sqlList = new ArrayList<>();
@@ -377,8 +402,7 @@ public final class CommonSqlUtil {
 				getFlagIndex = sql.indexOf("?", getFlagIndex + 1);
 			}
 		} else if (getFlagSpec) {
-			Pattern p = Pattern.compile("\\?([1-9][0-9]*)");
-			Matcher m = p.matcher(sql);
+			Matcher m = GET_FLAG_SPEC_PATTERN.matcher(sql);
 			while (m.find()) {
 				String getFlagNumber = m.group(1);
 				int paramIndex = CastUtil.castInteger(getFlagNumber) - 1;
@@ -444,8 +468,7 @@ public final class CommonSqlUtil {
 	 */
 	public static String convertSqlAppendCommand(String sql, Object[] params) {
 		if(StringUtil.isNotEmpty(sql)){
-			Pattern p = Pattern.compile("#([1-9][0-9]*)");
-			Matcher m = p.matcher(sql);
+			Matcher m = SQL_APPEND_COMMAND_PATTERN.matcher(sql);
 			while (m.find()) {
 				String getFlagNumber = m.group(1);
 				String command = "#" + getFlagNumber;
@@ -465,6 +488,13 @@ public final class CommonSqlUtil {
 		return sql;
 	}
 
+	/**
+	 * 是否含有#拼接指令，有的话语句每次调用都可能不一样，不能缓存模板
+	 */
+	public static boolean hasSqlAppendCommand(String sql) {
+		return StringUtil.isNotEmpty(sql) && SQL_APPEND_COMMAND_PATTERN.matcher(sql).find();
+	}
+
 	public static String convertSqlCount(String sql) {
 		String sqlUpperCase = sql.toUpperCase().trim();
 		if (sqlUpperCase.startsWith("SELECT ") && sqlUpperCase.contains(" FROM ")) {
@@ -36,12 +36,12 @@ import org.axe.bean.persistence.PageConfig;
 import org.axe.bean.persistence.SqlPackage;
 import org.axe.bean.persistence.TableSchema;
 import org.axe.bean.persistence.TableSchema.ColumnSchema;
+import org.axe.bean.persistence.TableSchema.CrudSql;
 import org.axe.constant.ConfigConstant;
 import org.axe.helper.base.ConfigHelper;
 import org.axe.helper.persistence.TableHelper;
 import org.axe.util.CollectionUtil;
 import org.axe.util.PropsUtil;
-import org.axe.util.ReflectionUtil;
 import org.axe.util.StringUtil;
 
 /**
@@ -271,21 +271,27 @@ public final class MySqlUtil {
 		return columnDefine.toString();
 	}
 
+	/**
+	 * 语句按真实表名缓存在TableSchema里，参数就是所有字段的值
+	 */
 	public static SqlPackage getInsertSqlPackage(Object entity) {
-		String sql = "INSERT INTO " + TableHelper.getRealTableName(entity);
-		List<ColumnSchema> mappingColumnList = TableHelper.getCachedTableSchema(entity).getMappingColumnList();
-		StringBuilder columns = new StringBuilder("(");
-		StringBuilder values = new StringBuilder("(");
-		List<Object> params = new ArrayList<>();
-		for (ColumnSchema columnSchema:mappingColumnList) {
-			columns.append("`").append(columnSchema.getColumnName()).append("`, ");
-			values.append("?, ");
-			params.add(ReflectionUtil.invokeMethod(entity, columnSchema.getColumnSchema().getMethod()));
+		TableSchema tableSchema = TableHelper.getCachedTableSchema(entity);
+		String realTableName = TableHelper.getRealTableName(entity);
+		CrudSql crudSql = tableSchema.getCrudSql(realTableName);
+		String sql = crudSql.getInsertSql();
+		if(sql == null){
+			StringBuilder columns = new StringBuilder("(");
+			StringBuilder values = new StringBuilder("(");
+			for (ColumnSchema columnSchema:tableSchema.getMappingColumnList()) {
+				columns.append("`").append(columnSchema.getColumnName()).append("`, ");
+				values.append("?, ");
+			}
+			columns.replace(columns.lastIndexOf(", "), columns.length(), ")");
+			values.replace(values.lastIndexOf(", "), values.length(), ")");
+			sql = "INSERT INTO " + realTableName + columns + " VALUES " + values;
+			crudSql.setInsertSql(sql);
 		}
-		columns.replace(columns.lastIndexOf(", "), columns.length(), ")");
-		values.replace(values.lastIndexOf(", "), values.length(), ")");
-		sql += columns + " VALUES " + values;
-		return new SqlPackage(sql, params.toArray(), null);
+		return new SqlPackage(sql, tableSchema.getColumnValues(entity), null);
 	}
 
 	/**
@@ -35,10 +35,10 @@ import org.axe.bean.persistence.PageConfig;
 import org.axe.bean.persistence.SqlPackage;
 import org.axe.bean.persistence.TableSchema;
 import org.axe.bean.persistence.TableSchema.ColumnSchema;
+import org.axe.bean.persistence.TableSchema.CrudSql;
 import org.axe.constant.IdGenerateWay;
 import org.axe.helper.persistence.TableHelper;
 import org.axe.util.CollectionUtil;
-import org.axe.util.ReflectionUtil;
 import org.axe.util.StringUtil;
 
 /**
@@ -273,31 +273,47 @@ public final class OracleUtil {
 		return columnDefine.toString();
 	}
 
+	/**
+	 * 自增主键为空时用序列取值，否则作为预处理参数，两种语句都按真实表名缓存在TableSchema里
+	 */
 	public static SqlPackage getInsertSqlPackage(Object entity) {
+		TableSchema tableSchema = TableHelper.getCachedTableSchema(entity);
 		String tableName = TableHelper.getRealTableName(entity);
-		String sql = "INSERT INTO " + tableName;
-		List<ColumnSchema> mappingColumnList = TableHelper.getCachedTableSchema(entity).getMappingColumnList();
-		StringBuilder columns = new StringBuilder("(");
-		StringBuilder values = new StringBuilder("(");
-		List<Object> params = new ArrayList<>();
-		for (ColumnSchema columnSchema: mappingColumnList) {
-			//如果有@Id，如果是AutoIncrement，那么就自增
-			//并且对应的值是空的，才自增
-			Object param = ReflectionUtil.invokeMethod(entity, columnSchema.getColumnSchema().getMethod());
-			if (columnSchema.getPrimary() && columnSchema.getPrimaryKeyAutoIncrement() && param == null
-				) {
-				columns.append(columnSchema.getColumnName()).append(", ");
-				values.append(tableName+"_sq.nextval, ");
+		CrudSql crudSql = tableSchema.getCrudSql(tableName);
+		Object[] columnValues = tableSchema.getColumnValues(entity);
+		int autoIncrementIndex = tableSchema.getAutoIncrementIndex();
+		//如果有@Id，如果是AutoIncrement，并且对应的值是空的，才自增
+		boolean useSequence = autoIncrementIndex >= 0 && columnValues[autoIncrementIndex] == null;
+		String sql = useSequence ? crudSql.getSequenceInsertSql() : crudSql.getInsertSql();
+		if(sql == null){
+			StringBuilder columns = new StringBuilder("(");
+			StringBuilder values = new StringBuilder("(");
+			List<ColumnSchema> mappingColumnList = tableSchema.getMappingColumnList();
+			for (int i=0;i<mappingColumnList.size();i++) {
+				columns.append(mappingColumnList.get(i).getColumnName()).append(", ");
+				if (useSequence && i == autoIncrementIndex) {
+					values.append(tableName+"_sq.nextval, ");
+				}else{
+					values.append("?, ");
+				}
+			}
+			columns.replace(columns.lastIndexOf(", "), columns.length(), ")");
+			values.replace(values.lastIndexOf(", "), values.length(), ")");
+			sql = "INSERT INTO " + tableName + columns + " VALUES " + values;
+			if(useSequence){
+				crudSql.setSequenceInsertSql(sql);
 			}else{
-				columns.append(columnSchema.getColumnName()).append(", ");
-				values.append("?, ");
-				params.add(param);//只有不是id，或者是id但是不是自增，或者是id也是自增，但是已经给了值，才会作为预处理参数
+				crudSql.setInsertSql(sql);
 			}
 		}
-		columns.replace(columns.lastIndexOf(", "), columns.length(), ")");
-		values.replace(values.lastIndexOf(", "), values.length(), ")");
-		sql += columns + " VALUES " + values;
-		return new SqlPackage(sql, params.toArray(), null);
+		Object[] params = columnValues;
+		if(useSequence){
+			//只有不是id，或者是id但是不是自增，或者是id也是自增，但是已经给了值，才会作为预处理参数
+			params = new Object[columnValues.length-1];
+			System.arraycopy(columnValues, 0, params, 0, autoIncrementIndex);
+			System.arraycopy(columnValues, autoIncrementIndex+1, params, autoIncrementIndex, params.length-autoIncrementIndex);
+		}
+		return new SqlPackage(sql, params, null);
 	}
 	
 	public static String getGenerateIdSql(Object entity){